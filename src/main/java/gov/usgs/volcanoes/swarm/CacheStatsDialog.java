@@ -0,0 +1,189 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm;
+
+import gov.usgs.volcanoes.swarm.data.CacheStats;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.border.EmptyBorder;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A compact, live view of the cache metrics also published over JMX.
+ */
+public class CacheStatsDialog extends JDialog {
+  private static final long serialVersionUID = 1L;
+  private static final JFrame applicationFrame = Swarm.getApplicationFrame();
+
+  private static final int WIDTH = 720;
+  private static final int HEIGHT = 360;
+
+  /** refresh period in milliseconds. */
+  private static final int REFRESH_PERIOD = 1000;
+
+  private static final String[] COLUMNS = {"Type", "Channel", "Hits", "Partial", "Misses",
+      "Resident", "Evictions", "Merges", "Merge ms"};
+
+  private final NumberFormat nf = new DecimalFormat("#.##");
+  private final JLabel summary;
+  private final StatsTableModel model;
+  private final Timer timer;
+
+  /**
+   * Constructor.
+   */
+  public CacheStatsDialog() {
+    super(applicationFrame, "Cache Statistics", false);
+    setSize(WIDTH, HEIGHT);
+
+    summary = new JLabel();
+    summary.setBorder(new EmptyBorder(3, 6, 3, 6));
+    model = new StatsTableModel();
+    final JTable table = new JTable(model);
+    table.setAutoCreateRowSorter(true);
+
+    final JButton resetButton = new JButton("Reset");
+    resetButton.addActionListener(new ActionListener() {
+      public void actionPerformed(final ActionEvent e) {
+        CachedDataSource.getInstance().getMetrics().reset();
+        update();
+      }
+    });
+    final JButton closeButton = new JButton("Close");
+    closeButton.addActionListener(new ActionListener() {
+      public void actionPerformed(final ActionEvent e) {
+        setVisible(false);
+      }
+    });
+    final JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+    buttons.add(resetButton);
+    buttons.add(closeButton);
+
+    final JPanel panel = new JPanel(new BorderLayout());
+    panel.add(summary, BorderLayout.NORTH);
+    panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    panel.add(buttons, BorderLayout.SOUTH);
+    setContentPane(panel);
+
+    timer = new Timer(REFRESH_PERIOD, new ActionListener() {
+      public void actionPerformed(final ActionEvent e) {
+        update();
+      }
+    });
+  }
+
+  /**
+   * @see java.awt.Dialog#setVisible(boolean)
+   */
+  public void setVisible(final boolean v) {
+    if (v) {
+      setLocation();
+      update();
+      timer.start();
+    } else {
+      timer.stop();
+    }
+    super.setVisible(v);
+  }
+
+  private void setLocation() {
+    final Dimension parentSize = applicationFrame.getSize();
+    final Point parentLoc = applicationFrame.getLocation();
+    setLocation(parentLoc.x + (parentSize.width / 2 - WIDTH / 2),
+        parentLoc.y + (parentSize.height / 2 - HEIGHT / 2));
+  }
+
+  /**
+   * Refresh from a new snapshot. Call on the Event Dispatch Thread.
+   */
+  private void update() {
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    final CacheStats stats = cache.getCacheStats();
+    final double ratio = stats.getHitRatio();
+    summary.setText("Hit ratio: " + (Double.isNaN(ratio) ? "-" : nf.format(ratio * 100) + "%")
+        + "   Heap: " + toByteString(cache.getSize()) + "   Off heap: "
+        + toByteString(cache.getOffHeapSize()) + "   Disk: "
+        + toByteString(cache.getDiskCacheSize()) + "   Evictions: " + stats.getEvictions()
+        + "   Merges: " + stats.getMerges() + " (" + stats.getMergeTime() + " ms)");
+    model.setStats(stats.getChannels());
+  }
+
+  private String toByteString(final long bytes) {
+    return nf.format(bytes / 1000000.0) + " MB";
+  }
+
+  private class StatsTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private List<CacheStats.ChannelStats> rows = Collections.emptyList();
+
+    public void setStats(final List<CacheStats.ChannelStats> rows) {
+      this.rows = rows;
+      fireTableDataChanged();
+    }
+
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    public int getColumnCount() {
+      return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(final int column) {
+      return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(final int column) {
+      return column < 2 || column == 5 ? String.class : Long.class;
+    }
+
+    public Object getValueAt(final int row, final int column) {
+      final CacheStats.ChannelStats c = rows.get(row);
+      switch (column) {
+        case 0:
+          return c.getType().toLowerCase();
+        case 1:
+          return c.getChannel();
+        case 2:
+          return c.getHits();
+        case 3:
+          return c.getPartialHits();
+        case 4:
+          return c.getMisses();
+        case 5:
+          return toByteString(c.getResidentBytes());
+        case 6:
+          return c.getEvictions();
+        case 7:
+          return c.getMerges();
+        default:
+          return c.getMergeTime();
+      }
+    }
+  }
+}
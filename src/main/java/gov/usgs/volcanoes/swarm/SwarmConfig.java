@@ -76,6 +76,13 @@ public class SwarmConfig {
 
   public String kiosk;
 
+  /** MB of wave samples to cache outside the heap, 0 to disable. */
+  public int offHeapCacheSize;
+
+  /** MB of waves and helicorders to keep on disk across restarts, 0 to disable. */
+  public int diskCacheSize;
+  public String diskCachePath;
+
   public boolean saveConfig;
 
   public int chooserDividerLocation;
@@ -357,6 +364,11 @@ public class SwarmConfig {
 
     kiosk = StringUtils.stringToString(config.getString("kiosk"), "false");
 
+    offHeapCacheSize = StringUtils.stringToInt(config.getString("offHeapCacheSize"), 0);
+    diskCacheSize = StringUtils.stringToInt(config.getString("diskCacheSize"), 0);
+    diskCachePath = StringUtils.stringToString(config.getString("diskCachePath"),
+        System.getProperty("user.home") + File.separatorChar + "SwarmCache");
+
     saveConfig = StringUtils.stringToBoolean(config.getString("saveConfig"), true);
 
     durationEnabled = StringUtils.stringToBoolean(config.getString("durationEnabled"), false);
@@ -558,6 +570,10 @@ public class SwarmConfig {
     config.put("alertClip", Boolean.toString(alertClip));
     config.put("alertClipTimeout", Integer.toString(alertClipTimeout));
 
+    config.put("offHeapCacheSize", Integer.toString(offHeapCacheSize));
+    config.put("diskCacheSize", Integer.toString(diskCacheSize));
+    config.put("diskCachePath", diskCachePath);
+
     config.put("clipboardVisible", Boolean.toString(clipboardVisible));
     config.put("clipboardX", Integer.toString(clipboardX));
     config.put("clipboardY", Integer.toString(clipboardY));
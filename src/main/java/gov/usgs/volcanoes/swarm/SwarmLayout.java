@@ -21,7 +21,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -265,6 +267,10 @@ public class SwarmLayout implements Comparable<SwarmLayout> {
     }
     wcf.removeWaves();
     final int waves = cf.getInt("waves");
+    final List<WaveViewPanel> panels = new ArrayList<WaveViewPanel>(waves);
+    // waves from the same source over the same span are loaded with one batch request
+    final Map<String, List<WaveViewPanel>> batches =
+        new LinkedHashMap<String, List<WaveViewPanel>>();
     for (int i = 0; i < waves; i++) {
       final ConfigFile scf = cf.getSubConfig("wave-" + i);
       WaveViewSettings wvs = new WaveViewSettings();
@@ -276,8 +282,33 @@ public class SwarmLayout implements Comparable<SwarmLayout> {
       wvp.setChannel(channel);
       double st = scf.getDouble("startTime");
       double et = scf.getDouble("endTime");
-      Wave wave = ds.getWave(channel, st, et);
-      wvp.setWave(wave, st, et);
+      wvp.setStartTime(st);
+      wvp.setEndTime(et);
+      panels.add(wvp);
+      final String key = scf.getString("source") + ";" + st + ";" + et;
+      List<WaveViewPanel> batch = batches.get(key);
+      if (batch == null) {
+        batch = new ArrayList<WaveViewPanel>();
+        batches.put(key, batch);
+      }
+      batch.add(wvp);
+    }
+    for (final List<WaveViewPanel> batch : batches.values()) {
+      final WaveViewPanel first = batch.get(0);
+      final double st = first.getStartTime();
+      final double et = first.getEndTime();
+      final List<String> channels = new ArrayList<String>(batch.size());
+      for (final WaveViewPanel wvp : batch) {
+        if (!channels.contains(wvp.getChannel())) {
+          channels.add(wvp.getChannel());
+        }
+      }
+      final Map<String, Wave> loaded = first.getDataSource().getWaves(channels, st, et);
+      for (final WaveViewPanel wvp : batch) {
+        wvp.setWave(loaded.get(wvp.getChannel()), st, et);
+      }
+    }
+    for (final WaveViewPanel wvp : panels) {
       wcf.addWave(wvp);
     }
     wcf.show();
@@ -59,6 +59,7 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
   private JMenuItem openFile;
   private JMenuItem closeFiles;
   private JMenuItem clearCache;
+  private JMenuItem cacheStats;
   private JMenuItem options;
   private JMenuItem save;
   private JMenuItem exit;
@@ -84,6 +85,7 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
   private JMenuItem about;
 
   private AboutDialog aboutDialog;
+  private CacheStatsDialog cacheStatsDialog;
 
   private Map<JInternalFrame, InternalFrameMenuItem> windows;
   private Map<SwarmLayout, JMenuItem> layouts;
@@ -160,6 +162,18 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
     });
     clearCache.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F12, KeyEvent.CTRL_DOWN_MASK));
     fileMenu.add(clearCache);
+
+    cacheStats = new JMenuItem("Cache Statistics...");
+    cacheStats.setMnemonic('S');
+    cacheStats.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (cacheStatsDialog == null) {
+          cacheStatsDialog = new CacheStatsDialog();
+        }
+        cacheStatsDialog.setVisible(true);
+      }
+    });
+    fileMenu.add(cacheStats);
     
     fileMenu.addSeparator();
     
@@ -5,6 +5,7 @@ import com.jgoodies.forms.factories.Borders;
 import com.jgoodies.forms.layout.FormLayout;
 
 import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.swarm.data.WwsSource;
 
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
@@ -20,6 +21,7 @@ public class WWSPanel extends DataSourcePanel {
   private JTextField wwsPort;
   private JTextField wwsTimeout;
   private JCheckBox wwsCompress;
+  private JTextField connections;
 
   public WWSPanel() {
     super("wws", "Winston Wave Server");
@@ -30,6 +32,7 @@ public class WWSPanel extends DataSourcePanel {
     wwsPort = new JTextField();
     wwsTimeout = new JTextField();
     wwsCompress = new JCheckBox();
+    connections = new JTextField();
     resetSource(source);
   }
 
@@ -43,17 +46,22 @@ public class WWSPanel extends DataSourcePanel {
     String p = "16022";
     String t = "15.0";
     boolean wscomp = true;
+    String c = Integer.toString(WwsSource.DEFAULT_POOL_SIZE);
     if (source != null && source.indexOf(";wws:") != -1) {
       String[] ss = source.substring(source.indexOf(";wws:") + 5).split(":");
       h = ss[0];
       p = ss[1];
       t = String.format("%.1f", Integer.parseInt(ss[2]) / 1000.0);
       wscomp = ss[3].equals("1");
+      if (ss.length >= 5) {
+        c = ss[4];
+      }
     }
     wwsHost.setText(h);
     wwsPort.setText(p);
     wwsTimeout.setText(t);
     wwsCompress.setSelected(wscomp);
+    connections.setText(c);
   }
   
   @Override
@@ -84,6 +92,11 @@ public class WWSPanel extends DataSourcePanel {
     builder.append(wwsCompress);
     builder.nextLine();
 
+    builder.append("Connections:");
+    builder.append(connections);
+    builder.append(" fetched in parallel");
+    builder.nextLine();
+
     panel = builder.getPanel();
   }
 
@@ -105,6 +118,11 @@ public class WWSPanel extends DataSourcePanel {
     if (to <= 0) {
       message = "There is an error with the WWS time out (must be > 0).";
     }
+
+    int c = StringUtils.stringToInt(connections.getText(), -1);
+    if (c < 1) {
+      message = "There is an error with the WWS connections (must be >= 1).";
+    }
     
     if (message != null) {
       JOptionPane.showMessageDialog(applicationFrame, message, "Error", JOptionPane.ERROR_MESSAGE);
@@ -117,8 +135,8 @@ public class WWSPanel extends DataSourcePanel {
   @Override
   public String wasOk() {
     int timeout = (int) (Double.parseDouble(wwsTimeout.getText()) * 1000);
-    String result = String.format("wws:%s:%s:%d:%s", wwsHost.getText(), wwsPort.getText(), timeout,
-        (wwsCompress.isSelected() ? "1" : "0"));
+    String result = String.format("wws:%s:%s:%d:%s:%s", wwsHost.getText(), wwsPort.getText(),
+        timeout, (wwsCompress.isSelected() ? "1" : "0"), connections.getText());
     return result;
   }
 
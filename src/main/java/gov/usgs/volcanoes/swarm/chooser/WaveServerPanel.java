@@ -5,6 +5,7 @@ import com.jgoodies.forms.factories.Borders;
 import com.jgoodies.forms.layout.FormLayout;
 
 import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.swarm.data.WaveServerSource;
 
 import java.util.Arrays;
 import java.util.TimeZone;
@@ -26,6 +27,7 @@ public class WaveServerPanel extends DataSourcePanel {
   private JTextField gulperSize;
   private JTextField gulperDelay;
   private JComboBox<String> wsOffset;
+  private JTextField connections;
 
   public WaveServerPanel() {
     super("ws", "Earthworm Wave Server");
@@ -37,6 +39,7 @@ public class WaveServerPanel extends DataSourcePanel {
     wsTimeout = new JTextField();
     gulperSize = new JTextField();
     gulperDelay = new JTextField();
+    connections = new JTextField();
     String[] tzs = TimeZone.getAvailableIDs();
     Arrays.sort(tzs);
     wsOffset = new JComboBox<String>(tzs);
@@ -53,6 +56,7 @@ public class WaveServerPanel extends DataSourcePanel {
     String t = "2.0";
     String gs = "30";
     String gd = "1.0";
+    String c = Integer.toString(WaveServerSource.DEFAULT_POOL_SIZE);
     wsOffset.setSelectedItem("UTC");
 
     if (source != null && source.indexOf(";ws:") != -1) {
@@ -65,12 +69,16 @@ public class WaveServerPanel extends DataSourcePanel {
       if (ss.length >= 6) {
         wsOffset.setSelectedItem(ss[5]);
       }
+      if (ss.length >= 7) {
+        c = ss[6];
+      }
     }
     wsHost.setText(h);
     wsPort.setText(p);
     wsTimeout.setText(t);
     gulperSize.setText(gs);
     gulperDelay.setText(gd);
+    connections.setText(c);
 
   }
 
@@ -109,6 +117,11 @@ public class WaveServerPanel extends DataSourcePanel {
     builder.append("Tank file time zone:");
     builder.append(wsOffset, 3);
     builder.nextLine();
+
+    builder.append("Connections:");
+    builder.append(connections);
+    builder.append(" fetched in parallel");
+    builder.nextLine();
     // builder.append(" minutes");
 
     panel = builder.getPanel();
@@ -142,6 +155,11 @@ public class WaveServerPanel extends DataSourcePanel {
       message = "The gulper delay must be greater than or equal to 0 seconds. ";
     }
 
+    int c = StringUtils.stringToInt(connections.getText(), -1);
+    if (c < 1) {
+      message = "The number of connections must be at least 1. ";
+    }
+
     if (message != null) {
       JOptionPane.showMessageDialog(applicationFrame, message, "Error", JOptionPane.ERROR_MESSAGE);
       return false;
@@ -155,8 +173,8 @@ public class WaveServerPanel extends DataSourcePanel {
     int timeout = (int) (Double.parseDouble(wsTimeout.getText()) * 1000);
     int gs = (int) (Double.parseDouble(gulperSize.getText()) * 60);
     int gd = (int) (Double.parseDouble(gulperDelay.getText()) * 1000);
-    String result = String.format("ws:%s:%s:%d:%d:%d:%s", wsHost.getText(), wsPort.getText(),
-        timeout, gs, gd, wsOffset.getSelectedItem());
+    String result = String.format("ws:%s:%s:%d:%d:%d:%s:%s", wsHost.getText(),
+        wsPort.getText(), timeout, gs, gd, wsOffset.getSelectedItem(), connections.getText());
     return result;
   }
 
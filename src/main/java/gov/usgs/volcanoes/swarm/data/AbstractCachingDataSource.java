@@ -12,10 +12,18 @@ import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.swarm.Swarm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JFrame;
 
@@ -31,6 +39,22 @@ import cern.colt.matrix.DoubleMatrix2D;
  * 
  * <p>Mostly build with Dan's code pulled from CachedDataSource.
  *
+ * <p>There is no cache-wide lock. Each channel's entries live in a {@link CacheIndex} with its own
+ * read/write lock, so readers of one channel never wait on writers of another. Purging takes the
+ * channel locks one at a time.
+ *
+ * <p>When the cache grows past maxSize, a low priority background thread evicts entries in the
+ * order chosen by a {@link CacheEvictionPolicy} until it is back under a lower watermark, so a
+ * full cache is trimmed rather than wiped. Writers never evict; they only wait, briefly, when the
+ * cache is past a hard limit the thread hasn't caught up with. Data pinned by a viewer is never
+ * evicted. Waves idle for a couple of minutes, or chosen for eviction, are first compressed in
+ * place.
+ *
+ * <p>If a {@link DiskCache} is attached, evicted waves and helicorders are written to it, and
+ * lookups that miss in memory load what they can from it before reporting a miss.
+ *
+ * <p>Lookups, evictions and merges are counted per channel in a {@link CacheMetrics}.
+ *
  * @author Tom Parker
  */
 public abstract class AbstractCachingDataSource extends SeismicDataSource implements RsamSource {
@@ -45,11 +69,52 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   /** microsecond conversion. */
   protected static final double FROM_USEC = 1E-6;
 
+  /** minimum distance, in seconds, searched either side of a new wave for adjacent waves. */
+  private static final double ADJACENT_TOLERANCE = 1;
+
+  /** once over maxSize, evict down to this fraction of it so the next put doesn't purge again. */
+  private static final double LOW_WATERMARK = 0.8;
+
+  /** fraction of maxSize past which writers wait for the eviction thread. */
+  private static final double HARD_LIMIT = 1.25;
+
+  /** longest a writer waits for the eviction thread, in milliseconds. */
+  private static final long MAX_BACKPRESSURE_WAIT = 500;
+
+  /** row period, in seconds, of a helicorder downsampled by eviction. */
+  private static final int DOWNSAMPLED_HELICORDER_PERIOD = 10;
+
+  /** idle time, in milliseconds, after which a cached wave is compressed. */
+  private static final long COMPRESS_AFTER = 2 * 60 * 1000;
+
+  /** how often, in milliseconds, to look for idle waves to compress. */
+  private static final long COMPRESS_INTERVAL = 30 * 1000;
+
   protected long maxSize;
-  protected Map<String, List<CachedHelicorder>> helicorderCache;
-  protected Map<String, List<CachedWave>> waveCache;
-  protected Map<String, List<CachedRsam>> rsamCache;
-  protected CachePurgeAction[] purgeActions;
+  protected ConcurrentMap<String, CacheIndex<CachedHelicorder>> helicorderCache;
+  protected ConcurrentMap<String, CacheIndex<CachedWave>> waveCache;
+  protected ConcurrentMap<String, CacheIndex<CachedRsam>> rsamCache;
+  protected ConcurrentMap<String, HelicorderPyramid> helicorderPyramids;
+  protected final AtomicLong waveCacheSize;
+  protected final AtomicLong helicorderCacheSize;
+  protected final AtomicLong rsamCacheSize;
+  protected CacheEvictionPolicy evictionPolicy;
+  protected boolean downsampleHelicorders;
+  protected OffHeapSampleStore offHeapStore;
+  protected DiskCache diskCache;
+  protected boolean compressColdWaves;
+  private final AtomicLong compressedRawSize;
+  private final AtomicLong compressedSize;
+  private volatile long lastCompressSweep;
+  private final ConcurrentMap<Object, CachePin> pins;
+  private final Lock evictionLock;
+  private final Condition evictionNeeded;
+  private final Condition evicted;
+  private boolean evictionRequested;
+  private volatile Thread evictionThread;
+  /** heap plus off heap size when an eviction pass last freed nothing, -1 if it freed some. */
+  private volatile long stalledAt = -1;
+  protected final CacheMetrics metrics;
   protected static Logger logger;
   protected static final JFrame applicationFrame = Swarm.getApplicationFrame();
 
@@ -57,11 +122,24 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * Constructor.
    */
   public AbstractCachingDataSource() {
-    helicorderCache = new HashMap<String, List<CachedHelicorder>>();
-    waveCache = new HashMap<String, List<CachedWave>>();
-    rsamCache = new HashMap<String, List<CachedRsam>>();
+    helicorderCache = new ConcurrentHashMap<String, CacheIndex<CachedHelicorder>>();
+    waveCache = new ConcurrentHashMap<String, CacheIndex<CachedWave>>();
+    rsamCache = new ConcurrentHashMap<String, CacheIndex<CachedRsam>>();
+    helicorderPyramids = new ConcurrentHashMap<String, HelicorderPyramid>();
+    waveCacheSize = new AtomicLong();
+    helicorderCacheSize = new AtomicLong();
+    rsamCacheSize = new AtomicLong();
+    pins = new ConcurrentHashMap<Object, CachePin>();
+    evictionLock = new ReentrantLock();
+    evictionNeeded = evictionLock.newCondition();
+    evicted = evictionLock.newCondition();
     maxSize = Runtime.getRuntime().maxMemory() / 6;
-    createPurgeActions();
+    evictionPolicy = new CostEvictionPolicy();
+    downsampleHelicorders = true;
+    compressColdWaves = true;
+    compressedRawSize = new AtomicLong();
+    compressedSize = new AtomicLong();
+    metrics = new CacheMetrics();
   }
 
   @Override
@@ -75,6 +153,9 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   public void flush() {
     flushWaves();
     flushHelicorders();
+    if (diskCache != null) {
+      diskCache.clear();
+    }
     System.gc();
   }
 
@@ -84,105 +165,464 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   }
 
   /**
-   * Get total size of cache.
-   * @return
+   * Get total size of cache. Sizes are kept as data is added and removed, so this is cheap.
+   * @return size in bytes
    */
-  public synchronized long getSize() {
-    long size = getSize(waveCache);
-    size += getSize(helicorderCache);
-    size += getSize(rsamCache);
-    return size;
+  public long getSize() {
+    return waveCacheSize.get() + helicorderCacheSize.get() + rsamCacheSize.get();
   }
 
-  private synchronized <T extends CacheEntry> long getSize(final Map<String, List<T>> cache) {
+  /**
+   * Get bytes of wave samples held off heap.
+   * @return size in bytes, 0 if off heap storage is disabled
+   */
+  public long getOffHeapSize() {
+    return offHeapStore == null ? 0 : offHeapStore.getUsed();
+  }
+
+  /**
+   * Keep wave samples outside the Java heap, up to the given budget. Waves that don't fit stay on
+   * the heap. Call once, before anything is cached.
+   *
+   * @param budget off heap budget in bytes
+   */
+  protected void enableOffHeapStorage(final long budget) {
+    if (offHeapStore == null) {
+      offHeapStore = new OffHeapSampleStore(budget);
+    }
+  }
+
+  /**
+   * Attach a disk cache as a second tier behind memory. Call once, before anything is cached.
+   *
+   * @param diskCache disk cache
+   */
+  protected void setDiskCache(final DiskCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * Get bytes of waves and helicorders cached on disk.
+   * @return size in bytes, 0 if there is no disk cache
+   */
+  public long getDiskCacheSize() {
+    return diskCache == null ? 0 : diskCache.getSize();
+  }
+
+  public long getWaveCacheSize() {
+    return waveCacheSize.get();
+  }
+
+  public long getHelicorderCacheSize() {
+    return helicorderCacheSize.get();
+  }
+
+  public long getRsamCacheSize() {
+    return rsamCacheSize.get();
+  }
+
+  /**
+   * Get size of the waves and helicorders cached for a channel.
+   * @param station channel
+   * @return size in bytes
+   */
+  public long getSize(final String station) {
     long size = 0;
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
+    if (waves != null) {
+      size += waves.getMemorySize();
+    }
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
+    if (helis != null) {
+      size += helis.getMemorySize();
+    }
+    final HelicorderPyramid pyramid = helicorderPyramids.get(station);
+    if (pyramid != null) {
+      size += pyramid.getMemorySize();
+    }
+    return size;
+  }
+
+  /**
+   * Get the index for a key, creating it if needed, and take its write lock. Caller unlocks.
+   *
+   * @param cache cache map
+   * @param key index key
+   * @param cacheSize byte counter for the cache
+   * @return the write locked index
+   */
+  private static <T extends CacheEntry> CacheIndex<T> lockIndex(
+      final ConcurrentMap<String, CacheIndex<T>> cache, final String key,
+      final AtomicLong cacheSize) {
+    while (true) {
+      CacheIndex<T> index = cache.get(key);
+      if (index == null) {
+        final CacheIndex<T> newIndex = new CacheIndex<T>(cacheSize);
+        index = cache.putIfAbsent(key, newIndex);
+        if (index == null) {
+          index = newIndex;
+        }
+      }
 
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
+      index.writeLock().lock();
+      if (!index.isRetired()) {
+        return index;
+      }
+      // flushed while we waited, try again with a fresh index
+      index.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove every index from a cache.
+   *
+   * @param cache cache map
+   * @param type data type, for metrics
+   */
+  private <T extends CacheEntry> void flushCache(
+      final ConcurrentMap<String, CacheIndex<T>> cache, final CacheMetrics.Type type) {
+    for (final String key : cache.keySet()) {
+      final CacheIndex<T> index = cache.remove(key);
+      if (index == null) {
+        continue;
+      }
+      index.writeLock().lock();
+      try {
+        metrics.evicted(type, key, CacheMetrics.PurgeReason.FLUSH, index.size());
+        index.retire();
+      } finally {
+        index.writeLock().unlock();
       }
     }
-    return size;
   }
 
   /**
    * Output cache size.
    */
   public void output() {
-    long size = outputCache("Wave", waveCache);
-    size += outputCache("Helicorder", helicorderCache);
+    long size = outputCache("Wave", waveCache, waveCacheSize);
+    size += outputCache("Helicorder", helicorderCache, helicorderCacheSize);
     System.out.println("Wave Last Access Order:");
-    final List<CacheEntry> wl = getEntriesByLastAccess(waveCache);
+    final List<CachedWave> wl = getEntriesByLastAccess(waveCache);
     for (final CacheEntry ce : wl) {
       System.out.println(ce.getInfoString());
     }
 
     System.out.println("Helicorder Last Access Order:");
-    final List<CacheEntry> hl = getEntriesByLastAccess(helicorderCache);
+    final List<CachedHelicorder> hl = getEntriesByLastAccess(helicorderCache);
     for (final CacheEntry ce : hl) {
       System.out.println(ce.getInfoString());
     }
 
+    System.out.println("Compressed waves: " + compressedRawSize.get() + " bytes in "
+        + compressedSize.get() + " bytes, ratio " + getWaveCompressionRatio());
     System.out.println("Total size: " + size + " bytes");
+
+    final CacheStats stats = getCacheStats();
+    System.out.println("Hits: " + stats.getHits() + ", partial hits: " + stats.getPartialHits()
+        + ", misses: " + stats.getMisses() + ", evictions: " + stats.getEvictions()
+        + ", merges: " + stats.getMerges() + " in " + stats.getMergeTime() + " ms");
   }
 
-  private synchronized <T extends CacheEntry> List<CacheEntry> getEntriesByLastAccess(
-      final Map<String, List<T>> cache) {
-    final List<CacheEntry> cl = new ArrayList<CacheEntry>();
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
-      for (final T ce : cwl){
-        cl.add(ce);
+  public CacheMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Snapshot of the cache metrics along with the bytes each channel holds, on and off heap.
+   *
+   * @return cache stats
+   */
+  public CacheStats getCacheStats() {
+    final Map<String, Long> resident = new HashMap<String, Long>();
+    addResidentBytes(waveCache, CacheMetrics.Type.WAVE, resident);
+    addResidentBytes(helicorderCache, CacheMetrics.Type.HELICORDER, resident);
+    addResidentBytes(rsamCache, CacheMetrics.Type.RSAM, resident);
+    return metrics.getSnapshot(resident);
+  }
+
+  private static <T extends CacheEntry> void addResidentBytes(
+      final Map<String, CacheIndex<T>> cache, final CacheMetrics.Type type,
+      final Map<String, Long> resident) {
+    for (final Map.Entry<String, CacheIndex<T>> entry : cache.entrySet()) {
+      final CacheIndex<T> index = entry.getValue();
+      String channel = null;
+      long bytes = 0;
+      index.readLock().lock();
+      try {
+        for (final T ce : index) {
+          // RSAM indexes are keyed by channel and period; count them per channel
+          channel = ce.station;
+          bytes += ce.getMemorySize() + ce.getOffHeapSize();
+        }
+      } finally {
+        index.readLock().unlock();
+      }
+      if (channel != null) {
+        final String key = CacheMetrics.getKey(type, channel);
+        final Long total = resident.get(key);
+        resident.put(key, total == null ? bytes : total + bytes);
+      }
+    }
+  }
+
+  private <T extends CacheEntry> List<T> getEntriesByLastAccess(
+      final Map<String, CacheIndex<T>> cache) {
+    final List<T> cl = new ArrayList<T>();
+    for (final CacheIndex<T> cwl : cache.values()) {
+      cwl.readLock().lock();
+      try {
+        for (final T ce : cwl) {
+          cl.add(ce);
+        }
+      } finally {
+        cwl.readLock().unlock();
       }
     }
 
     return cl;
   }
 
+  public void setEvictionPolicy(final CacheEvictionPolicy evictionPolicy) {
+    this.evictionPolicy = evictionPolicy;
+  }
+
+  /**
+   * Choose what eviction does to helicorders. If true, a full resolution helicorder is first
+   * downsampled to one row every ten seconds and only removed if it is chosen again.
+   *
+   * @param downsampleHelicorders true to downsample before removing
+   */
+  public void setDownsampleHelicorders(final boolean downsampleHelicorders) {
+    this.downsampleHelicorders = downsampleHelicorders;
+  }
+
+  /**
+   * Choose whether idle waves are compressed. If true, waves are delta encoded after two idle
+   * minutes, and a wave chosen for eviction is compressed rather than removed.
+   *
+   * @param compressColdWaves true to compress
+   */
+  public void setCompressColdWaves(final boolean compressColdWaves) {
+    this.compressColdWaves = compressColdWaves;
+  }
+
   /**
-   * Create purge actions.
+   * Get how much compressed waves have shrunk.
+   *
+   * @return uncompressed size over compressed size, 1 if nothing is compressed
    */
-  public void createPurgeActions() {
-    purgeActions = new CachePurgeAction[] {
-        // purge anything that hasn't been hit in 5 minutes
-        new TimeLimitWavePurgeAction(waveCache, 5 * 60 * 1000),
-        new TimeLimitHelicorderPurgeAction(helicorderCache, 5 * 60 * 1000),
-        new TimeLimitRsamPurgeAction(rsamCache, 5 * 60 * 1000),
+  public double getWaveCompressionRatio() {
+    final long compressed = compressedSize.get();
+    return compressed == 0 ? 1 : (double) compressedRawSize.get() / compressed;
+  }
+
+  /**
+   * Protect data from eviction, typically because it is on screen. Each owner holds at most one
+   * pin; pinning again moves it.
+   *
+   * @param owner pin owner, usually the viewer displaying the data
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void pin(final Object owner, final String station, final double t1, final double t2) {
+    pins.put(owner, new CachePin(station.replace(' ', '$'), t1, t2));
+    // moving a pin may leave data which can be evicted
+    stalledAt = -1;
+  }
+
+  /**
+   * Release an owner's pin.
+   *
+   * @param owner pin owner
+   */
+  public void unpin(final Object owner) {
+    pins.remove(owner);
+    stalledAt = -1;
+  }
+
+  private boolean isPinned(final CacheEntry ce) {
+    for (final CachePin pin : pins.values()) {
+      if (pin.station.equals(ce.station) && pin.t1 <= ce.t2 && pin.t2 >= ce.t1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Wake the eviction thread if the cache is over its high watermark. Writers call this after
+   * adding data, without any channel lock held. If the cache is over its hard limit the writer
+   * then waits, for a bounded time, for the eviction thread to make room. It doesn't wait once a
+   * pass frees nothing, as when everything left is pinned.
+   */
+  private void requestEviction() {
+    // the thread also sweeps for idle waves, so start it with the first put
+    startEvictionThread();
+    if (!isOverHighWatermark()) {
+      return;
+    }
 
-        // cut waves larger than 3 hours in half keeping latest half
-        new HalveLargeWavesPurgeAction(waveCache, 3 * 60 * 60),
+    evictionLock.lock();
+    try {
+      evictionRequested = true;
+      evictionNeeded.signal();
+      long wait = TimeUnit.MILLISECONDS.toNanos(MAX_BACKPRESSURE_WAIT);
+      while (wait > 0 && getSize() > maxSize * HARD_LIMIT && stalledAt < 0) {
+        wait = evicted.awaitNanos(wait);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Heap over maxSize, or off heap full once the largest wave might not fit.
+   */
+  private boolean isOverHighWatermark() {
+    return getSize() > maxSize || (offHeapStore != null
+        && getOffHeapSize() > offHeapStore.getBudget() - MAX_WAVE_SIZE);
+  }
 
-        // cut waves larger than 1 hour in half
-        new HalveLargeWavesPurgeAction(waveCache, 60 * 60),
+  private void startEvictionThread() {
+    if (evictionThread != null) {
+      return;
+    }
+    synchronized (this) {
+      if (evictionThread == null) {
+        final Thread thread = new Thread(new Runnable() {
+          public void run() {
+            runEviction();
+          }
+        }, "Cache eviction");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        evictionThread = thread;
+      }
+    }
+  }
 
-        // getting to the last resort, purge wave cache
-        new CompleteWavePurgeAction(waveCache),
+  /**
+   * Body of the eviction thread. Evicts when asked and sweeps for idle waves to compress between
+   * requests.
+   */
+  private void runEviction() {
+    while (true) {
+      evictionLock.lock();
+      try {
+        if (!evictionRequested) {
+          evictionNeeded.await(COMPRESS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        evictionRequested = false;
+      } catch (final InterruptedException e) {
+        return;
+      } finally {
+        evictionLock.unlock();
+      }
 
-        // should halve large helis
+      try {
+        if (compressColdWaves
+            && System.currentTimeMillis() - lastCompressSweep > COMPRESS_INTERVAL) {
+          compressIdleWaves();
+        }
+        enforceSize();
+      } catch (final RuntimeException e) {
+        LOGGER.warn("cache eviction failed", e);
+      }
 
-        // nothing left to do, purge helicorder cache
-        new CompleteHelicorderPurgeAction(helicorderCache)};
+      evictionLock.lock();
+      try {
+        evicted.signalAll();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
   }
 
-  /** TODO: maybe this should be an observer? */
-  private synchronized void enforceSize() {
-    if (purgeActions == null) {
+  /**
+   * Evict entries in the order chosen by the eviction policy until the cache is back under its
+   * low watermark. Pinned entries are never evicted. Once a pass frees nothing, entries aren't
+   * ranked again until the cache grows or a pin moves. Runs on the eviction thread without any
+   * channel lock held.
+   */
+  private void enforceSize() {
+    final long startSize = getSize();
+    final long startOffHeapSize = getOffHeapSize();
+    final boolean offHeapFull = offHeapStore != null
+        && startOffHeapSize > offHeapStore.getBudget() - MAX_WAVE_SIZE;
+    if (startSize <= maxSize && !offHeapFull) {
+      stalledAt = -1;
       return;
     }
+    final long stalled = stalledAt;
+    if (stalled >= 0 && startSize + startOffHeapSize <= stalled) {
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    final List<RankedEntry> ranked = new ArrayList<RankedEntry>();
+    rankEntries(waveCache, CacheMetrics.Type.WAVE, now, ranked);
+    rankEntries(helicorderCache, CacheMetrics.Type.HELICORDER, now, ranked);
+    rankEntries(rsamCache, CacheMetrics.Type.RSAM, now, ranked);
+    Collections.sort(ranked);
+
+    final long target = startSize > maxSize ? (long) (maxSize * LOW_WATERMARK) : startSize;
+    final long offHeapTarget =
+        offHeapFull ? (long) (offHeapStore.getBudget() * LOW_WATERMARK) : startOffHeapSize;
+    for (final RankedEntry re : ranked) {
+      final boolean overHeap = getSize() > target;
+      final boolean overOffHeap = getOffHeapSize() > offHeapTarget;
+      if (!overHeap && !overOffHeap) {
+        break;
+      }
+      final boolean offHeap = re.entry.getOffHeapSize() > 0;
+      if (offHeap ? overOffHeap : overHeap) {
+        re.entry.evict();
+        metrics.evicted(re.type, re.entry.station, offHeap ? CacheMetrics.PurgeReason.OFF_HEAP
+            : CacheMetrics.PurgeReason.HEAP, 1);
+      }
+    }
+    final boolean freed = getSize() < startSize || getOffHeapSize() < startOffHeapSize;
+    stalledAt = freed ? -1 : startSize + startOffHeapSize;
+    LOGGER.debug("evicted {} bytes from cache, {} bytes off heap", startSize - getSize(),
+        startOffHeapSize - getOffHeapSize());
+  }
 
-    long target = getSize() - maxSize;
-    int i = 0;
-    while (target > 0 && i < purgeActions.length) {
-      final long chunk = purgeActions[i].purge();
-      LOGGER.debug("purged {} bytes from cache", chunk);
-      target -= chunk;
-      i++;
+  /**
+   * Compress on heap waves nobody has looked at in a while. Runs on the eviction thread.
+   */
+  private void compressIdleWaves() {
+    final long now = System.currentTimeMillis();
+    lastCompressSweep = now;
+    for (final CachedWave cw : getEntriesByLastAccess(waveCache)) {
+      if (now - cw.lastAccess > COMPRESS_AFTER && cw.compress() > 0) {
+        metrics.evicted(CacheMetrics.Type.WAVE, cw.station, CacheMetrics.PurgeReason.IDLE, 1);
+      }
     }
   }
 
-  private synchronized void putWaveInCache(final String channel, final Wave wave,
-      final List<CachedWave> waves) {
+  /**
+   * Score unpinned entries once, up front. Access times keep changing while the purge runs, so
+   * they can't be compared directly during the sort.
+   */
+  private <T extends CacheEntry> void rankEntries(final Map<String, CacheIndex<T>> cache,
+      final CacheMetrics.Type type, final long now, final List<RankedEntry> ranked) {
+    for (final T ce : getEntriesByLastAccess(cache)) {
+      if (!isPinned(ce)) {
+        ranked.add(new RankedEntry(ce, type, evictionPolicy.getPriority(ce, now)));
+      }
+    }
+  }
+
+  /**
+   * Add a wave to a channel's index. Caller holds the index write lock.
+   */
+  private void putWaveInCache(final String channel, final Wave wave,
+      final CacheIndex<CachedWave> waves) {
     if (wave.getMemorySize() > MAX_WAVE_SIZE) {
       final Wave[] splitWaves = wave.split();
       putWaveInCache(channel, splitWaves[0], waves);
@@ -193,10 +633,15 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     cw.station = channel;
     cw.t1 = wave.getStartTime();
     cw.t2 = wave.getEndTime();
-    cw.wave = wave;
+    cw.samplingRate = wave.getSamplingRate();
+    if (offHeapStore != null) {
+      cw.samples = offHeapStore.store(wave.buffer);
+    }
+    if (cw.samples == null) {
+      cw.wave = wave;
+    }
     cw.lastAccess = System.currentTimeMillis();
     waves.add(cw);
-    enforceSize();
   }
 
   /**
@@ -208,10 +653,20 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     if (rsamData == null || rsamData.getData() == null) {
       return;
     }
-    
-    List<CachedRsam> rsams = rsamCache.get(station);
-    if (rsams == null) {
-      rsams = new ArrayList<CachedRsam>();
+
+    final CacheIndex<CachedRsam> rsams =
+        lockIndex(rsamCache, getRsamKey(station, rsamData.getPeriod()), rsamCacheSize);
+    try {
+      for (final CachedRsam cr : rsams.getOverlapping(rsamData.getStartTime(),
+          rsamData.getEndTime())) {
+        if (cr.rsamData.overlaps(rsamData) && rsamData != cr.rsamData) {
+          rsams.remove(cr);
+          final long start = System.nanoTime();
+          rsamData = cr.rsamData.combine(rsamData);
+          metrics.merged(CacheMetrics.Type.RSAM, station, System.nanoTime() - start);
+        }
+      }
+
       final CachedRsam cr = new CachedRsam();
       cr.station = station;
       cr.t1 = rsamData.getStartTime();
@@ -219,33 +674,21 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       cr.rsamData = rsamData;
       cr.lastAccess = System.currentTimeMillis();
       rsams.add(cr);
-      rsamCache.put(station, rsams);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < rsams.size(); i++) {
-        final CachedRsam ch = rsams.get(i);
-        if (ch.rsamData.overlaps(rsamData) && rsamData != ch.rsamData) {
-          rsams.remove(ch);
-          final RSAMData newRsam = ch.rsamData.combine(rsamData);
-          putRsam(station, newRsam);
-          rsamData = newRsam;
-          i = 0;
-          add = false;
-        }
-      }
-
-      if (add) {
-        final CachedRsam ch = new CachedRsam();
-        ch.station = station;
-        ch.t1 = rsamData.getStartTime();
-        ch.t2 = rsamData.getEndTime();
-        ch.rsamData = rsamData;
-        ch.lastAccess = System.currentTimeMillis();
-        rsams.add(ch);
-        enforceSize();
-      }
+    } finally {
+      rsams.writeLock().unlock();
     }
+    requestEviction();
+  }
+
+  /**
+   * RSAM is indexed by channel and period, so data with different periods is never combined.
+   *
+   * @param station channel
+   * @param period RSAM period
+   * @return RSAM cache key
+   */
+  private static String getRsamKey(final String station, final int period) {
+    return station + ":" + period;
   }
 
   /**
@@ -253,10 +696,45 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param helicorder helicorder data
    */
-  public synchronized void putHelicorder(final String station, HelicorderData helicorder) {
-    List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      helis = new ArrayList<CachedHelicorder>();
+  public void putHelicorder(final String station, HelicorderData helicorder) {
+    // only the new rows, not what they merge with
+    while (true) {
+      HelicorderPyramid pyramid = helicorderPyramids.get(station);
+      if (pyramid == null) {
+        final HelicorderPyramid newPyramid = new HelicorderPyramid(helicorderCacheSize);
+        pyramid = helicorderPyramids.putIfAbsent(station, newPyramid);
+        if (pyramid == null) {
+          pyramid = newPyramid;
+        }
+      }
+      if (pyramid.add(helicorder)) {
+        break;
+      }
+      // flushed meanwhile, try again with a fresh pyramid
+      helicorderPyramids.remove(station, pyramid);
+    }
+
+    final CacheIndex<CachedHelicorder> helis =
+        lockIndex(helicorderCache, station, helicorderCacheSize);
+    try {
+      // merge with any neighbours this helicorder overlaps
+      for (final CachedHelicorder ch : helis.getOverlapping(helicorder.getStartTime(),
+          helicorder.getEndTime())) {
+        if (ch.downsampled && ch.helicorder.overlaps(helicorder)) {
+          // full resolution rows replace the downsampled rows they cover
+          helis.remove(ch);
+          keepDownsampled(helis, ch,
+              rowsBetween(ch.helicorder, Double.NEGATIVE_INFINITY, helicorder.getStartTime()));
+          keepDownsampled(helis, ch,
+              rowsBetween(ch.helicorder, helicorder.getEndTime(), Double.POSITIVE_INFINITY));
+        } else if (ch.helicorder.overlaps(helicorder)) {
+          helis.remove(ch);
+          final long start = System.nanoTime();
+          helicorder = ch.helicorder.combine(helicorder);
+          metrics.merged(CacheMetrics.Type.HELICORDER, station, System.nanoTime() - start);
+        }
+      }
+
       final CachedHelicorder ch = new CachedHelicorder();
       ch.station = station;
       ch.t1 = helicorder.getStartTime();
@@ -264,92 +742,221 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       ch.helicorder = helicorder;
       ch.lastAccess = System.currentTimeMillis();
       helis.add(ch);
-      helicorderCache.put(station, helis);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < helis.size(); i++) {
-        final CachedHelicorder ch = helis.get(i);
-
-        if (ch.helicorder.overlaps(helicorder)) {
-          final HelicorderData newHeli = ch.helicorder.combine(helicorder);
-          ch.t1 = newHeli.getStartTime();
-          ch.t2 = newHeli.getEndTime();
-          ch.helicorder = newHeli;
-          ch.lastAccess = System.currentTimeMillis();
+    } finally {
+      helis.writeLock().unlock();
+    }
+    requestEviction();
+  }
 
-          helicorder = newHeli;
-          i = 0;
-          add = false;
-          break;
-        }
-      }
+  /**
+   * Put back the part of a downsampled entry that full resolution rows didn't replace. Caller
+   * holds the index write lock.
+   */
+  private void keepDownsampled(final CacheIndex<CachedHelicorder> helis,
+      final CachedHelicorder downsampled, final HelicorderData part) {
+    if (part == null) {
+      return;
+    }
+    final CachedHelicorder ch = new CachedHelicorder();
+    ch.station = downsampled.station;
+    ch.t1 = part.getStartTime();
+    ch.t2 = part.getEndTime();
+    ch.helicorder = part;
+    ch.lastAccess = downsampled.lastAccess;
+    ch.downsampled = true;
+    ch.spilled = downsampled.spilled;
+    helis.add(ch);
+  }
 
-      if (add) {
-        final CachedHelicorder ch = new CachedHelicorder();
-        ch.station = station;
-        ch.t1 = helicorder.getStartTime();
-        ch.t2 = helicorder.getEndTime();
-        ch.helicorder = helicorder;
-        ch.lastAccess = System.currentTimeMillis();
-        helis.add(ch);
-        enforceSize();
-      }
+  /**
+   * Get the rows of a helicorder with times strictly between two times.
+   *
+   * @param hd helicorder data, sorted by time
+   * @param from exclusive start time
+   * @param to exclusive end time
+   * @return helicorder data or null if there are no such rows
+   */
+  private static HelicorderData rowsBetween(final HelicorderData hd, final double from,
+      final double to) {
+    final DoubleMatrix2D data = hd.getData();
+    int first = 0;
+    while (first < data.rows() && data.getQuick(first, 0) <= from) {
+      first++;
+    }
+    int last = data.rows() - 1;
+    while (last >= first && data.getQuick(last, 0) >= to) {
+      last--;
+    }
+    if (last < first) {
+      return null;
+    }
+    final HelicorderData part = new HelicorderData();
+    part.setData(data.viewPart(first, 0, last - first + 1, data.columns()).copy());
+    return part;
+  }
+
+  /**
+   * Get a reduced helicorder for drawing long spans. Rows come from the coarsest summary level,
+   * 10 s, 60 s or 600 s, that is no coarser than the given resolution.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param resolution seconds per pixel column
+   * @return helicorder data or null if the resolution calls for the 1 s data
+   */
+  @Override
+  public HelicorderData getHelicorderSummary(final String station, final double t1,
+      final double t2, final double resolution) {
+    final HelicorderPyramid pyramid = helicorderPyramids.get(station.replace(' ', '$'));
+    if (pyramid == null) {
+      return null;
     }
+    return pyramid.get(t1, t2, resolution);
   }
 
   /**
-   * Cache wave as helicorder.
+   * Cache wave as helicorder. Samples are reduced to one min/max row per whole second in a single
+   * pass; the first and last rows cover whatever part of their second the wave holds and are
+   * merged with neighbouring waves' rows when those are cached.
    * @param station channel
    * @param wave wave data
    */
-  public synchronized void cacheWaveAsHelicorder(final String station, final Wave wave) {
+  public void cacheWaveAsHelicorder(final String station, final Wave wave) {
     if (inHelicorderCache(station, wave.getStartTime(), wave.getEndTime())) {
       return;
     }
-    
-    final int seconds = (int) Math.ceil(wave.numSamples() * wave.getSamplingPeriod());
-    final DoubleMatrix2D data = DoubleFactory2D.dense.make(seconds, 3);
-    for (int i = 0; i < seconds; i++) {
-      data.setQuick(i, 1, Integer.MAX_VALUE);
-      data.setQuick(i, 2, Integer.MIN_VALUE);
+    final HelicorderData hd = toHelicorder(wave);
+    if (hd != null) {
+      putHelicorder(station, hd);
     }
+  }
 
-    final long sPeriod = (long) (wave.getSamplingPeriod() * TO_USEC);
-    final long startTime = (long) (wave.getStartTime() * TO_USEC);
-    for (int sampleIndex = 0; sampleIndex < wave.numSamples(); sampleIndex++) {
-      final long sampleTime = startTime + sampleIndex * sPeriod;
-      final int sample = wave.buffer[sampleIndex];
-
-      if (sample != Wave.NO_DATA) {
-        final int secondIndex = (int) ((sampleTime - startTime) / TO_USEC);
-        data.setQuick(secondIndex, 0, sampleTime / TO_USEC);
-        data.setQuick(secondIndex, 1, Math.min(data.getQuick(secondIndex, 1), sample));
-        data.setQuick(secondIndex, 2, Math.max(data.getQuick(secondIndex, 2), sample));
-      }
-
+  /**
+   * Reduce a wave to one min/max row per whole second.
+   *
+   * @param wave wave data
+   * @return helicorder or null if the wave holds no data
+   */
+  static HelicorderData toHelicorder(final Wave wave) {
+    final int samples = wave.numSamples();
+    if (samples == 0) {
+      return null;
     }
-
-    for (int i = 0; i < seconds; i++) {
-      final double min = data.getQuick(i, 1);
-      if (min == Integer.MAX_VALUE) {
-        data.setQuick(i, 1, wave.mean());
+    final int[] buffer = wave.buffer;
+    final double startTime = wave.getStartTime();
+    final double samplingRate = wave.getSamplingRate();
+    final long firstSecond = (long) Math.floor(startTime);
+    final long lastSecond = (long) Math.floor(startTime + (samples - 1) / samplingRate);
+    final int seconds = (int) (lastSecond - firstSecond + 1);
+    final int[] mins = new int[seconds];
+    final int[] maxs = new int[seconds];
+
+    long sum = 0;
+    int count = 0;
+    int sampleIndex = 0;
+    for (int row = 0; row < seconds; row++) {
+      // first sample at or after the start of the next second
+      int rowEnd = (int) Math.ceil((firstSecond + row + 1 - startTime) * samplingRate);
+      if (rowEnd > samples || row == seconds - 1) {
+        rowEnd = samples;
       }
-      final double max = data.getQuick(i, 2);
-      if (max == Integer.MIN_VALUE) {
-        data.setQuick(i, 2, wave.mean());
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      int rowCount = 0;
+      for (; sampleIndex < rowEnd; sampleIndex++) {
+        final int sample = buffer[sampleIndex];
+        if (sample != Wave.NO_DATA) {
+          if (sample < min) {
+            min = sample;
+          }
+          if (sample > max) {
+            max = sample;
+          }
+          sum += sample;
+          rowCount++;
+        }
       }
+      mins[row] = min;
+      maxs[row] = max;
+      count += rowCount;
+    }
+    if (count == 0) {
+      return null;
+    }
+
+    // seconds without data are drawn flat at the mean
+    final double mean = (double) sum / count;
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(seconds, 3);
+    for (int row = 0; row < seconds; row++) {
+      final boolean empty = mins[row] > maxs[row];
+      data.setQuick(row, 0, firstSecond + row);
+      data.setQuick(row, 1, empty ? mean : mins[row]);
+      data.setQuick(row, 2, empty ? mean : maxs[row]);
     }
 
     final HelicorderData hd = new HelicorderData();
     hd.setData(data);
-    putHelicorder(station, hd);
+    return hd;
   }
 
   public boolean isEmpty() {
     return helicorderCache.size() + waveCache.size() == 0;
   }
 
+  /**
+   * Check whether an index has an entry containing a time span.
+   */
+  private static <T extends CacheEntry> boolean isCached(final CacheIndex<T> index,
+      final double t1, final double t2) {
+    if (index == null) {
+      return false;
+    }
+    index.readLock().lock();
+    try {
+      final T entry = index.getContaining(t1, t2);
+      return entry != null && entry.isComplete();
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /**
+   * Copy waves overlapping a time span from disk into memory, skipping any already in memory.
+   * Must not be called while holding a channel lock.
+   */
+  private void loadWaves(final String station, final double t1, final double t2) {
+    if (diskCache == null) {
+      return;
+    }
+    for (final DiskCache.Segment segment : diskCache.getWaveSegments(station, t1, t2)) {
+      if (!isCached(waveCache.get(station), segment.t1, segment.t2)) {
+        final Wave wave = diskCache.readWave(segment);
+        if (wave != null) {
+          putWave(station, wave);
+        }
+      }
+    }
+  }
+
+  /**
+   * Copy helicorders overlapping a time span from disk into memory, skipping any already in
+   * memory. Must not be called while holding a channel lock.
+   */
+  private void loadHelicorders(final String station, final double t1, final double t2) {
+    if (diskCache == null) {
+      return;
+    }
+    for (final DiskCache.Segment segment : diskCache.getHelicorderSegments(station, t1, t2)) {
+      if (!isCached(helicorderCache.get(station), segment.t1, segment.t2)) {
+        final HelicorderData hd = diskCache.readHelicorder(segment);
+        if (hd != null) {
+          putHelicorder(station, hd);
+        }
+      }
+    }
+  }
+
   /**
    * Check to see if there are any cached helicorders for given time.
    * @param station channel
@@ -357,19 +964,15 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized boolean inHelicorderCache(final String station, final double t1,
-      final double t2) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      return false;
+  public boolean inHelicorderCache(final String station, final double t1, final double t2) {
+    if (isCached(helicorderCache.get(station), t1, t2)) {
+      return true;
     }
-    for (final CachedHelicorder ch : helis) {
-      if (t1 >= ch.t1 && t2 <= ch.t2) {
-        return true;
-      }
+    if (diskCache == null) {
+      return false;
     }
-
-    return false;
+    loadHelicorders(station, t1, t2);
+    return isCached(helicorderCache.get(station), t1, t2);
   }
 
   /**
@@ -378,47 +981,66 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    */
   public RSAMData getRsam(final String channel, final double t1, final double t2,
       final int period) {
-    final List<CachedRsam> rsam = rsamCache.get(channel);
+    final CacheIndex<CachedRsam> rsam = rsamCache.get(getRsamKey(channel, period));
     if (rsam == null) {
+      metrics.miss(CacheMetrics.Type.RSAM, channel);
       return null;
-    } else {
+    }
 
-      for (final CachedRsam cr : rsam) {
-        if (cr.rsamData.getPeriod() != period) {
-          continue;
-        }
-        if (t1 >= cr.t1 && t2 <= cr.t2) {
-          return cr.slice(t1, t2);
-        }
+    rsam.readLock().lock();
+    try {
+      final CachedRsam cr = rsam.getContaining(t1, t2);
+      if (cr == null) {
+        metrics.miss(CacheMetrics.Type.RSAM, channel);
+        return null;
       }
+      metrics.hit(CacheMetrics.Type.RSAM, channel);
+      return cr.slice(t1, t2);
+    } finally {
+      rsam.readLock().unlock();
     }
-    return null;
   }
 
   @Override
-  public synchronized Wave getWave(final String station, final double t1, final double t2) {
+  public Wave getWave(final String station, final double t1, final double t2) {
+    if (diskCache != null && !isCached(waveCache.get(station), t1, t2)) {
+      loadWaves(station, t1, t2);
+    }
 
-    final List<CachedWave> waves = waveCache.get(station);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null) {
+      metrics.miss(CacheMetrics.Type.WAVE, station);
       return null;
-    } else {
-      for (final CachedWave cw : waves) {
-        if (t1 >= cw.t1 && t2 <= cw.t2) {
-          // TODO: fix this. It's a sloppy.
-          try {
-            final int[] newbuf = new int[(int) ((t2 - t1) * cw.wave.getSamplingRate())];
-            final int i = (int) ((t1 - cw.wave.getStartTime()) * cw.wave.getSamplingRate());
-            System.arraycopy(cw.wave.buffer, i, newbuf, 0, newbuf.length);
-            final Wave sw = new Wave(newbuf, t1, cw.wave.getSamplingRate());
-            cw.lastAccess = System.currentTimeMillis();
-            return sw;
-          } catch (final ArrayIndexOutOfBoundsException e) {
-            return null;
-          }
-        }
+    }
+
+    waves.readLock().lock();
+    try {
+      final CachedWave cw = waves.getContaining(t1, t2);
+      if (cw == null) {
+        metrics.miss(CacheMetrics.Type.WAVE, station);
+        return null;
+      }
+
+      final int length = (int) ((t2 - t1) * cw.samplingRate);
+      final int i = (int) ((t1 - cw.t1) * cw.samplingRate);
+      cw.lastAccess = System.currentTimeMillis();
+
+      // asked for the whole entry, share it rather than copy it
+      if (i == 0 && length == cw.numSamples()) {
+        metrics.hit(CacheMetrics.Type.WAVE, station);
+        return cw.getWave();
       }
+
+      final int[] newbuf = new int[length];
+      cw.getSamples(i, newbuf);
+      metrics.hit(CacheMetrics.Type.WAVE, station);
+      return new Wave(newbuf, t1, cw.samplingRate);
+    } catch (final IndexOutOfBoundsException e) {
+      metrics.miss(CacheMetrics.Type.WAVE, station);
+      return null;
+    } finally {
+      waves.readLock().unlock();
     }
-    return null;
   }
 
   @Override
@@ -444,70 +1066,143 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized Wave getBestWave(final String station, final double t1, final double t2) {
+  public Wave getBestWave(final String station, final double t1, final double t2) {
+    loadWaves(station, t1, t2);
     Wave wave;
-    final List<CachedWave> waves = waveCache.get(station);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null) {
+      metrics.miss(CacheMetrics.Type.WAVE, station);
       return null;
     } else {
       final List<Wave> parts = new ArrayList<Wave>();
       double minT = 1E300;
       double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
+      waves.readLock().lock();
+      try {
+        for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+          final Wave w = cw.getWave();
+          if (w.overlaps(t1, t2)) {
+            parts.add(w);
+            minT = Math.min(minT, cw.t1);
+            maxT = Math.max(maxT, cw.t2);
+          }
         }
+      } finally {
+        waves.readLock().unlock();
+      }
+
+      if (parts.isEmpty()) {
+        metrics.miss(CacheMetrics.Type.WAVE, station);
+        return null;
+      } else if (minT <= t1 && maxT >= t2) {
+        metrics.hit(CacheMetrics.Type.WAVE, station);
+      } else {
+        metrics.partialHit(CacheMetrics.Type.WAVE, station);
       }
 
       if (parts.size() == 1) {
         return parts.get(0);
       }
 
-      wave = Wave.join(parts, minT, maxT);
-      if (wave != null) {
-        wave = wave.subset(t1, t2);
+      wave = assemble(parts, Math.max(t1, minT), Math.min(t2, maxT));
+      if (wave == null) {
+        wave = Wave.join(parts, minT, maxT);
+        if (wave != null) {
+          wave = wave.subset(t1, t2);
+        }
       }
     }
     return wave;
   }
 
+  /**
+   * Copy the parts of several waves falling in a time span straight into one buffer, leaving
+   * NO_DATA in any gaps. This costs one copy where join followed by subset costs two.
+   *
+   * @param parts waves in time order
+   * @param t1 start time
+   * @param t2 end time
+   * @return the wave or null if the parts don't share a sampling rate
+   */
+  private static Wave assemble(final List<Wave> parts, final double t1, final double t2) {
+    final Wave first = parts.get(0);
+    final double sr = first.getSamplingRate();
+    for (final Wave part : parts) {
+      if (part.getSamplingRate() != sr) {
+        return null;
+      }
+    }
+
+    // keep to the first part's sample times
+    final double start =
+        first.getStartTime() + Math.round((t1 - first.getStartTime()) * sr) / sr;
+    final int length = (int) Math.round((t2 - start) * sr);
+    if (length <= 0) {
+      return null;
+    }
+
+    final int[] buffer = new int[length];
+    Arrays.fill(buffer, Wave.NO_DATA);
+    for (final Wave part : parts) {
+      final int offset = (int) Math.round((part.getStartTime() - start) * sr);
+      final int from = Math.max(0, -offset);
+      final int to = Math.min(part.numSamples(), length - offset);
+      if (to > from) {
+        System.arraycopy(part.buffer, from, buffer, offset + from, to - from);
+      }
+    }
+    return new Wave(buffer, start, sr);
+  }
+
   /**
    * Put wave.
    * @param station channel
    * @param wave wave
    */
-  public synchronized void putWave(final String station, final Wave wave) {
-    List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      waves = new ArrayList<CachedWave>();
-      waveCache.put(station, waves);
-      putWaveInCache(station, wave, waves);
-    } else {
-      for (final CachedWave cw : waves) {
-        boolean join = false;
-        if (cw.wave.adjacent(wave)) {
-          if (cw.wave.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
-            join = true;
-          }
-        }
-        if (cw.wave.overlaps(wave)) {
+  public void putWave(final String station, final Wave wave) {
+    final CacheIndex<CachedWave> waves = lockIndex(waveCache, station, waveCacheSize);
+    try {
+      putWave(station, wave, waves);
+    } finally {
+      waves.writeLock().unlock();
+    }
+    requestEviction();
+  }
+
+  /**
+   * Merge a wave into a channel's index. Caller holds the index write lock.
+   */
+  private void putWave(final String station, final Wave wave,
+      final CacheIndex<CachedWave> waves) {
+    // only neighbouring segments can overlap or be adjacent to the new wave
+    final double tolerance = Math.max(ADJACENT_TOLERANCE, 2 * wave.getSamplingPeriod());
+    for (final CachedWave cw : waves.getOverlapping(wave.getStartTime() - tolerance,
+        wave.getEndTime() + tolerance)) {
+      final Wave cached = cw.getWave();
+      boolean join = false;
+      if (cached.adjacent(wave)) {
+        if (cached.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
           join = true;
         }
+      }
+      if (cached.overlaps(wave)) {
+        join = true;
+      }
 
-        if (join) {
-          final Wave newWave = cw.wave.combine(wave);
-          if (newWave != null) {
-            waves.remove(cw);
-            putWave(station, newWave);
-          }
-          return;
+      if (join) {
+        final long start = System.nanoTime();
+        final Wave newWave = cached.combine(wave);
+        metrics.merged(CacheMetrics.Type.WAVE, station, System.nanoTime() - start);
+        if (newWave != null) {
+          waves.remove(cw);
+          cw.dispose();
+          putWave(station, newWave, waves);
         }
+        return;
       }
-
-      putWaveInCache(station, wave, waves);
     }
+
+    putWaveInCache(station, wave, waves);
   }
 
   // this version, the one that implements SeismicDataSource, will only
@@ -516,23 +1211,29 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   // side use
   // the version below
   @Override
-  public synchronized HelicorderData getHelicorder(String station, final double startTime,
+  public HelicorderData getHelicorder(String station, final double startTime,
       final double endTime, final GulperListener gl) {
     station = station.replace(' ', '$');
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    loadHelicorders(station, startTime, endTime);
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
+      metrics.miss(CacheMetrics.Type.HELICORDER, station);
       return null;
-    } else {
+    }
+
+    helis.readLock().lock();
+    try {
+      // found the whole thing, just return the needed subset
+      final CachedHelicorder whole = helis.getContaining(startTime, endTime);
+      if (whole != null) {
+        whole.lastAccess = System.currentTimeMillis();
+        metrics.hit(CacheMetrics.Type.HELICORDER, station);
+        return whole.helicorder.subset(startTime, endTime);
+      }
+
       HelicorderData hd = new HelicorderData();
       HelicorderData hd2 = null;
-      for (final CachedHelicorder ch : helis) {
-        // found the whole thing, just return the needed subset
-        if (startTime >= ch.t1 && endTime <= ch.t2) {
-          hd2 = ch.helicorder.subset(startTime, endTime);
-          ch.lastAccess = System.currentTimeMillis();
-          return hd2;
-        }
-
+      for (final CachedHelicorder ch : helis.getOverlapping(startTime, endTime)) {
         // just a piece, put it in the result
         if (startTime <= ch.t1 && endTime >= ch.t2) {
           hd2 = ch.helicorder;
@@ -553,10 +1254,15 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       }
       hd.sort();
       if (hd.getData() == null) {
+        metrics.miss(CacheMetrics.Type.HELICORDER, station);
         hd = null;
+      } else {
+        metrics.partialHit(CacheMetrics.Type.HELICORDER, station);
       }
 
       return hd;
+    } finally {
+      helis.readLock().unlock();
     }
   }
 
@@ -568,256 +1274,373 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param source data source
    * @return
    */
-  public synchronized HelicorderData getHelicorder(final String station, final double t1,
+  public HelicorderData getHelicorder(final String station, final double t1,
       final double t2, final SeismicDataSource source) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    loadHelicorders(station, t1, t2);
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
+      metrics.miss(CacheMetrics.Type.HELICORDER, station);
       return null;
-    } else {
-      HelicorderData hd;
-      for (final CachedHelicorder ch : helis) {
+    }
+
+    // find the cached piece under the channel lock, but never hold the lock while asking the
+    // source for the rest. The source may put data for this channel.
+    HelicorderData cached = null;
+    double ct1 = 0;
+    double ct2 = 0;
+    helis.readLock().lock();
+    try {
+      for (final CachedHelicorder ch : helis.getOverlapping(t1, t2)) {
         // asked for area completely within one cache entry
         if (t1 >= ch.t1 && t2 <= ch.t2) {
           // System.out.println("totally cached");
-          hd = ch.helicorder.subset(t1, t2);
           ch.lastAccess = System.currentTimeMillis();
-          return hd;
+          metrics.hit(CacheMetrics.Type.HELICORDER, station);
+          return ch.helicorder.subset(t1, t2);
         }
 
-        // one entry completely within asked for area
-        if (t1 < ch.t1 && t2 > ch.t2) {
-          // System.out.println("cache is centered chunk");
-          HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-          } else {
-            hd = ch.helicorder;
-          }
-          nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = hd.combine(nhd);
-          }
+        if ((t1 < ch.t1 && t2 > ch.t1) || (t1 > ch.t1 && t1 < ch.t2 && t2 > ch.t2)) {
           ch.lastAccess = System.currentTimeMillis();
-          return hd;
+          cached = ch.helicorder;
+          ct1 = ch.t1;
+          ct2 = ch.t2;
+          break;
         }
+      }
+    } finally {
+      helis.readLock().unlock();
+    }
 
-        // asked for area is to left but overlaps
-        if (t1 < ch.t1 && t2 > ch.t1 && t2 <= ch.t2) {
-          // System.out.println("cache overlaps on right side");
-          final HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-
-        }
+    if (cached == null) {
+      metrics.miss(CacheMetrics.Type.HELICORDER, station);
+      return null;
+    }
+    metrics.partialHit(CacheMetrics.Type.HELICORDER, station);
+
+    HelicorderData hd;
+
+    // one entry completely within asked for area
+    if (t1 < ct1 && t2 > ct2) {
+      // System.out.println("cache is centered chunk");
+      HelicorderData nhd = source.getHelicorder(station, t1, ct1, null);
+      if (nhd != null) {
+        hd = cached.combine(nhd);
+      } else {
+        hd = cached;
+      }
+      nhd = source.getHelicorder(station, ct2, t2, null);
+      if (nhd != null) {
+        hd = hd.combine(nhd);
+      }
+      return hd;
+    }
 
-        // asked for area is to right but overlaps
-        if (t1 > ch.t1 && t1 < ch.t2 && t2 > ch.t2) {
-          // System.out.println("cache overlaps on left side");
-          final HelicorderData nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-        }
+    // asked for area is to left but overlaps
+    if (t1 < ct1) {
+      // System.out.println("cache overlaps on right side");
+      final HelicorderData nhd = source.getHelicorder(station, t1, ct1, null);
+      if (nhd != null) {
+        return cached.combine(nhd);
+      } else {
+        return cached;
       }
     }
-    return null;
+
+    // asked for area is to right but overlaps
+    // System.out.println("cache overlaps on left side");
+    final HelicorderData nhd = source.getHelicorder(station, ct2, t2, null);
+    if (nhd != null) {
+      return cached.combine(nhd);
+    } else {
+      return cached;
+    }
   }
 
   private void flushHelicorders() {
-    helicorderCache.clear();// = new HashMap();
-    System.out.println("Helicorder Cache Flushed");
+    flushCache(helicorderCache, CacheMetrics.Type.HELICORDER);
+    for (final String key : helicorderPyramids.keySet()) {
+      final HelicorderPyramid pyramid = helicorderPyramids.remove(key);
+      if (pyramid != null) {
+        pyramid.retire();
+      }
+    }
+    LOGGER.info("Helicorder cache flushed");
   }
 
   private void flushWaves() {
-    waveCache.clear();// = new HashMap();
-    System.out.println("Wave Cache Flushed");
+    flushCache(waveCache, CacheMetrics.Type.WAVE);
+    LOGGER.info("Wave cache flushed");
   }
 
   private <T extends CacheEntry> long outputCache(final String type,
-      final Map<String, List<T>> cache) {
-    long size = 0;
+      final Map<String, CacheIndex<T>> cache, final AtomicLong cacheSize) {
     System.out.println(type + " cache");
-    for (final String key : cache.keySet()) {
-      System.out.println("\t" + key);
-      final List<T> cwl = cache.get(key);
-
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
-        System.out.println("\t\t" + ce.getInfoString());
+    for (final Map.Entry<String, CacheIndex<T>> entry : cache.entrySet()) {
+      final CacheIndex<T> cwl = entry.getValue();
+      System.out.println("\t" + entry.getKey() + ": " + cwl.getMemorySize() + " bytes");
+
+      cwl.readLock().lock();
+      try {
+        for (final T ce : cwl) {
+          System.out.println("\t\t" + ce.getInfoString());
+        }
+      } finally {
+        cwl.readLock().unlock();
       }
     }
+    final long size = cacheSize.get();
     System.out.println(type + " size: " + size + " bytes");
     return size;
   }
 
-  private synchronized <T extends CacheEntry> void removeEntryFromCache(final CacheEntry ce,
-      final Map<String, List<T>> cache) {
-    final List<T> cl = cache.get(ce.station);
-    cl.remove(ce);
-    System.out.println("Removed: " + ce.getInfoString());
-  }
-
-  private class HalveLargeWavesPurgeAction extends CachePurgeAction {
-    private final int maxTime;
-    private final Map<String, List<CachedWave>> cache;
-
-    public HalveLargeWavesPurgeAction(final Map<String, List<CachedWave>> c, final int m) {
-      cache = c;
-      maxTime = m;
+  private <T extends CacheEntry> long removeEntryFromCache(final T ce,
+      final Map<String, CacheIndex<T>> cache) {
+    final CacheIndex<T> cl = cache.get(ce.getCacheKey());
+    if (cl == null) {
+      return 0;
     }
-
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-
-      for (final CacheEntry ce : items) {
-        final CachedWave cw = (CachedWave) ce;
-        if (cw.wave.getEndTime() - cw.wave.getStartTime() > maxTime) {
-          final long before = cw.getMemorySize();
-          final double nst =
-              cw.wave.getEndTime() - (cw.wave.getEndTime() - cw.wave.getStartTime()) / 2;
-          cw.wave = cw.wave.subset(nst, cw.wave.getEndTime());
-          cw.t1 = cw.wave.getStartTime();
-          cw.t2 = cw.wave.getEndTime();
-          chunk += cw.getMemorySize() - before;
-        }
+    cl.writeLock().lock();
+    try {
+      if (!cl.remove(ce)) {
+        return 0;
       }
-      return chunk;
+    } finally {
+      cl.writeLock().unlock();
     }
+    LOGGER.debug("Removed: {}", ce.getInfoString());
+    final long size = ce.getMemorySize() + ce.getOffHeapSize();
+    ce.spill();
+    ce.dispose();
+    return size;
   }
 
-  private class TimeLimitWavePurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedWave>> cache;
+  /**
+   * Reduce a helicorder to one row per period, keeping the extremes of each period.
+   *
+   * @param hd helicorder data, sorted by time
+   * @param period row period in seconds
+   * @return downsampled helicorder data
+   */
+  private static HelicorderData downsample(final HelicorderData hd, final int period) {
+    final DoubleMatrix2D data = hd.getData();
+
+    int rows = 0;
+    double bin = Double.NaN;
+    for (int i = 0; i < data.rows(); i++) {
+      final double b = Math.floor(data.getQuick(i, 0) / period);
+      if (b != bin) {
+        bin = b;
+        rows++;
+      }
+    }
 
-    public TimeLimitWavePurgeAction(final Map<String, List<CachedWave>> c, final long i) {
-      cache = c;
-      interval = i;
+    final DoubleMatrix2D ds = DoubleFactory2D.dense.make(rows, 3);
+    int row = -1;
+    bin = Double.NaN;
+    for (int i = 0; i < data.rows(); i++) {
+      final double b = Math.floor(data.getQuick(i, 0) / period);
+      if (b != bin) {
+        bin = b;
+        row++;
+        ds.setQuick(row, 0, data.getQuick(i, 0));
+        ds.setQuick(row, 1, data.getQuick(i, 1));
+        ds.setQuick(row, 2, data.getQuick(i, 2));
+      } else {
+        ds.setQuick(row, 1, Math.min(ds.getQuick(row, 1), data.getQuick(i, 1)));
+        ds.setQuick(row, 2, Math.max(ds.getQuick(row, 2), data.getQuick(i, 2)));
+      }
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    final HelicorderData downsampled = new HelicorderData();
+    downsampled.setData(ds);
+    return downsampled;
+  }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+  private static class CachePin {
+    private final String station;
+    private final double t1;
+    private final double t2;
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
-      }
-      return chunk;
+    public CachePin(final String station, final double t1, final double t2) {
+      this.station = station;
+      this.t1 = t1;
+      this.t2 = t2;
     }
   }
 
-  private class TimeLimitHelicorderPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedHelicorder>> cache;
+  private static class RankedEntry implements Comparable<RankedEntry> {
+    private final CacheEntry entry;
+    private final CacheMetrics.Type type;
+    private final double priority;
 
-    public TimeLimitHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c,
-        final long i) {
-      cache = c;
-      interval = i;
+    public RankedEntry(final CacheEntry entry, final CacheMetrics.Type type,
+        final double priority) {
+      this.entry = entry;
+      this.type = type;
+      this.priority = priority;
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    /**
+     * Highest priority first.
+     */
+    public int compareTo(final RankedEntry o) {
+      return Double.compare(o.priority, priority);
+    }
+  }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+  /**
+   * A cached wave. Samples are held in an on heap Wave, compressed on the heap, or, when off heap
+   * storage is enabled and has room, in the off heap store.
+   */
+  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
+    private Wave wave;
+    private CompressedSamples compressed;
+    private OffHeapSampleStore.Samples samples;
+    private double samplingRate;
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Get the cached wave. Compressed and off heap samples are copied into a new Wave.
+     *
+     * @return the wave
+     */
+    public Wave getWave() {
+      if (wave != null) {
+        return wave;
+      } else if (compressed != null) {
+        return new Wave(compressed.get(), t1, samplingRate);
       }
-      return chunk;
+      final int[] buffer = new int[samples.length()];
+      samples.get(0, buffer, 0, buffer.length);
+      return new Wave(buffer, t1, samplingRate);
     }
-  }
-
-  private class TimeLimitRsamPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedRsam>> cache;
 
-    public TimeLimitRsamPurgeAction(final Map<String, List<CachedRsam>> c, final long i) {
-      cache = c;
-      interval = i;
+    /**
+     * Copy samples without materializing the whole wave.
+     *
+     * @param offset index of first sample
+     * @param dest destination, filled completely
+     */
+    public void getSamples(final int offset, final int[] dest) {
+      if (wave != null) {
+        System.arraycopy(wave.buffer, offset, dest, 0, dest.length);
+      } else if (compressed != null) {
+        compressed.get(offset, dest, 0, dest.length);
+      } else {
+        samples.get(offset, dest, 0, dest.length);
+      }
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public int numSamples() {
+      if (wave != null) {
+        return wave.numSamples();
+      } else if (compressed != null) {
+        return compressed.length();
+      } else {
+        return samples.length();
+      }
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    /**
+     * Compress an on heap wave in place.
+     *
+     * @return bytes freed
+     */
+    private long compress() {
+      final CacheIndex<CachedWave> waves = waveCache.get(station);
+      if (waves == null) {
+        return 0;
+      }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
+      waves.writeLock().lock();
+      try {
+        if (wave == null || !waves.remove(this)) {
+          return 0;
         }
+        final long before = getMemorySize();
+        compressed = new CompressedSamples(wave.buffer);
+        wave = null;
+        waves.add(this);
+        compressedRawSize.addAndGet(compressed.getRawSize());
+        compressedSize.addAndGet(compressed.getMemorySize());
+        return before - getMemorySize();
+      } finally {
+        waves.writeLock().unlock();
       }
-      return chunk;
     }
-  }
-
-  protected abstract class CachePurgeAction {
-    public CachePurgeAction() {}
-
-    public abstract long purge();
-  }
 
-  private abstract class CacheEntry implements Comparable<CacheEntry> {
-    public String station;
-    public double t1;
-    public double t2;
-    public long lastAccess;
-
-    public int compareTo(final CacheEntry oce) {
-      return (int) (lastAccess - oce.lastAccess);
+    @Override
+    public String getInfoString() {
+      final long ms = System.currentTimeMillis() - lastAccess;
+      final String where;
+      if (compressed != null) {
+        where = " compressed";
+      } else if (samples != null) {
+        where = " off heap";
+      } else {
+        where = "";
+      }
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + (getMemorySize() + getOffHeapSize())
+          + " bytes" + where + ", " + t1 + " => " + t2;
     }
 
-    public abstract String getInfoString();
+    @Override
+    public long getMemorySize() {
+      if (wave != null) {
+        return wave.getMemorySize();
+      } else if (compressed != null) {
+        return compressed.getMemorySize();
+      } else {
+        return 0;
+      }
+    }
 
-    public abstract int getMemorySize();
-  }
+    @Override
+    public long getOffHeapSize() {
+      return samples == null ? 0 : samples.getMemorySize();
+    }
 
-  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
-    public Wave wave;
+    /**
+     * Compress on heap waves if enabled, otherwise remove.
+     */
+    @Override
+    long evict() {
+      if (compressColdWaves && wave != null) {
+        return compress();
+      } else {
+        return removeEntryFromCache(this, waveCache);
+      }
+    }
 
     @Override
-    public String getInfoString() {
-      final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + wave.getMemorySize() + " bytes, " + t1 + " => "
-          + t2;
+    void spill() {
+      if (diskCache != null) {
+        diskCache.putWave(station, getWave());
+      }
     }
 
     @Override
-    public int getMemorySize() {
-      return wave.getMemorySize();
+    void dispose() {
+      if (compressed != null) {
+        compressedRawSize.addAndGet(-compressed.getRawSize());
+        compressedSize.addAndGet(-compressed.getMemorySize());
+        compressed = null;
+      }
+      if (samples != null) {
+        offHeapStore.release(samples);
+        samples = null;
+      }
     }
   }
 
   public class CachedHelicorder extends CacheEntry {
     public HelicorderData helicorder;
 
+    /** full resolution data has already been written to disk. */
+    private boolean spilled;
+
+    /** rows have been reduced by eviction; full resolution rows replace them when put. */
+    private boolean downsampled;
+
     @Override
     public String toString() {
       return station + " " + t1 + " " + t2;
@@ -831,9 +1654,77 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
 
     @Override
-    public int getMemorySize() {
+    public long getMemorySize() {
       return helicorder.getMemorySize();
     }
+
+    @Override
+    boolean isComplete() {
+      return !downsampled;
+    }
+
+    /**
+     * Downsample full resolution helicorders if enabled, otherwise remove, along with the
+     * summary rows of the removed span.
+     */
+    @Override
+    long evict() {
+      final int rows = helicorder.rows();
+      if (downsampleHelicorders && rows > 1
+          && (t2 - t1) / (rows - 1) < DOWNSAMPLED_HELICORDER_PERIOD) {
+        return downsample();
+      }
+      long freed = removeEntryFromCache(this, helicorderCache);
+      final HelicorderPyramid pyramid = helicorderPyramids.get(station);
+      if (freed > 0 && pyramid != null) {
+        freed += pyramid.remove(t1, t2);
+      }
+      return freed;
+    }
+
+    @Override
+    void spill() {
+      if (diskCache != null && !spilled) {
+        diskCache.putHelicorder(station, helicorder);
+      }
+    }
+
+    /**
+     * Downsample in place. The full resolution data goes to disk first, so it can be loaded back
+     * rather than refetched. A downsampled entry doesn't count as covering its span, so the next
+     * request for it reads the full rows back, and they replace the downsampled ones.
+     */
+    private long downsample() {
+      final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
+      if (helis == null) {
+        return 0;
+      }
+
+      final HelicorderData full;
+      final long freed;
+      helis.writeLock().lock();
+      try {
+        if (!helis.remove(this)) {
+          return 0;
+        }
+        final long before = getMemorySize();
+        full = helicorder;
+        helicorder = AbstractCachingDataSource.downsample(helicorder,
+            DOWNSAMPLED_HELICORDER_PERIOD);
+        t2 = helicorder.getEndTime();
+        spilled = diskCache != null;
+        downsampled = true;
+        helis.add(this);
+        freed = before - getMemorySize();
+      } finally {
+        helis.writeLock().unlock();
+      }
+
+      if (diskCache != null) {
+        diskCache.putHelicorder(station, full);
+      }
+      return freed;
+    }
   }
 
   public class CachedRsam extends CacheEntry {
@@ -844,6 +1735,11 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       return station + " " + t1 + " " + t2;
     }
 
+    @Override
+    public String getCacheKey() {
+      return getRsamKey(station, rsamData.getPeriod());
+    }
+
     /**
      * Slice.
      * @param t1 start time
@@ -892,38 +1788,13 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
 
     @Override
-    public int getMemorySize() {
+    public long getMemorySize() {
       return rsamData.getMemorySize();
     }
-  }
-
-  private class CompleteWavePurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedWave>> cache;
-
-    public CompleteWavePurgeAction(final Map<String, List<CachedWave>> c) {
-      cache = c;
-    }
-
-    @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
-    }
-  }
-
-  private class CompleteHelicorderPurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedHelicorder>> cache;
-
-    public CompleteHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c) {
-      cache = c;
-    }
 
     @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
+    long evict() {
+      return removeEntryFromCache(this, rsamCache);
     }
   }
 }
@@ -0,0 +1,73 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * A single contiguous span of cached data for one channel.
+ */
+public abstract class CacheEntry implements Comparable<CacheEntry> {
+  public String station;
+  public double t1;
+  public double t2;
+  public volatile long lastAccess;
+
+  public int compareTo(final CacheEntry oce) {
+    return Long.compare(lastAccess, oce.lastAccess);
+  }
+
+  /**
+   * Key of the cache index holding this entry. Defaults to the station.
+   *
+   * @return index key
+   */
+  public String getCacheKey() {
+    return station;
+  }
+
+  public abstract String getInfoString();
+
+  public abstract long getMemorySize();
+
+  /**
+   * Bytes held outside the Java heap. These do not count against the cache's maxSize.
+   *
+   * @return off heap memory size in bytes
+   */
+  public long getOffHeapSize() {
+    return 0;
+  }
+
+  /**
+   * Whether the entry holds its span at the resolution it was cached at. An entry reduced by
+   * eviction doesn't count as covering its span, so the full data is loaded or fetched again.
+   *
+   * @return false if the entry has been reduced
+   */
+  boolean isComplete() {
+    return true;
+  }
+
+  /**
+   * Copy the entry to the next cache tier, if there is one. Called after the entry is removed from
+   * memory and before it is disposed.
+   */
+  void spill() {}
+
+  /**
+   * Release anything held outside the heap. Called once the entry has been removed from the cache
+   * for good, with no reader able to reach it.
+   */
+  void dispose() {}
+
+  /**
+   * Free some or all of the memory held by this entry. Called by the purge without any channel
+   * lock held.
+   *
+   * @return bytes freed
+   */
+  abstract long evict();
+}
@@ -0,0 +1,24 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * Decides which cache entries are evicted first when the cache grows past its limit.
+ *
+ * @see AbstractCachingDataSource#setEvictionPolicy(CacheEvictionPolicy)
+ */
+public interface CacheEvictionPolicy {
+
+  /**
+   * Rank an entry for eviction. Entries with a higher priority are evicted first.
+   *
+   * @param entry cache entry
+   * @param now current time in milliseconds
+   * @return eviction priority
+   */
+  public double getPriority(CacheEntry entry, long now);
+}
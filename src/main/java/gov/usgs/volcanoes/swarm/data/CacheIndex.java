@@ -0,0 +1,205 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Time-ordered index of the cache entries for a single channel. Entries are keyed on their start
+ * time, so containment, overlap, and adjacency lookups cost a tree search plus the number of
+ * entries returned rather than a scan of every entry.
+ *
+ * <p>Entries in an index must not overlap; callers merge overlapping data before adding it. An
+ * entry's start time and memory size must not change while it is in the index. Remove it, modify
+ * it, and add it back.
+ *
+ * <p>Each index carries its own read/write lock so that threads working on different channels
+ * never wait on each other. The index does not lock itself; callers hold the read lock while
+ * querying or iterating and the write lock while modifying.
+ *
+ * <p>The index keeps a running total of the bytes it holds and adds every change to a counter
+ * shared by all indexes of the same cache, so neither size needs a walk of the entries.
+ *
+ * @param <T> cache entry type
+ */
+class CacheIndex<T extends CacheEntry> implements Iterable<T> {
+  private final TreeMap<Double, T> entries;
+  private final ReadWriteLock lock;
+  private final AtomicLong cacheSize;
+  private volatile long size;
+  private boolean retired;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheSize byte counter shared by every index in the cache
+   */
+  public CacheIndex(final AtomicLong cacheSize) {
+    entries = new TreeMap<Double, T>();
+    lock = new ReentrantReadWriteLock();
+    this.cacheSize = cacheSize;
+  }
+
+  public Lock readLock() {
+    return lock.readLock();
+  }
+
+  public Lock writeLock() {
+    return lock.writeLock();
+  }
+
+  /**
+   * Add an entry to the index.
+   *
+   * @param entry entry to add
+   */
+  public void add(final T entry) {
+    final T replaced = entries.put(entry.t1, entry);
+    if (replaced != null) {
+      addSize(-replaced.getMemorySize());
+    }
+    addSize(entry.getMemorySize());
+  }
+
+  /**
+   * Remove an entry from the index.
+   *
+   * @param entry entry to remove
+   * @return true if the entry was in the index
+   */
+  public boolean remove(final T entry) {
+    final T indexed = entries.get(entry.t1);
+    if (indexed != entry) {
+      return false;
+    }
+    entries.remove(entry.t1);
+    addSize(-entry.getMemorySize());
+    return true;
+  }
+
+  /**
+   * Find the entry which completely contains the given time span.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return containing entry or null if none
+   */
+  public T getContaining(final double t1, final double t2) {
+    final Map.Entry<Double, T> floor = entries.floorEntry(t1);
+    if (floor == null) {
+      return null;
+    }
+    final T entry = floor.getValue();
+    if (t2 <= entry.t2) {
+      return entry;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Find all entries which overlap or touch the given time span.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return overlapping entries in time order
+   */
+  public List<T> getOverlapping(final double t1, final double t2) {
+    if (entries.isEmpty() || t2 < t1) {
+      return Collections.emptyList();
+    }
+    Double from = entries.floorKey(t1);
+    if (from == null) {
+      from = t1;
+    }
+
+    final List<T> overlapping = new ArrayList<T>();
+    for (final T entry : entries.subMap(from, true, t2, true).values()) {
+      if (entry.t2 >= t1) {
+        overlapping.add(entry);
+      }
+    }
+    return overlapping;
+  }
+
+  /**
+   * Get all entries.
+   *
+   * @return a copy of the entries in time order
+   */
+  public List<T> getEntries() {
+    return new ArrayList<T>(entries.values());
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Bytes held by this index.
+   *
+   * @return memory size in bytes
+   */
+  public long getMemorySize() {
+    return size;
+  }
+
+  private void addSize(final long bytes) {
+    size += bytes;
+    cacheSize.addAndGet(bytes);
+  }
+
+  public void clear() {
+    entries.clear();
+    cacheSize.addAndGet(-size);
+    size = 0;
+  }
+
+  /**
+   * Empty the index, dispose of its entries, and mark it as no longer part of the cache. Called
+   * with the write lock held after the index is removed from its cache map.
+   */
+  public void retire() {
+    for (final T entry : entries.values()) {
+      entry.dispose();
+    }
+    clear();
+    retired = true;
+  }
+
+  /**
+   * A writer which found this index in the cache map must check this after taking the write lock
+   * and look the index up again if it was retired in the meantime.
+   *
+   * @return true if the index has been retired
+   */
+  public boolean isRetired() {
+    return retired;
+  }
+
+  /**
+   * Iterate over the entries in time order.
+   *
+   * @see java.lang.Iterable#iterator()
+   */
+  public Iterator<T> iterator() {
+    return Collections.unmodifiableCollection(entries.values()).iterator();
+  }
+}
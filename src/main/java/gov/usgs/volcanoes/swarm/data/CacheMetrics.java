@@ -0,0 +1,186 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running counts of cache activity, kept per data type and channel. Counters are updated without
+ * locks and survive a cache flush; resident sizes aren't kept here, they are read from the cache
+ * when a snapshot is taken.
+ */
+public class CacheMetrics {
+  /** kinds of cached data. */
+  public enum Type {
+    WAVE, HELICORDER, RSAM
+  }
+
+  /** why an entry was evicted or reduced. */
+  public enum PurgeReason {
+    /** heap cache over its maximum size. */
+    HEAP,
+    /** off heap store full. */
+    OFF_HEAP,
+    /** compressed after sitting idle. */
+    IDLE,
+    /** cache cleared. */
+    FLUSH
+  }
+
+  private final ConcurrentMap<String, Counters> counters;
+
+  /**
+   * Constructor.
+   */
+  public CacheMetrics() {
+    counters = new ConcurrentHashMap<String, Counters>();
+  }
+
+  /**
+   * Record a lookup answered entirely from the cache.
+   *
+   * @param type data type
+   * @param channel channel
+   */
+  public void hit(final Type type, final String channel) {
+    getCounters(type, channel).hits.incrementAndGet();
+  }
+
+  /**
+   * Record a lookup the cache could answer only part of.
+   *
+   * @param type data type
+   * @param channel channel
+   */
+  public void partialHit(final Type type, final String channel) {
+    getCounters(type, channel).partialHits.incrementAndGet();
+  }
+
+  /**
+   * Record a lookup the cache couldn't answer.
+   *
+   * @param type data type
+   * @param channel channel
+   */
+  public void miss(final Type type, final String channel) {
+    getCounters(type, channel).misses.incrementAndGet();
+  }
+
+  /**
+   * Record entries evicted or reduced.
+   *
+   * @param type data type
+   * @param channel channel
+   * @param reason why
+   * @param count number of entries
+   */
+  public void evicted(final Type type, final String channel, final PurgeReason reason,
+      final int count) {
+    getCounters(type, channel).evictions.addAndGet(reason.ordinal(), count);
+  }
+
+  /**
+   * Record new data merged with cached data.
+   *
+   * @param type data type
+   * @param channel channel
+   * @param nanos time spent merging
+   */
+  public void merged(final Type type, final String channel, final long nanos) {
+    final Counters c = getCounters(type, channel);
+    c.merges.incrementAndGet();
+    c.mergeNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Zero every counter.
+   */
+  public void reset() {
+    counters.clear();
+  }
+
+  /**
+   * Take a snapshot of the counters.
+   *
+   * @param residentBytes bytes held, keyed as the counters are by {@link #getKey(Type, String)}
+   * @return snapshot
+   */
+  public CacheStats getSnapshot(final Map<String, Long> residentBytes) {
+    final Map<String, CacheStats.ChannelStats> channels =
+        new TreeMap<String, CacheStats.ChannelStats>();
+    for (final Map.Entry<String, Counters> entry : counters.entrySet()) {
+      final Long bytes = residentBytes.get(entry.getKey());
+      channels.put(entry.getKey(), entry.getValue().toStats(bytes == null ? 0 : bytes));
+    }
+    // data put in the cache but never looked up
+    for (final Map.Entry<String, Long> entry : residentBytes.entrySet()) {
+      if (!channels.containsKey(entry.getKey())) {
+        final String key = entry.getKey();
+        final int split = key.indexOf(':');
+        final Counters empty =
+            new Counters(Type.valueOf(key.substring(0, split)), key.substring(split + 1));
+        channels.put(key, empty.toStats(entry.getValue()));
+      }
+    }
+    return new CacheStats(System.currentTimeMillis(),
+        new ArrayList<CacheStats.ChannelStats>(channels.values()));
+  }
+
+  /**
+   * Key counters are kept under.
+   *
+   * @param type data type
+   * @param channel channel
+   * @return key
+   */
+  public static String getKey(final Type type, final String channel) {
+    return type + ":" + channel;
+  }
+
+  private Counters getCounters(final Type type, final String channel) {
+    final String key = getKey(type, channel);
+    Counters c = counters.get(key);
+    if (c == null) {
+      final Counters newCounters = new Counters(type, channel);
+      c = counters.putIfAbsent(key, newCounters);
+      if (c == null) {
+        c = newCounters;
+      }
+    }
+    return c;
+  }
+
+  private static class Counters {
+    private final Type type;
+    private final String channel;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong partialHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLongArray evictions = new AtomicLongArray(PurgeReason.values().length);
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong mergeNanos = new AtomicLong();
+
+    public Counters(final Type type, final String channel) {
+      this.type = type;
+      this.channel = channel;
+    }
+
+    public CacheStats.ChannelStats toStats(final long residentBytes) {
+      return new CacheStats.ChannelStats(type.name(), channel.replace('$', ' '), hits.get(),
+          partialHits.get(), misses.get(), residentBytes,
+          evictions.get(PurgeReason.HEAP.ordinal()), evictions.get(PurgeReason.OFF_HEAP.ordinal()),
+          evictions.get(PurgeReason.IDLE.ordinal()), evictions.get(PurgeReason.FLUSH.ordinal()),
+          merges.get(), mergeNanos.get() / 1000000);
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A point in time snapshot of cache metrics, one row per data type and channel with totals over
+ * all of them. Counts run from startup or the last reset; merge and eviction counts include
+ * entries since flushed.
+ */
+public class CacheStats {
+  private final long time;
+  private final List<ChannelStats> channels;
+
+  /**
+   * Constructor.
+   *
+   * @param time snapshot time in ms since the epoch
+   * @param channels per channel stats
+   */
+  public CacheStats(final long time, final List<ChannelStats> channels) {
+    this.time = time;
+    this.channels = Collections.unmodifiableList(channels);
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  public List<ChannelStats> getChannels() {
+    return channels;
+  }
+
+  /**
+   * Lookups answered entirely from the cache.
+   *
+   * @return hit count
+   */
+  public long getHits() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.hits;
+    }
+    return total;
+  }
+
+  /**
+   * Lookups answered in part from the cache.
+   *
+   * @return partial hit count
+   */
+  public long getPartialHits() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.partialHits;
+    }
+    return total;
+  }
+
+  /**
+   * Lookups the cache couldn't answer.
+   *
+   * @return miss count
+   */
+  public long getMisses() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.misses;
+    }
+    return total;
+  }
+
+  /**
+   * Fraction of lookups answered entirely from the cache.
+   *
+   * @return hit ratio, or NaN before any lookups
+   */
+  public double getHitRatio() {
+    final long hits = getHits();
+    return (double) hits / (hits + getPartialHits() + getMisses());
+  }
+
+  /**
+   * Bytes held on and off heap.
+   *
+   * @return resident bytes
+   */
+  public long getResidentBytes() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.residentBytes;
+    }
+    return total;
+  }
+
+  /**
+   * Entries evicted or reduced for any reason.
+   *
+   * @return eviction count
+   */
+  public long getEvictions() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.getEvictions();
+    }
+    return total;
+  }
+
+  /**
+   * Merges of new data into cached data.
+   *
+   * @return merge count
+   */
+  public long getMerges() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.merges;
+    }
+    return total;
+  }
+
+  /**
+   * Time spent merging.
+   *
+   * @return merge time in ms
+   */
+  public long getMergeTime() {
+    long total = 0;
+    for (final ChannelStats c : channels) {
+      total += c.mergeTime;
+    }
+    return total;
+  }
+
+  /**
+   * Metrics for one data type on one channel.
+   */
+  public static class ChannelStats {
+    private final String type;
+    private final String channel;
+    private final long hits;
+    private final long partialHits;
+    private final long misses;
+    private final long residentBytes;
+    private final long heapEvictions;
+    private final long offHeapEvictions;
+    private final long idleEvictions;
+    private final long flushEvictions;
+    private final long merges;
+    private final long mergeTime;
+
+    /**
+     * Constructor.
+     */
+    public ChannelStats(final String type, final String channel, final long hits,
+        final long partialHits, final long misses, final long residentBytes,
+        final long heapEvictions, final long offHeapEvictions, final long idleEvictions,
+        final long flushEvictions, final long merges, final long mergeTime) {
+      this.type = type;
+      this.channel = channel;
+      this.hits = hits;
+      this.partialHits = partialHits;
+      this.misses = misses;
+      this.residentBytes = residentBytes;
+      this.heapEvictions = heapEvictions;
+      this.offHeapEvictions = offHeapEvictions;
+      this.idleEvictions = idleEvictions;
+      this.flushEvictions = flushEvictions;
+      this.merges = merges;
+      this.mergeTime = mergeTime;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getChannel() {
+      return channel;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getPartialHits() {
+      return partialHits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getResidentBytes() {
+      return residentBytes;
+    }
+
+    /**
+     * Entries evicted or reduced because the heap cache was over its maximum size.
+     *
+     * @return eviction count
+     */
+    public long getHeapEvictions() {
+      return heapEvictions;
+    }
+
+    /**
+     * Entries evicted because the off heap store was full.
+     *
+     * @return eviction count
+     */
+    public long getOffHeapEvictions() {
+      return offHeapEvictions;
+    }
+
+    /**
+     * Waves compressed after sitting idle.
+     *
+     * @return eviction count
+     */
+    public long getIdleEvictions() {
+      return idleEvictions;
+    }
+
+    /**
+     * Entries dropped when the cache was cleared.
+     *
+     * @return eviction count
+     */
+    public long getFlushEvictions() {
+      return flushEvictions;
+    }
+
+    public long getEvictions() {
+      return heapEvictions + offHeapEvictions + idleEvictions + flushEvictions;
+    }
+
+    public long getMerges() {
+      return merges;
+    }
+
+    /**
+     * Time spent merging.
+     *
+     * @return merge time in ms
+     */
+    public long getMergeTime() {
+      return mergeTime;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * JMX view of the cache, registered as gov.usgs.volcanoes.swarm:type=Cache. The totals are also
+ * available individually so they can be charted from JConsole or VisualVM.
+ */
+public interface CacheStatsMXBean {
+  /**
+   * Per channel and total metrics, taken at one moment.
+   *
+   * @return snapshot
+   */
+  CacheStats getSnapshot();
+
+  long getHits();
+
+  long getPartialHits();
+
+  long getMisses();
+
+  double getHitRatio();
+
+  long getEvictions();
+
+  long getMerges();
+
+  long getMergeTime();
+
+  long getResidentBytes();
+
+  long getOffHeapBytes();
+
+  long getDiskBytes();
+
+  /**
+   * Zero the hit, miss, eviction and merge counts.
+   */
+  void resetCounters();
+}
@@ -1,5 +1,16 @@
 package gov.usgs.volcanoes.swarm.data;
 
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * An implementation of <code>SeismicDataSource</code> that is used by Swarm to
  * cache all data that it comes across.
@@ -7,9 +18,33 @@ package gov.usgs.volcanoes.swarm.data;
  * @author Dan Cervelli
  */
 public class CachedDataSource extends AbstractCachingDataSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachedDataSource.class);
+
+  /** JMX name of the cache stats. */
+  public static final String MBEAN_NAME = "gov.usgs.volcanoes.swarm:type=Cache";
 
   private CachedDataSource(String name) {
     super();
+    final SwarmConfig config = SwarmConfig.getInstance();
+    final int offHeapCacheSize = config.offHeapCacheSize;
+    if (offHeapCacheSize > 0) {
+      enableOffHeapStorage(offHeapCacheSize * 1024L * 1024L);
+    }
+    final int diskCacheSize = config.diskCacheSize;
+    if (diskCacheSize > 0) {
+      setDiskCache(new DiskCache(new File(config.diskCachePath),
+          diskCacheSize * 1024L * 1024L));
+    }
+    registerMBean();
+  }
+
+  private void registerMBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new CacheStatsBean(),
+          new ObjectName(MBEAN_NAME));
+    } catch (final JMException e) {
+      LOGGER.warn("Cannot register cache stats with JMX: {}", e.getMessage());
+    }
   }
 
   private static class CachedDataSourceHolder {
@@ -29,4 +64,54 @@ public class CachedDataSource extends AbstractCachingDataSource {
     // TODO Auto-generated method stub
     
   }
+
+  private class CacheStatsBean implements CacheStatsMXBean {
+    public CacheStats getSnapshot() {
+      return getCacheStats();
+    }
+
+    public long getHits() {
+      return getCacheStats().getHits();
+    }
+
+    public long getPartialHits() {
+      return getCacheStats().getPartialHits();
+    }
+
+    public long getMisses() {
+      return getCacheStats().getMisses();
+    }
+
+    public double getHitRatio() {
+      return getCacheStats().getHitRatio();
+    }
+
+    public long getEvictions() {
+      return getCacheStats().getEvictions();
+    }
+
+    public long getMerges() {
+      return getCacheStats().getMerges();
+    }
+
+    public long getMergeTime() {
+      return getCacheStats().getMergeTime();
+    }
+
+    public long getResidentBytes() {
+      return getSize() + getOffHeapSize();
+    }
+
+    public long getOffHeapBytes() {
+      return getOffHeapSize();
+    }
+
+    public long getDiskBytes() {
+      return getDiskCacheSize();
+    }
+
+    public void resetCounters() {
+      metrics.reset();
+    }
+  }
 }
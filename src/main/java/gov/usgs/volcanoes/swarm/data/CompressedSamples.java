@@ -0,0 +1,127 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Arrays;
+
+/**
+ * Integer samples compressed with delta encoding. Each sample is stored as the zigzag varint of
+ * its difference from the previous one, so quiet data at a few counts per sample takes one byte
+ * rather than four. Samples are encoded in independent blocks, each starting from zero, so a
+ * window can be decoded without decoding everything before it.
+ */
+public class CompressedSamples {
+  /** samples in a block. */
+  private static final int BLOCK_SIZE = 1024;
+
+  private final byte[] data;
+  private final int[] blockOffsets;
+  private final int length;
+
+  /**
+   * Compress samples.
+   *
+   * @param samples samples to compress
+   */
+  public CompressedSamples(final int[] samples) {
+    length = samples.length;
+    blockOffsets = new int[(length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    // a varint never takes more than five bytes
+    final byte[] out = new byte[length * 5];
+    int pos = 0;
+    int prev = 0;
+    for (int i = 0; i < length; i++) {
+      if (i % BLOCK_SIZE == 0) {
+        blockOffsets[i / BLOCK_SIZE] = pos;
+        prev = 0;
+      }
+      // int arithmetic wraps, so decoding recovers even NO_DATA next to real samples
+      final int delta = samples[i] - prev;
+      int zigzag = (delta << 1) ^ (delta >> 31);
+      while ((zigzag & ~0x7f) != 0) {
+        out[pos++] = (byte) ((zigzag & 0x7f) | 0x80);
+        zigzag >>>= 7;
+      }
+      out[pos++] = (byte) zigzag;
+      prev = samples[i];
+    }
+    data = Arrays.copyOf(out, pos);
+  }
+
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Bytes held.
+   *
+   * @return memory size in bytes
+   */
+  public int getMemorySize() {
+    return data.length + blockOffsets.length * 4;
+  }
+
+  /**
+   * Size the samples would be uncompressed.
+   *
+   * @return uncompressed size in bytes
+   */
+  public int getRawSize() {
+    return length * 4;
+  }
+
+  /**
+   * Decode all samples.
+   *
+   * @return samples
+   */
+  public int[] get() {
+    final int[] samples = new int[length];
+    get(0, samples, 0, length);
+    return samples;
+  }
+
+  /**
+   * Decode a run of samples, decoding only the blocks which hold them.
+   *
+   * @param offset index of first sample
+   * @param dest destination array
+   * @param destOffset index in dest of first sample
+   * @param count number of samples
+   */
+  public void get(final int offset, final int[] dest, final int destOffset, final int count) {
+    if (offset < 0 || count < 0 || offset + count > length) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (count == 0) {
+      return;
+    }
+
+    int i = offset - offset % BLOCK_SIZE;
+    int pos = blockOffsets[i / BLOCK_SIZE];
+    int prev = 0;
+    final int end = offset + count;
+    while (i < end) {
+      if (i % BLOCK_SIZE == 0) {
+        prev = 0;
+      }
+      int zigzag = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[pos++];
+        zigzag |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      prev += (zigzag >>> 1) ^ -(zigzag & 1);
+      if (i >= offset) {
+        dest[destOffset + i - offset] = prev;
+      }
+      i++;
+    }
+  }
+}
@@ -0,0 +1,399 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of connections to one server. Connections are opened only when every open one is
+ * in use, so a source used by a single thread holds a single connection. Borrowers beyond the
+ * pool size wait for a connection to be returned.
+ *
+ * <p>An idle connection is checked before it is lent out and reconnected, or replaced, if the
+ * check fails. A borrower which sees a connection fail returns it as broken and it is closed.
+ * After a {@link #reset}, connections opened before it are closed rather than lent again. A
+ * pool being replaced is {@link #retire retired}, and every connection is closed when returned.
+ *
+ * <p>The pool keeps the time each open connection has spent lent out, which may be published over
+ * JMX with {@link #register}.
+ *
+ * @param <C> connection type
+ */
+public abstract class ConnectionPool<C> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+  /** JMX name of a pool, less its name property. */
+  public static final String MBEAN_TYPE = "gov.usgs.volcanoes.swarm:type=ConnectionPool";
+
+  private final int size;
+  private final Semaphore permits;
+  private final Deque<C> idle;
+  private final Map<C, Usage> usage;
+  private int opened;
+
+  /** bumped by reset; connections opened under an earlier one are closed when returned. */
+  private int generation;
+
+  /** set once the pool has been replaced; returned connections are closed. */
+  private boolean retired;
+
+  /**
+   * Constructor.
+   *
+   * @param size most connections open at once
+   */
+  protected ConnectionPool(final int size) {
+    this.size = Math.max(1, size);
+    permits = new Semaphore(this.size, true);
+    idle = new ArrayDeque<C>();
+    usage = new IdentityHashMap<C, Usage>();
+  }
+
+  /**
+   * Open a new connection.
+   *
+   * @return connection
+   */
+  protected abstract C create();
+
+  /**
+   * Check an idle connection is usable, reconnecting it if need be.
+   *
+   * @param connection connection to check
+   * @param idleTime time since the connection was returned, in ms
+   * @return true if the connection may be lent out
+   */
+  protected abstract boolean check(C connection, long idleTime);
+
+  /**
+   * Close a connection.
+   *
+   * @param connection connection to close
+   */
+  protected abstract void destroy(C connection);
+
+  /**
+   * Borrow a connection, waiting if all are in use. Every borrow must be matched by a release.
+   *
+   * @return connection
+   */
+  public C borrow() {
+    permits.acquireUninterruptibly();
+    try {
+      while (true) {
+        final C connection;
+        final int current;
+        long idleTime = 0;
+        synchronized (idle) {
+          connection = idle.pollFirst();
+          current = generation;
+          if (connection != null) {
+            idleTime = System.currentTimeMillis() - usage.get(connection).returnedAt;
+          }
+        }
+        if (connection == null) {
+          final C fresh = create();
+          lent(fresh, current);
+          return fresh;
+        } else if (check(connection, idleTime)) {
+          lent(connection, current);
+          return connection;
+        }
+        closeConnection(connection);
+      }
+    } catch (final RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Return a borrowed connection.
+   *
+   * @param connection connection
+   * @param broken true if the connection failed while borrowed
+   */
+  public void release(final C connection, final boolean broken) {
+    boolean close = broken;
+    if (!broken) {
+      synchronized (idle) {
+        final Usage u = usage.get(connection);
+        u.returned(System.currentTimeMillis());
+        if (u.generation == generation && !retired) {
+          // most recently used first, so connections beyond current demand go quiet
+          idle.addFirst(connection);
+        } else {
+          close = true;
+        }
+      }
+    }
+    if (close) {
+      closeConnection(connection);
+    }
+    permits.release();
+  }
+
+  /**
+   * Close every idle connection now and every lent one when it is returned, so later borrows get
+   * connections opened with the current settings. The pool stays usable.
+   */
+  public void reset() {
+    synchronized (idle) {
+      generation++;
+    }
+    close();
+  }
+
+  /**
+   * Close every idle connection now and every lent one when it is returned, including any lent
+   * after this call. For a pool which has been replaced, whose borrowers may still be finishing.
+   */
+  public void retire() {
+    synchronized (idle) {
+      retired = true;
+    }
+    close();
+  }
+
+  /**
+   * Close every idle connection. The pool stays usable and opens new connections as needed.
+   */
+  public void close() {
+    final List<C> connections;
+    synchronized (idle) {
+      connections = new ArrayList<C>(idle);
+      idle.clear();
+    }
+    for (final C connection : connections) {
+      closeConnection(connection);
+    }
+  }
+
+  private void lent(final C connection, final int current) {
+    final long now = System.currentTimeMillis();
+    synchronized (idle) {
+      Usage u = usage.get(connection);
+      if (u == null) {
+        u = new Usage(++opened, now, current);
+        usage.put(connection, u);
+      }
+      u.lent(now);
+    }
+  }
+
+  private void closeConnection(final C connection) {
+    synchronized (idle) {
+      usage.remove(connection);
+    }
+    destroy(connection);
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Connections lent out now.
+   *
+   * @return connections in use
+   */
+  public int getInUse() {
+    return size - permits.availablePermits();
+  }
+
+  /**
+   * Borrowers waiting for a connection. This is an estimate.
+   *
+   * @return waiting borrowers
+   */
+  public int getWaiting() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * Use of each open connection, in the order they were opened.
+   *
+   * @return per connection usage
+   */
+  public List<ConnectionStats> getConnectionStats() {
+    final long now = System.currentTimeMillis();
+    final List<ConnectionStats> stats = new ArrayList<ConnectionStats>();
+    synchronized (idle) {
+      for (final Usage u : usage.values()) {
+        stats.add(u.snapshot(now));
+      }
+    }
+    Collections.sort(stats, new Comparator<ConnectionStats>() {
+      public int compare(final ConnectionStats a, final ConnectionStats b) {
+        return a.getId() - b.getId();
+      }
+    });
+    return stats;
+  }
+
+  /**
+   * Publish this pool over JMX, replacing any pool published under the same name.
+   *
+   * @param name pool name, usually the data source name
+   */
+  public void register(final String name) {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      final ObjectName objectName =
+          new ObjectName(MBEAN_TYPE + ",name=" + ObjectName.quote(name));
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(new PoolStatsBean(), objectName);
+    } catch (final JMException e) {
+      LOGGER.warn("Cannot register connection pool {} with JMX: {}", name, e.getMessage());
+    }
+  }
+
+  private class PoolStatsBean implements ConnectionPoolMXBean {
+    public int getSize() {
+      return ConnectionPool.this.getSize();
+    }
+
+    public int getOpen() {
+      synchronized (idle) {
+        return usage.size();
+      }
+    }
+
+    public int getInUse() {
+      return ConnectionPool.this.getInUse();
+    }
+
+    public int getWaiting() {
+      return ConnectionPool.this.getWaiting();
+    }
+
+    public List<ConnectionStats> getConnections() {
+      return getConnectionStats();
+    }
+  }
+
+  /**
+   * Running use of one open connection. Guarded by the idle queue's lock.
+   */
+  private static class Usage {
+    private final int id;
+    private final long opened;
+    private final int generation;
+    private long borrows;
+    private long busyTime;
+    private long lentAt = -1;
+    private long returnedAt;
+
+    public Usage(final int id, final long opened, final int generation) {
+      this.id = id;
+      this.opened = opened;
+      this.generation = generation;
+    }
+
+    public void lent(final long now) {
+      borrows++;
+      lentAt = now;
+    }
+
+    public void returned(final long now) {
+      busyTime += now - lentAt;
+      lentAt = -1;
+      returnedAt = now;
+    }
+
+    public ConnectionStats snapshot(final long now) {
+      final boolean busy = lentAt >= 0;
+      return new ConnectionStats(id, now - opened, borrows,
+          busyTime + (busy ? now - lentAt : 0), busy);
+    }
+  }
+
+  /**
+   * Use of one open connection at a moment.
+   */
+  public static class ConnectionStats {
+    private final int id;
+    private final long age;
+    private final long borrows;
+    private final long busyTime;
+    private final boolean busy;
+
+    /**
+     * Constructor.
+     */
+    public ConnectionStats(final int id, final long age, final long borrows,
+        final long busyTime, final boolean busy) {
+      this.id = id;
+      this.age = age;
+      this.borrows = borrows;
+      this.busyTime = busyTime;
+      this.busy = busy;
+    }
+
+    /**
+     * Number of the connection; the pool numbers connections from 1 as it opens them.
+     *
+     * @return connection number
+     */
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * Time since the connection was opened.
+     *
+     * @return age in ms
+     */
+    public long getAge() {
+      return age;
+    }
+
+    public long getBorrows() {
+      return borrows;
+    }
+
+    /**
+     * Time the connection has spent lent out.
+     *
+     * @return busy time in ms
+     */
+    public long getBusyTime() {
+      return busyTime;
+    }
+
+    public boolean isBusy() {
+      return busy;
+    }
+
+    /**
+     * Fraction of its life the connection has spent lent out.
+     *
+     * @return utilization between 0 and 1
+     */
+    public double getUtilization() {
+      return age == 0 ? 0 : (double) busyTime / age;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.List;
+
+/**
+ * JMX view of a connection pool, registered as
+ * gov.usgs.volcanoes.swarm:type=ConnectionPool,name=&lt;source&gt;.
+ */
+public interface ConnectionPoolMXBean {
+  /**
+   * Most connections open at once.
+   *
+   * @return pool size
+   */
+  int getSize();
+
+  int getOpen();
+
+  int getInUse();
+
+  int getWaiting();
+
+  /**
+   * Use of each open connection, including the fraction of its life spent lent out.
+   *
+   * @return per connection usage
+   */
+  List<ConnectionPool.ConnectionStats> getConnections();
+}
@@ -0,0 +1,20 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * Evict entries by idle time weighted by size. A large entry nobody has looked at in a while goes
+ * before a small one, so fewer entries are dropped to reach the target size.
+ */
+public class CostEvictionPolicy implements CacheEvictionPolicy {
+
+  public double getPriority(final CacheEntry entry, final long now) {
+    // +1 so entries touched this millisecond are still ranked by size
+    return (double) (now - entry.lastAccess + 1)
+        * (entry.getMemorySize() + entry.getOffHeapSize());
+  }
+}
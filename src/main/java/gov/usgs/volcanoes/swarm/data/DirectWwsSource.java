@@ -52,25 +52,43 @@ public class DirectWwsSource extends SeismicDataSource {
   }
 
   /**
-   * Get wave.
+   * Get wave. Concurrent requests for the same channel share their database reads.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(final String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
 
     Wave sw = cache.getWave(station, t1, t2);
     if (sw == null) {
-      try {
-        sw = data.getWave(station, t1, t2, 0);
-      } catch (UtilException e) {
-        //
-      }
-      if (sw != null && !sw.isData()) {
-        sw = null;
-      }
-      if (sw != null && sw.buffer != null && sw.buffer.length > 0) {
-        cache.putWave(station, sw);
+      // never wait on another request while holding this source
+      if (Thread.holdsLock(this)) {
+        return fetchWave(station, t1, t2);
       }
+      sw = RequestCoalescer.WAVES.get(RequestCoalescer.getKey(this, station), t1, t2,
+          new RequestCoalescer.Fetcher<Wave>() {
+            public Wave fetch(final double from, final double to) {
+              return fetchWave(station, from, to);
+            }
+          });
+    }
+    return sw;
+  }
+
+  /**
+   * Read a wave from the database and cache it.
+   */
+  private synchronized Wave fetchWave(String station, double t1, double t2) {
+    Wave sw = null;
+    try {
+      sw = data.getWave(station, t1, t2, 0);
+    } catch (UtilException e) {
+      //
+    }
+    if (sw != null && !sw.isData()) {
+      sw = null;
+    }
+    if (sw != null && sw.buffer != null && sw.buffer.length > 0) {
+      CachedDataSource.getInstance().putWave(station, sw);
     }
     return sw;
   }
@@ -93,21 +111,39 @@ public class DirectWwsSource extends SeismicDataSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder
    * (java.lang.String, double, double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
       GulperListener gl) {
     CachedDataSource cache = CachedDataSource.getInstance();
     HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
     if (hd == null) {
-      try {
-        hd = data.getHelicorderData(Scnl.parse(station), t1, t2, 0);
-      } catch (UtilException e) {
-        //
-      }
-      if (hd != null && hd.rows() != 0) {
-        cache.putHelicorder(station, hd);
-      } else {
-        hd = null;
+      // never wait on another request while holding this source
+      if (Thread.holdsLock(this)) {
+        return fetchHelicorder(station, t1, t2);
       }
+      hd = RequestCoalescer.HELICORDERS.get(RequestCoalescer.getKey(this, station), t1, t2,
+          new RequestCoalescer.Fetcher<HelicorderData>() {
+            public HelicorderData fetch(final double from, final double to) {
+              return fetchHelicorder(station, from, to);
+            }
+          });
+    }
+    return hd;
+  }
+
+  /**
+   * Read a helicorder from the database and cache it.
+   */
+  private synchronized HelicorderData fetchHelicorder(String station, double t1, double t2) {
+    HelicorderData hd = null;
+    try {
+      hd = data.getHelicorderData(Scnl.parse(station), t1, t2, 0);
+    } catch (UtilException e) {
+      //
+    }
+    if (hd != null && hd.rows() != 0) {
+      CachedDataSource.getInstance().putHelicorder(station, hd);
+    } else {
+      hd = null;
     }
     return hd;
   }
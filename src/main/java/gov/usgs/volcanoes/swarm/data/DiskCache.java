@@ -0,0 +1,659 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Second level cache of waves and helicorders on local disk. Data evicted from memory is written
+ * to a memory mapped segment file per entry, under a directory per channel. The files are
+ * indexed when the cache is opened, so data seen before a restart is served locally.
+ *
+ * <p>Segment files start with a 32 byte header: magic, sample or row count, start time, end time,
+ * and sampling rate. Wave samples follow as ints; helicorder rows as time, min, max doubles.
+ *
+ * <p>Segments for a channel never overlap. A write replaces the segments it covers; where it
+ * only partly overlaps others, just the parts of it not already on disk are written. When the
+ * files exceed the budget the least recently used are deleted.
+ */
+public class DiskCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskCache.class);
+
+  private static final int WAVE_MAGIC = 0x53574156;
+  private static final int HELICORDER_MAGIC = 0x5348454c;
+  private static final int HEADER_SIZE = 32;
+  private static final String SUFFIX = ".seg";
+
+  /** once over budget, delete down to this fraction of it. */
+  private static final double EVICTION_TARGET = 0.8;
+
+  /** slack in comparing segment end points, in seconds. */
+  private static final double EPSILON = 0.001;
+
+  private final File waveDir;
+  private final File helicorderDir;
+  private final long budget;
+  private final ConcurrentMap<String, CacheIndex<Segment>> waves;
+  private final ConcurrentMap<String, CacheIndex<Segment>> helicorders;
+  private final AtomicLong size;
+  private final Lock purgeLock;
+
+  /**
+   * Open a disk cache, indexing any segments already there.
+   *
+   * @param dir cache directory
+   * @param budget maximum bytes on disk
+   */
+  public DiskCache(final File dir, final long budget) {
+    this.budget = budget;
+    waveDir = new File(dir, "waves");
+    helicorderDir = new File(dir, "helicorders");
+    waves = new ConcurrentHashMap<String, CacheIndex<Segment>>();
+    helicorders = new ConcurrentHashMap<String, CacheIndex<Segment>>();
+    size = new AtomicLong();
+    purgeLock = new ReentrantLock();
+
+    waveDir.mkdirs();
+    helicorderDir.mkdirs();
+    load(waveDir, waves);
+    load(helicorderDir, helicorders);
+    LOGGER.info("Disk cache {}: {} bytes", dir, size.get());
+    enforceSize();
+  }
+
+  private void load(final File typeDir, final ConcurrentMap<String, CacheIndex<Segment>> cache) {
+    final File[] channelDirs = typeDir.listFiles();
+    if (channelDirs == null) {
+      return;
+    }
+    for (final File channelDir : channelDirs) {
+      final File[] files = channelDir.listFiles();
+      if (files == null) {
+        continue;
+      }
+      final String station = decode(channelDir.getName());
+      final CacheIndex<Segment> index = getIndex(cache, station);
+      for (final File file : files) {
+        final Segment segment = readHeader(station, file);
+        if (segment == null || overlaps(index, segment)) {
+          delete(file);
+          continue;
+        }
+        index.add(segment);
+      }
+    }
+  }
+
+  /**
+   * Write a wave to disk unless a segment already holds it.
+   *
+   * @param station channel
+   * @param wave wave
+   */
+  public void putWave(final String station, final Wave wave) {
+    final int count = wave.numSamples();
+    final CacheIndex<Segment> index = getIndex(waves, station);
+    index.writeLock().lock();
+    try {
+      if (index.getContaining(wave.getStartTime(), wave.getEndTime()) != null) {
+        return;
+      }
+      final List<Segment> others = removeCovered(index, wave.getStartTime(), wave.getEndTime());
+      if (others.isEmpty()) {
+        writeWave(index, station, wave.buffer, 0, count, wave.getStartTime(),
+            wave.getSamplingRate());
+      } else {
+        // a sample is on disk if it falls in another segment's sample slots
+        final double sr = wave.getSamplingRate();
+        final double half = 0.5 / sr;
+        int from = -1;
+        for (int i = 0; i <= count; i++) {
+          final boolean free = i < count
+              && !isCovered(others, wave.getStartTime() + i / sr, half, -half);
+          if (free && from < 0) {
+            from = i;
+          } else if (!free && from >= 0) {
+            writeWave(index, station, wave.buffer, from, i, wave.getStartTime() + from / sr, sr);
+            from = -1;
+          }
+        }
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot write wave to disk cache: {}", e.getMessage());
+      return;
+    } finally {
+      index.writeLock().unlock();
+    }
+    enforceSize();
+  }
+
+  /**
+   * Write a helicorder to disk unless a segment already holds it.
+   *
+   * @param station channel
+   * @param helicorder helicorder data
+   */
+  public void putHelicorder(final String station, final HelicorderData helicorder) {
+    final DoubleMatrix2D data = helicorder.getData();
+    if (data == null || data.rows() == 0) {
+      return;
+    }
+    final int rows = data.rows();
+    final CacheIndex<Segment> index = getIndex(helicorders, station);
+    index.writeLock().lock();
+    try {
+      if (index.getContaining(helicorder.getStartTime(), helicorder.getEndTime()) != null) {
+        return;
+      }
+      final List<Segment> others =
+          removeCovered(index, helicorder.getStartTime(), helicorder.getEndTime());
+      // rows are whole seconds; a row is on disk if another segment has a row for its second
+      int from = -1;
+      for (int i = 0; i <= rows; i++) {
+        final boolean free = i < rows && !isCovered(others, data.getQuick(i, 0), 0.5, 0.5);
+        if (free && from < 0) {
+          from = i;
+        } else if (!free && from >= 0) {
+          writeHelicorder(index, station, data, from, i);
+          from = -1;
+        }
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot write helicorder to disk cache: {}", e.getMessage());
+      return;
+    } finally {
+      index.writeLock().unlock();
+    }
+    enforceSize();
+  }
+
+  /**
+   * Write samples [from, to) of a buffer as a wave segment. Caller holds the index write lock.
+   */
+  private void writeWave(final CacheIndex<Segment> index, final String station,
+      final int[] samples, final int from, final int to, final double t1,
+      final double samplingRate) throws IOException {
+    final int count = to - from;
+    final double t2 = t1 + count / samplingRate;
+    final Segment segment =
+        new Segment(station, new File(getChannelDir(waveDir, station), fileName(t1, t2)));
+    segment.t1 = t1;
+    segment.t2 = t2;
+    segment.size = HEADER_SIZE + 4L * count;
+
+    final MappedByteBuffer buffer = map(segment.file, FileChannel.MapMode.READ_WRITE,
+        segment.size);
+    writeHeader(buffer, count, segment.t1, segment.t2, samplingRate);
+    buffer.asIntBuffer().put(samples, from, count);
+    commit(buffer, WAVE_MAGIC);
+    add(index, segment);
+  }
+
+  /**
+   * Write rows [from, to) of helicorder data as a segment. Caller holds the index write lock.
+   */
+  private void writeHelicorder(final CacheIndex<Segment> index, final String station,
+      final DoubleMatrix2D data, final int from, final int to) throws IOException {
+    final int rows = to - from;
+    final HelicorderData helicorder = new HelicorderData();
+    helicorder.setData(from == 0 && to == data.rows() ? data : data.viewPart(from, 0, rows, 3));
+    final Segment segment = new Segment(station, new File(getChannelDir(helicorderDir, station),
+        fileName(helicorder.getStartTime(), helicorder.getEndTime())));
+    segment.t1 = helicorder.getStartTime();
+    segment.t2 = helicorder.getEndTime();
+    segment.size = HEADER_SIZE + 3L * 8 * rows;
+
+    final MappedByteBuffer buffer = map(segment.file, FileChannel.MapMode.READ_WRITE,
+        segment.size);
+    writeHeader(buffer, rows, segment.t1, segment.t2, 0);
+    final DoubleBuffer doubles = buffer.asDoubleBuffer();
+    for (int i = from; i < to; i++) {
+      doubles.put(data.getQuick(i, 0));
+      doubles.put(data.getQuick(i, 1));
+      doubles.put(data.getQuick(i, 2));
+    }
+    commit(buffer, HELICORDER_MAGIC);
+    add(index, segment);
+  }
+
+  /**
+   * Index a newly written segment. Caller holds the index write lock.
+   */
+  private static void add(final CacheIndex<Segment> index, final Segment segment) {
+    segment.lastAccess = System.currentTimeMillis();
+    index.add(segment);
+  }
+
+  /**
+   * Delete the segments lying within a time span. Caller holds the index write lock.
+   *
+   * @return segments which overlap the span without lying within it
+   */
+  private static List<Segment> removeCovered(final CacheIndex<Segment> index, final double t1,
+      final double t2) {
+    final List<Segment> others = new ArrayList<Segment>();
+    for (final Segment old : index.getOverlapping(t1, t2)) {
+      if (old.t1 >= t1 - EPSILON && old.t2 <= t2 + EPSILON) {
+        index.remove(old);
+        delete(old.file);
+      } else if (overlaps(old, t1, t2)) {
+        others.add(old);
+      }
+    }
+    return others;
+  }
+
+  /**
+   * Check whether a time falls within [t1 - before, t2 + after) of any of some segments.
+   */
+  private static boolean isCovered(final List<Segment> segments, final double t,
+      final double before, final double after) {
+    for (final Segment segment : segments) {
+      if (t >= segment.t1 - before && t < segment.t2 + after) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check for segments sharing more than an end point with a segment.
+   */
+  private static boolean overlaps(final CacheIndex<Segment> index, final Segment segment) {
+    for (final Segment other : index.getOverlapping(segment.t1, segment.t2)) {
+      if (overlaps(other, segment.t1, segment.t2)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean overlaps(final Segment segment, final double t1, final double t2) {
+    return segment.t1 < t2 - EPSILON && segment.t2 > t1 + EPSILON;
+  }
+
+  /**
+   * Find wave segments overlapping a time span.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return segments in time order
+   */
+  public List<Segment> getWaveSegments(final String station, final double t1, final double t2) {
+    return getSegments(waves, station, t1, t2);
+  }
+
+  /**
+   * Find helicorder segments overlapping a time span.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return segments in time order
+   */
+  public List<Segment> getHelicorderSegments(final String station, final double t1,
+      final double t2) {
+    return getSegments(helicorders, station, t1, t2);
+  }
+
+  private List<Segment> getSegments(final Map<String, CacheIndex<Segment>> cache,
+      final String station, final double t1, final double t2) {
+    final CacheIndex<Segment> index = cache.get(station);
+    if (index == null) {
+      return Collections.emptyList();
+    }
+    index.readLock().lock();
+    try {
+      return index.getOverlapping(t1, t2);
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /**
+   * Read a wave segment.
+   *
+   * @param segment segment from {@link #getWaveSegments(String, double, double)}
+   * @return the wave or null if the segment is gone or unreadable
+   */
+  public Wave readWave(final Segment segment) {
+    final CacheIndex<Segment> index = waves.get(segment.station);
+    if (index == null) {
+      return null;
+    }
+    index.readLock().lock();
+    try {
+      final MappedByteBuffer buffer = map(segment.file, FileChannel.MapMode.READ_ONLY, 0);
+      if (buffer.getInt(0) != WAVE_MAGIC) {
+        return null;
+      }
+      final int[] samples = new int[buffer.getInt(4)];
+      final double samplingRate = buffer.getDouble(24);
+      buffer.position(HEADER_SIZE);
+      buffer.asIntBuffer().get(samples);
+      segment.touch();
+      return new Wave(samples, segment.t1, samplingRate);
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read wave from disk cache: {}", e.getMessage());
+      return null;
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /**
+   * Read a helicorder segment.
+   *
+   * @param segment segment from {@link #getHelicorderSegments(String, double, double)}
+   * @return the helicorder or null if the segment is gone or unreadable
+   */
+  public HelicorderData readHelicorder(final Segment segment) {
+    final CacheIndex<Segment> index = helicorders.get(segment.station);
+    if (index == null) {
+      return null;
+    }
+    index.readLock().lock();
+    try {
+      final MappedByteBuffer buffer = map(segment.file, FileChannel.MapMode.READ_ONLY, 0);
+      if (buffer.getInt(0) != HELICORDER_MAGIC) {
+        return null;
+      }
+      final int rows = buffer.getInt(4);
+      buffer.position(HEADER_SIZE);
+      final DoubleBuffer doubles = buffer.asDoubleBuffer();
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+      for (int i = 0; i < rows; i++) {
+        data.setQuick(i, 0, doubles.get());
+        data.setQuick(i, 1, doubles.get());
+        data.setQuick(i, 2, doubles.get());
+      }
+      segment.touch();
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(data);
+      return hd;
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read helicorder from disk cache: {}", e.getMessage());
+      return null;
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /**
+   * Bytes on disk.
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    return size.get();
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Delete every segment.
+   */
+  public void clear() {
+    clear(waves);
+    clear(helicorders);
+  }
+
+  private void clear(final ConcurrentMap<String, CacheIndex<Segment>> cache) {
+    for (final CacheIndex<Segment> index : cache.values()) {
+      index.writeLock().lock();
+      try {
+        for (final Segment segment : index.getEntries()) {
+          index.remove(segment);
+          delete(segment.file);
+        }
+      } finally {
+        index.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Delete least recently used segments until back under the target size. Only one thread purges
+   * at a time.
+   */
+  private void enforceSize() {
+    if (size.get() <= budget || !purgeLock.tryLock()) {
+      return;
+    }
+
+    try {
+      final List<Segment> segments = new ArrayList<Segment>();
+      collect(waves, segments);
+      collect(helicorders, segments);
+      Collections.sort(segments, new Comparator<Segment>() {
+        public int compare(final Segment s1, final Segment s2) {
+          return Long.compare(s1.lastAccessSnapshot, s2.lastAccessSnapshot);
+        }
+      });
+
+      final long target = (long) (budget * EVICTION_TARGET);
+      for (final Segment segment : segments) {
+        if (size.get() <= target) {
+          break;
+        }
+        final CacheIndex<Segment> index =
+            (segment.isWave ? waves : helicorders).get(segment.station);
+        index.writeLock().lock();
+        try {
+          if (index.remove(segment)) {
+            delete(segment.file);
+          }
+        } finally {
+          index.writeLock().unlock();
+        }
+      }
+    } finally {
+      purgeLock.unlock();
+    }
+  }
+
+  private void collect(final Map<String, CacheIndex<Segment>> cache,
+      final List<Segment> segments) {
+    for (final CacheIndex<Segment> index : cache.values()) {
+      index.readLock().lock();
+      try {
+        for (final Segment segment : index) {
+          segment.lastAccessSnapshot = segment.lastAccess;
+          segments.add(segment);
+        }
+      } finally {
+        index.readLock().unlock();
+      }
+    }
+  }
+
+  private CacheIndex<Segment> getIndex(final ConcurrentMap<String, CacheIndex<Segment>> cache,
+      final String station) {
+    CacheIndex<Segment> index = cache.get(station);
+    if (index == null) {
+      final CacheIndex<Segment> newIndex = new CacheIndex<Segment>(size);
+      index = cache.putIfAbsent(station, newIndex);
+      if (index == null) {
+        index = newIndex;
+      }
+    }
+    return index;
+  }
+
+  private Segment readHeader(final String station, final File file) {
+    if (!file.getName().endsWith(SUFFIX)) {
+      return null;
+    }
+    try {
+      final MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY, 0);
+      if (buffer.capacity() < HEADER_SIZE) {
+        return null;
+      }
+      final int magic = buffer.getInt(0);
+      final long count = buffer.getInt(4);
+      final long expected;
+      if (magic == WAVE_MAGIC) {
+        expected = HEADER_SIZE + 4 * count;
+      } else if (magic == HELICORDER_MAGIC) {
+        expected = HEADER_SIZE + 3 * 8 * count;
+      } else {
+        return null;
+      }
+      if (buffer.capacity() != expected) {
+        return null;
+      }
+      final Segment segment = new Segment(station, file);
+      segment.isWave = magic == WAVE_MAGIC;
+      segment.t1 = buffer.getDouble(8);
+      segment.t2 = buffer.getDouble(16);
+      segment.size = expected;
+      segment.lastAccess = file.lastModified();
+      return segment;
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Write the header, leaving the magic number zero until the data is on disk.
+   */
+  private static void writeHeader(final MappedByteBuffer buffer, final int count,
+      final double t1, final double t2, final double samplingRate) {
+    buffer.putInt(0);
+    buffer.putInt(count);
+    buffer.putDouble(t1);
+    buffer.putDouble(t2);
+    buffer.putDouble(samplingRate);
+  }
+
+  /**
+   * Flush the data and then mark the segment complete. A segment interrupted by a crash has no
+   * magic number and is discarded when the cache is next opened.
+   */
+  private static void commit(final MappedByteBuffer buffer, final int magic) {
+    buffer.force();
+    buffer.putInt(0, magic);
+    buffer.force();
+  }
+
+  /**
+   * Map a file. A size of 0 maps the whole existing file.
+   */
+  private static MappedByteBuffer map(final File file, final FileChannel.MapMode mode,
+      final long size) throws IOException {
+    final RandomAccessFile raf =
+        new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+    try {
+      final FileChannel channel = raf.getChannel();
+      if (mode != FileChannel.MapMode.READ_ONLY) {
+        channel.truncate(size);
+      }
+      return channel.map(mode, 0, size == 0 ? channel.size() : size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void delete(final File file) {
+    // a mapping may keep the file open on some platforms until it is collected
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  private static String fileName(final double t1, final double t2) {
+    return Math.round(t1 * 1000) + "_" + Math.round(t2 * 1000) + SUFFIX;
+  }
+
+  private static File getChannelDir(final File typeDir, final String station) {
+    final File dir = new File(typeDir, encode(station));
+    dir.mkdirs();
+    return dir;
+  }
+
+  private static String encode(final String station) {
+    try {
+      return URLEncoder.encode(station, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String decode(final String name) {
+    try {
+      return URLDecoder.decode(name, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * A segment file.
+   */
+  public static class Segment extends CacheEntry {
+    private final File file;
+    private boolean isWave;
+    private long size;
+    private long lastAccessSnapshot;
+
+    private Segment(final String station, final File file) {
+      this.station = station;
+      this.file = file;
+      isWave = file.getParentFile().getParentFile().getName().equals("waves");
+    }
+
+    private void touch() {
+      lastAccess = System.currentTimeMillis();
+      file.setLastModified(lastAccess);
+    }
+
+    @Override
+    public String getInfoString() {
+      return file.getPath() + ", " + size + " bytes, " + t1 + " => " + t2;
+    }
+
+    @Override
+    public long getMemorySize() {
+      return size;
+    }
+
+    @Override
+    long evict() {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * Sizes and paces gulps for one server from how the server has been answering. The configured
+ * gulp size and delay are the bounds: chunks are never longer than the gulp size, and chunks are
+ * never further apart than the gulp delay.
+ *
+ * <p>Control is additive increase, multiplicative decrease. Each chunk answered within
+ * {@link #TARGET_LATENCY} grows the chunk size and shortens the delay by a tenth of their range.
+ * A chunk which fails or answers slowly halves the chunk size and doubles the delay.
+ */
+public class GulpRate {
+  /** slowest answer to a chunk which doesn't count as congestion, in ms. */
+  public static final long TARGET_LATENCY = 10 * 1000;
+
+  /** shortest chunk, in seconds, unless the gulp size is shorter. */
+  public static final double MIN_SIZE = 60;
+
+  private static final double STEP = 0.1;
+  private static final double DECREASE = 0.5;
+
+  /** weight of the newest chunk in the smoothed transfer rate. */
+  private static final double SMOOTHING = 0.3;
+
+  private double sizeScale = 1;
+  private double delayScale = 1;
+  private double bytesPerSecond = Double.NaN;
+  private double lastSize = Double.NaN;
+  private long errors;
+
+  /**
+   * Length of the next chunk.
+   *
+   * @param gulpSize configured gulp size in seconds
+   * @return chunk length in seconds
+   */
+  public synchronized double getSize(final int gulpSize) {
+    lastSize = Math.max(Math.min(MIN_SIZE, gulpSize), sizeScale * gulpSize);
+    return lastSize;
+  }
+
+  /**
+   * Time from the start of one chunk to the start of the next.
+   *
+   * @param gulpDelay configured gulp delay in ms
+   * @return delay in ms
+   */
+  public synchronized long getDelay(final int gulpDelay) {
+    return Math.round(delayScale * gulpDelay);
+  }
+
+  /**
+   * Note a chunk which was answered.
+   *
+   * @param elapsed time taken in ms
+   * @param bytes size of the data received
+   */
+  public synchronized void succeeded(final long elapsed, final long bytes) {
+    if (elapsed > 0) {
+      final double rate = bytes * 1000.0 / elapsed;
+      bytesPerSecond = Double.isNaN(bytesPerSecond) ? rate
+          : SMOOTHING * rate + (1 - SMOOTHING) * bytesPerSecond;
+    }
+    if (elapsed > TARGET_LATENCY) {
+      decrease();
+    } else {
+      sizeScale = Math.min(1, sizeScale + STEP);
+      delayScale = Math.max(0, delayScale - STEP);
+    }
+  }
+
+  /**
+   * Note a chunk which failed.
+   */
+  public synchronized void failed() {
+    errors++;
+    decrease();
+  }
+
+  private void decrease() {
+    sizeScale = Math.max(STEP, sizeScale * DECREASE);
+    delayScale = Math.min(1, Math.max(STEP, delayScale / DECREASE));
+  }
+
+  /**
+   * Smoothed transfer rate of recent chunks.
+   *
+   * @return bytes per second, NaN if nothing has been gulped yet
+   */
+  public synchronized double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Length of the most recent chunk.
+   *
+   * @return chunk length in seconds, NaN if nothing has been gulped yet
+   */
+  public synchronized double getLastSize() {
+    return lastSize;
+  }
+
+  /**
+   * Chunks which have failed.
+   *
+   * @return error count
+   */
+  public synchronized long getErrors() {
+    return errors;
+  }
+}
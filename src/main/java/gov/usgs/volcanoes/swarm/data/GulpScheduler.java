@@ -0,0 +1,252 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs gulpers a chunk at a time on a shared pool of threads. Each server gets at most
+ * {@link #WORKERS_PER_SERVER} chunks in flight, and chunks are started no more often than the
+ * gulp delay, however many gulpers there are for the server. Chunk sizes and the delay adapt to
+ * how the server answers; see {@link GulpRate}.
+ *
+ * <p>When a server can take another chunk the waiting gulper with the highest priority goes next.
+ * Gulpers feeding a visible helicorder come first, then those whose helicorder was focused most
+ * recently, then those working on the newest data. Helicorders report focus and visibility with
+ * {@link #focus} and {@link #setVisible}.
+ *
+ * <p>A killed gulper finishes the chunk it's on, if any, and is stopped.
+ */
+public class GulpScheduler {
+  public static final GulpScheduler INSTANCE = new GulpScheduler();
+
+  /** most chunks gulped at once from one server. */
+  public static final int WORKERS_PER_SERVER = 2;
+
+  private static final ExecutorService WORKERS =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Gulper " + ++count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private static final ScheduledExecutorService TIMER =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Gulp timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final Map<String, Server> servers;
+  private final Map<GulperListener, Long> focused;
+  private final Set<GulperListener> hidden;
+  private long focusCount;
+
+  private GulpScheduler() {
+    servers = new HashMap<String, Server>();
+    focused = new WeakHashMap<GulperListener, Long>();
+    hidden = Collections.newSetFromMap(new WeakHashMap<GulperListener, Boolean>());
+  }
+
+  /**
+   * Key for the server a source reads from. Copies of a source share their key.
+   *
+   * @param source data source
+   * @return server key
+   */
+  public static String getServerKey(final SeismicDataSource source) {
+    return source.getClass().getName() + ":" + source.toConfigString();
+  }
+
+  /**
+   * Note that a listener's helicorder has been focused, putting its gulpers ahead of the rest.
+   *
+   * @param gl gulper listener
+   */
+  public synchronized void focus(final GulperListener gl) {
+    focused.put(gl, ++focusCount);
+    hidden.remove(gl);
+  }
+
+  /**
+   * Note whether a listener's helicorder can be seen. Listeners are visible until they say not.
+   *
+   * @param gl gulper listener
+   * @param visible false if the helicorder is hidden or iconified
+   */
+  public synchronized void setVisible(final GulperListener gl, final boolean visible) {
+    if (visible) {
+      hidden.remove(gl);
+    } else {
+      hidden.add(gl);
+    }
+  }
+
+  /**
+   * Start a gulper.
+   *
+   * @param gulper gulper
+   */
+  void submit(final Gulper gulper) {
+    gulper.fireStarted();
+    synchronized (this) {
+      final Server server = getServer(gulper.getServerKey());
+      server.ready.add(gulper);
+      dispatch(server);
+    }
+  }
+
+  /**
+   * Stop a killed gulper now if it's waiting; a running gulper stops after its chunk.
+   *
+   * @param gulper killed gulper
+   */
+  void cancel(final Gulper gulper) {
+    final boolean waiting;
+    synchronized (this) {
+      final Server server = servers.get(gulper.getServerKey());
+      waiting = server != null && server.ready.remove(gulper);
+    }
+    if (waiting) {
+      WORKERS.execute(new Runnable() {
+        public void run() {
+          gulper.finish();
+        }
+      });
+    }
+  }
+
+  /**
+   * Get the gulp rate of a server.
+   *
+   * @param serverKey server key
+   * @return rate, or null if nothing has been gulped from the server
+   * @see #getServerKey(SeismicDataSource)
+   */
+  public synchronized GulpRate getRate(final String serverKey) {
+    final Server server = servers.get(serverKey);
+    return server == null ? null : server.rate;
+  }
+
+  private Server getServer(final String key) {
+    Server server = servers.get(key);
+    if (server == null) {
+      server = new Server();
+      servers.put(key, server);
+    }
+    return server;
+  }
+
+  /**
+   * Start chunks while the server has room and the rate limit allows. Called holding the lock.
+   */
+  private void dispatch(final Server server) {
+    while (server.running < WORKERS_PER_SERVER && !server.ready.isEmpty()) {
+      final long now = System.currentTimeMillis();
+      if (now < server.nextStart) {
+        if (!server.waking) {
+          server.waking = true;
+          TIMER.schedule(new Runnable() {
+            public void run() {
+              synchronized (GulpScheduler.this) {
+                server.waking = false;
+                dispatch(server);
+              }
+            }
+          }, server.nextStart - now, TimeUnit.MILLISECONDS);
+        }
+        return;
+      }
+      final Gulper gulper = next(server.ready);
+      server.ready.remove(gulper);
+      server.running++;
+      server.nextStart = now + server.rate.getDelay(gulper.getDelay());
+      WORKERS.execute(new Runnable() {
+        public void run() {
+          gulp(server, gulper);
+        }
+      });
+    }
+  }
+
+  private void gulp(final Server server, final Gulper gulper) {
+    boolean more = false;
+    boolean finished = false;
+    try {
+      more = gulper.gulp(server.rate);
+    } finally {
+      synchronized (this) {
+        server.running--;
+        if (more && !gulper.isKilled()) {
+          server.ready.add(gulper);
+        } else {
+          finished = true;
+        }
+        dispatch(server);
+      }
+      if (finished) {
+        gulper.finish();
+      }
+    }
+  }
+
+  /**
+   * Waiting gulper with the highest priority. Called holding the lock.
+   */
+  private Gulper next(final List<Gulper> ready) {
+    Gulper best = null;
+    boolean bestVisible = false;
+    long bestFocus = 0;
+    for (final Gulper gulper : ready) {
+      boolean visible = false;
+      long focus = 0;
+      for (final GulperListener gl : gulper.getListeners()) {
+        visible |= !hidden.contains(gl);
+        final Long f = focused.get(gl);
+        if (f != null) {
+          focus = Math.max(focus, f);
+        }
+      }
+      if (best == null || (visible && !bestVisible)
+          || (visible == bestVisible && (focus > bestFocus
+              || (focus == bestFocus && gulper.getLastTime() > best.getLastTime())))) {
+        best = gulper;
+        bestVisible = visible;
+        bestFocus = focus;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Gulping state of one server. Guarded by the scheduler's lock.
+   */
+  private static class Server {
+    private final List<Gulper> ready = new ArrayList<Gulper>();
+    private final GulpRate rate = new GulpRate();
+    private int running;
+    private long nextStart;
+    private boolean waking;
+  }
+}
@@ -3,26 +3,31 @@ package gov.usgs.volcanoes.swarm.data;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Gulper.
+ * Gulper. Fills the helicorder cache for a channel by pulling chunks of wave, newest first, back
+ * to a goal time. Chunk sizes follow the server's {@link GulpRate}. Gulpers don't have threads of
+ * their own; the {@link GulpScheduler} runs them a chunk at a time.
+ *
  * @author Dan Cervelli
  */
-public class Gulper implements Runnable {
+public class Gulper {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Gulper.class);
 
   private final SeismicDataSource gulpSource;
   private final GulperList gulperList;
   private final String channel;
+  private final String serverKey;
+  private final Object timeLock = new Object();
   private double lastTime;
   private double goalTime;
-  private Thread thread;
+  private volatile boolean killed;
   private final String key;
   private final Set<GulperListener> listeners;
 
@@ -46,8 +51,9 @@ public class Gulper implements Runnable {
     gulpDelay = delay;
     gulperList = gl;
     gulpSource = source;
+    serverKey = GulpScheduler.getServerKey(source);
     key = k;
-    listeners = new HashSet<GulperListener>();
+    listeners = new CopyOnWriteArraySet<GulperListener>();
     channel = ch;
     lastTime = t2;
 
@@ -57,14 +63,23 @@ public class Gulper implements Runnable {
     }
   }
 
-  public synchronized void addListener(final GulperListener gl) {
+  public void addListener(final GulperListener gl) {
     listeners.add(gl);
   }
 
-  public synchronized void removeListener(final GulperListener gl) {
+  public void removeListener(final GulperListener gl) {
     listeners.remove(gl);
   }
 
+  /**
+   * Get the listeners.
+   *
+   * @return listeners, which may be iterated while others are added or removed
+   */
+  public Set<GulperListener> getListeners() {
+    return listeners;
+  }
+
   public String getChannel() {
     return channel;
   }
@@ -74,18 +89,43 @@ public class Gulper implements Runnable {
   }
 
   /**
-   * Kill this gulper.
+   * Get the key for the server this gulper reads from.
+   *
+   * @return server key
+   * @see GulpScheduler#getServerKey(SeismicDataSource)
+   */
+  public String getServerKey() {
+    return serverKey;
+  }
+
+  /**
+   * Get the delay between chunks, which the scheduler applies per server.
+   *
+   * @return delay in ms
    */
-  protected void kill() {
-    // use local copy to ensure it isn't changed elsewhere,
-    // no need to lock since OK to have multiple calls to Thread.interrupt
-    final Thread t = thread;
-    if (t != null) {
-      thread = null;
-      t.interrupt();
+  public int getDelay() {
+    return gulpDelay;
+  }
+
+  /**
+   * Get the end of the next chunk.
+   *
+   * @return time in j2k
+   */
+  public double getLastTime() {
+    synchronized (timeLock) {
+      return lastTime;
     }
   }
 
+  /**
+   * Kill this gulper. A chunk being gulped is finished first.
+   */
+  protected void kill() {
+    killed = true;
+    GulpScheduler.INSTANCE.cancel(this);
+  }
+
   /**
    * Kill gulper.
    * @param gl gulper listener
@@ -100,10 +140,10 @@ public class Gulper implements Runnable {
   /**
    * Determine if this gulper has been killed.
    *
-   * @return true if the gulper has been killed or was never started.
+   * @return true if the gulper has been killed.
    */
   public boolean isKilled() {
-    return thread == null;
+    return killed;
   }
 
 
@@ -111,8 +151,7 @@ public class Gulper implements Runnable {
    * Start gulper.
    */
   public void start() {
-    thread = new Thread(this);
-    thread.start();
+    GulpScheduler.INSTANCE.submit(this);
     LOGGER.debug("gulper started for {}", channel);
   }
 
@@ -123,35 +162,37 @@ public class Gulper implements Runnable {
    */
   public void update(final double t1, final double t2) {
     final CachedDataSource cache = CachedDataSource.getInstance();
-    if (t2 < lastTime) {
-      lastTime = t2;
-    }
-    goalTime = t1;
+    synchronized (timeLock) {
+      if (t2 < lastTime) {
+        lastTime = t2;
+      }
+      goalTime = t1;
 
-    while (cache.inHelicorderCache(channel, lastTime - gulpSize, lastTime) && lastTime > goalTime
-        && !isKilled()) {
-      lastTime -= gulpSize;
-      lastTime += 10;
+      while (cache.inHelicorderCache(channel, lastTime - gulpSize, lastTime)
+          && lastTime > goalTime && !isKilled()) {
+        lastTime -= gulpSize;
+        lastTime += 10;
+      }
     }
   }
 
-  protected synchronized void fireStarted() {
+  protected void fireStarted() {
     for (final GulperListener listener : listeners) {
       listener.gulperStarted();
     }
   }
 
-  protected synchronized void fireGulped(final double t1, final double t2, final Wave w) {
+  protected void fireGulped(final double t1, final double t2, final Wave w) {
     fireGulped(t1, t2, w != null && !isKilled());
   }
 
-  protected synchronized void fireGulped(final double t1, final double t2, final boolean success) {
+  protected void fireGulped(final double t1, final double t2, final boolean success) {
     for (final GulperListener listener : listeners) {
       listener.gulperGulped(t1, t2, success);
     }
   }
 
-  protected synchronized void fireStopped() {
+  protected void fireStopped() {
     final boolean killed = isKilled();
     for (final GulperListener listener : listeners) {
       listener.gulperStopped(killed);
@@ -159,12 +200,50 @@ public class Gulper implements Runnable {
   }
 
   /**
-   * Thread's run method.
-   * @see java.lang.Runnable#run()
+   * Gulp the next chunk. The scheduler calls this until it returns false or the gulper is
+   * killed, never from two threads at once; a subclass may override it.
+   *
+   * @param rate sizes the chunk, and is told how the server answered
+   * @return true if there is more to gulp
+   */
+  protected boolean gulp(final GulpRate rate) {
+    final double t1;
+    final double t2;
+    synchronized (timeLock) {
+      if (lastTime <= goalTime || isKilled()) {
+        return false;
+      }
+      t1 = lastTime - rate.getSize(gulpSize);
+      t2 = lastTime;
+    }
+    try {
+      final long start = System.currentTimeMillis();
+      final Wave w = gulpSource.getWave(channel, t1, t2);
+      final long elapsed = System.currentTimeMillis() - start;
+      if (w != null) {
+        rate.succeeded(elapsed, w.numSamples() * 4L);
+      } else if (elapsed > GulpRate.TARGET_LATENCY) {
+        // sources give null for a timed out request as well as for no data
+        rate.failed();
+      } else {
+        rate.succeeded(elapsed, 0);
+      }
+      fireGulped(t1, t2, w);
+      update(goalTime, t1 + 10);
+    } catch (final Throwable e) {
+      rate.failed();
+      System.err.println("Exception during gulp:");
+      e.printStackTrace();
+    }
+    synchronized (timeLock) {
+      return lastTime > goalTime;
+    }
+  }
+
+  /**
+   * Called by the scheduler once the gulper is done or killed.
    */
-  public void run() {
-    fireStarted();
-    runLoop();
+  void finish() {
     gulpSource.close();
     if (isKilled()) {
       LOGGER.debug("gulper killed");
@@ -175,35 +254,6 @@ public class Gulper implements Runnable {
     fireStopped();
   }
 
-  /**
-   * This is the run loop which a subclass may override.
-   */
-  protected void runLoop() {
-    while (lastTime > goalTime && !isKilled()) {
-      try {
-        final double t1 = lastTime - gulpSize;
-        final double t2 = lastTime;
-        final Wave w = gulpSource.getWave(channel, t1, t2);
-        fireGulped(t1, t2, w);
-        update(goalTime, lastTime - gulpSize + 10);
-      } catch (final Throwable e) {
-        System.err.println("Exception during gulp:");
-        e.printStackTrace();
-      }
-      delay();
-    }
-  }
-
-  protected void delay() {
-    if (!isKilled()) {
-      try {
-        Thread.sleep(gulpDelay);
-      } catch (final InterruptedException ignore) {
-        //
-      }
-    }
-  }
-
   @Override
   public String toString() {
     return channel;
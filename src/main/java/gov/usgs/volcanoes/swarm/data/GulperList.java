@@ -4,7 +4,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Gulper List.
+ * Gulper List. Keeps the running gulper for each key, so helicorders showing the same channel
+ * share one; gulpers are run by the {@link GulpScheduler}.
  * 
  * @author Dan Cervelli
  */
@@ -32,6 +33,10 @@ public class GulperList {
   public synchronized Gulper requestGulper(String key, GulperListener gl, SeismicDataSource source,
       String ch, double t1, double t2, int size, int delay) {
     Gulper g = gulpers.get(key);
+    if (g != null && g.isKilled()) {
+      // stopping after its last chunk, so start afresh
+      g = null;
+    }
     if (g != null) {
       g.addListener(gl);
       g.update(t1, t2);
@@ -66,6 +71,9 @@ public class GulperList {
    * @param g gulper
    */
   public synchronized void removeGulper(Gulper g) {
-    gulpers.remove(g.getKey());
+    // a killed gulper may already have been replaced
+    if (gulpers.get(g.getKey()) == g) {
+      gulpers.remove(g.getKey());
+    }
   }
 }
@@ -0,0 +1,275 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Coarse min/max summaries of one channel's helicorder data at 10 s, 60 s and 600 s, above the
+ * 1 s rows held in the helicorder cache. Each level is updated as rows arrive, so a long
+ * helicorder can be drawn from a few thousand rows without rereducing anything.
+ *
+ * <p>Levels store their bins in fixed size chunks of primitive arrays and keep a bounded number of
+ * chunks, dropping the oldest. The bytes held are added to a counter shared with the helicorder
+ * cache, so summaries count against the cache size. Rows are removed when the helicorder rows
+ * they summarise are evicted.
+ */
+public class HelicorderPyramid {
+  /** level periods in seconds, finest first. */
+  public static final int[] PERIODS = {10, 60, 600};
+
+  /** bins in a chunk. */
+  private static final int CHUNK_BINS = 1024;
+
+  /** chunks kept per level; about 118 days at 10 s and 19 years at 600 s. */
+  private static final int MAX_CHUNKS = 1000;
+
+  /** bytes held by a chunk, counting the array header. */
+  private static final long CHUNK_SIZE = CHUNK_BINS * 2 * 8 + 16;
+
+  private final Level[] levels;
+  private final AtomicLong cacheSize;
+  private long size;
+  private boolean retired;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheSize byte counter shared with the helicorder cache
+   */
+  public HelicorderPyramid(final AtomicLong cacheSize) {
+    this.cacheSize = cacheSize;
+    levels = new Level[PERIODS.length];
+    for (int i = 0; i < PERIODS.length; i++) {
+      levels[i] = new Level(PERIODS[i]);
+    }
+  }
+
+  /**
+   * Fold helicorder rows into every level.
+   *
+   * @param helicorder new helicorder data
+   * @return false if the pyramid has been retired and nothing was added
+   */
+  public synchronized boolean add(final HelicorderData helicorder) {
+    if (retired) {
+      return false;
+    }
+    final DoubleMatrix2D data = helicorder.getData();
+    if (data == null) {
+      return true;
+    }
+    for (int i = 0; i < data.rows(); i++) {
+      final double t = data.getQuick(i, 0);
+      final double min = data.getQuick(i, 1);
+      final double max = data.getQuick(i, 2);
+      for (final Level level : levels) {
+        level.add(t, min, max);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Drop the bins lying wholly within a span, along with chunks left empty.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return bytes freed
+   */
+  public synchronized long remove(final double t1, final double t2) {
+    final long before = size;
+    for (final Level level : levels) {
+      level.remove(t1, t2);
+    }
+    return before - size;
+  }
+
+  /**
+   * Drop every level and stop taking rows. A writer whose add fails must look the pyramid up
+   * again.
+   */
+  public synchronized void retire() {
+    for (final Level level : levels) {
+      level.chunks.clear();
+    }
+    addSize(-size);
+    retired = true;
+  }
+
+  /**
+   * Get the bytes held.
+   *
+   * @return size in bytes
+   */
+  public synchronized long getMemorySize() {
+    return size;
+  }
+
+  private void addSize(final long delta) {
+    size += delta;
+    cacheSize.addAndGet(delta);
+  }
+
+  /**
+   * Get the coarsest level whose rows are no longer than the given resolution.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param resolution longest acceptable row period in seconds
+   * @return helicorder data or null if no level is fine enough or there is no data
+   */
+  public synchronized HelicorderData get(final double t1, final double t2,
+      final double resolution) {
+    Level level = null;
+    for (final Level l : levels) {
+      if (l.period <= resolution) {
+        level = l;
+      }
+    }
+    if (level == null) {
+      return null;
+    }
+    return level.get(t1, t2);
+  }
+
+  /**
+   * One level of the pyramid.
+   */
+  private class Level {
+    private final int period;
+    private final TreeMap<Long, double[]> chunks;
+
+    public Level(final int period) {
+      this.period = period;
+      chunks = new TreeMap<Long, double[]>();
+    }
+
+    /**
+     * Chunks hold min and max interleaved, NaN where a bin has no data.
+     */
+    public void add(final double t, final double min, final double max) {
+      final long bin = (long) Math.floor(t / period);
+      final long chunkIndex = Math.floorDiv(bin, CHUNK_BINS);
+      double[] chunk = chunks.get(chunkIndex);
+      if (chunk == null) {
+        if (chunks.size() >= MAX_CHUNKS) {
+          if (chunkIndex < chunks.firstKey()) {
+            return;
+          }
+          chunks.pollFirstEntry();
+          addSize(-CHUNK_SIZE);
+        }
+        chunk = new double[CHUNK_BINS * 2];
+        Arrays.fill(chunk, Double.NaN);
+        chunks.put(chunkIndex, chunk);
+        addSize(CHUNK_SIZE);
+      }
+
+      final int i = (int) (bin - chunkIndex * CHUNK_BINS) * 2;
+      if (Double.isNaN(chunk[i])) {
+        chunk[i] = min;
+        chunk[i + 1] = max;
+      } else {
+        chunk[i] = Math.min(chunk[i], min);
+        chunk[i + 1] = Math.max(chunk[i + 1], max);
+      }
+    }
+
+    /**
+     * Rows are one second long, so a span's data runs to a second past its last row.
+     */
+    public void remove(final double t1, final double t2) {
+      final long firstBin = (long) Math.ceil(t1 / period);
+      final long lastBin = (long) Math.floor((t2 + 1) / period) - 1;
+      if (lastBin < firstBin) {
+        return;
+      }
+      final Iterator<Map.Entry<Long, double[]>> it =
+          chunks.subMap(Math.floorDiv(firstBin, CHUNK_BINS), true,
+              Math.floorDiv(lastBin, CHUNK_BINS), true).entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<Long, double[]> entry = it.next();
+        final double[] chunk = entry.getValue();
+        final long base = entry.getKey() * CHUNK_BINS;
+        final int from = (int) Math.max(0, firstBin - base);
+        final int to = (int) Math.min(CHUNK_BINS - 1, lastBin - base);
+        Arrays.fill(chunk, from * 2, to * 2 + 2, Double.NaN);
+        if (isEmpty(chunk)) {
+          it.remove();
+          addSize(-CHUNK_SIZE);
+        }
+      }
+    }
+
+    private boolean isEmpty(final double[] chunk) {
+      for (int i = 0; i < chunk.length; i += 2) {
+        if (!Double.isNaN(chunk[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public HelicorderData get(final double t1, final double t2) {
+      final long firstBin = (long) Math.floor(t1 / period);
+      final long lastBin = (long) Math.floor(t2 / period);
+      final Map<Long, double[]> span = chunks.subMap(Math.floorDiv(firstBin, CHUNK_BINS), true,
+          Math.floorDiv(lastBin, CHUNK_BINS), true);
+
+      int rows = 0;
+      for (final Map.Entry<Long, double[]> entry : span.entrySet()) {
+        rows += count(entry.getKey(), entry.getValue(), firstBin, lastBin, null, 0);
+      }
+      if (rows == 0) {
+        return null;
+      }
+
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+      int row = 0;
+      for (final Map.Entry<Long, double[]> entry : span.entrySet()) {
+        row += count(entry.getKey(), entry.getValue(), firstBin, lastBin, data, row);
+      }
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(data);
+      return hd;
+    }
+
+    /**
+     * Count the bins with data in a chunk between two bins, copying them to data if it isn't
+     * null.
+     */
+    private int count(final long chunkIndex, final double[] chunk, final long firstBin,
+        final long lastBin, final DoubleMatrix2D data, final int firstRow) {
+      final long base = chunkIndex * CHUNK_BINS;
+      final int from = (int) Math.max(0, firstBin - base);
+      final int to = (int) Math.min(CHUNK_BINS - 1, lastBin - base);
+      int rows = 0;
+      for (int i = from; i <= to; i++) {
+        if (!Double.isNaN(chunk[i * 2])) {
+          if (data != null) {
+            final int row = firstRow + rows;
+            data.setQuick(row, 0, (double) (base + i) * period);
+            data.setQuick(row, 1, chunk[i * 2]);
+            data.setQuick(row, 2, chunk[i * 2 + 1]);
+          }
+          rows++;
+        }
+      }
+      return rows;
+    }
+  }
+}
@@ -0,0 +1,17 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * Evict the least recently used entries first, regardless of size.
+ */
+public class LruEvictionPolicy implements CacheEvictionPolicy {
+
+  public double getPriority(final CacheEntry entry, final long now) {
+    return now - entry.lastAccess;
+  }
+}
@@ -0,0 +1,179 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Sample storage outside the Java heap. Memory is allocated as direct buffer slabs, up to a fixed
+ * budget, and carved into fixed size segments. Stored samples occupy as many segments as they
+ * need and the segments go back on a free list when released, so memory is reused without waiting
+ * for the garbage collector to free direct buffers.
+ *
+ * <p>The budget is independent of -Xmx, but direct buffers are limited by
+ * -XX:MaxDirectMemorySize, which defaults to the heap size. Raise it to use a budget larger than
+ * the heap.
+ */
+public class OffHeapSampleStore {
+  /** bytes in a segment. */
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  /** samples in a segment. */
+  private static final int SEGMENT_SAMPLES = SEGMENT_SIZE / 4;
+
+  /** segments allocated at once. */
+  private static final int SEGMENTS_PER_SLAB = 256;
+
+  private final long budget;
+  private final Deque<IntBuffer> freeSegments;
+  private long allocated;
+  private long used;
+
+  /**
+   * Constructor.
+   *
+   * @param budget maximum bytes to allocate
+   */
+  public OffHeapSampleStore(final long budget) {
+    this.budget = budget;
+    freeSegments = new ArrayDeque<IntBuffer>();
+  }
+
+  /**
+   * Copy samples off heap.
+   *
+   * @param samples samples to store
+   * @return stored samples or null if the store is full
+   */
+  public Samples store(final int[] samples) {
+    final int count = (samples.length + SEGMENT_SAMPLES - 1) / SEGMENT_SAMPLES;
+    final IntBuffer[] segments = allocate(count);
+    if (segments == null) {
+      return null;
+    }
+
+    int offset = 0;
+    for (final IntBuffer segment : segments) {
+      final int length = Math.min(SEGMENT_SAMPLES, samples.length - offset);
+      final IntBuffer dup = segment.duplicate();
+      dup.clear();
+      dup.put(samples, offset, length);
+      offset += length;
+    }
+    return new Samples(segments, samples.length);
+  }
+
+  /**
+   * Return stored samples' segments to the free list. The samples must not be read afterwards.
+   *
+   * @param samples stored samples
+   */
+  public synchronized void release(final Samples samples) {
+    for (final IntBuffer segment : samples.segments) {
+      freeSegments.push(segment);
+    }
+    used -= (long) samples.segments.length * SEGMENT_SIZE;
+  }
+
+  private synchronized IntBuffer[] allocate(final int count) {
+    while (freeSegments.size() < count) {
+      if (allocated + (long) SEGMENTS_PER_SLAB * SEGMENT_SIZE > budget) {
+        return null;
+      }
+      final ByteBuffer slab = ByteBuffer.allocateDirect(SEGMENTS_PER_SLAB * SEGMENT_SIZE)
+          .order(ByteOrder.nativeOrder());
+      for (int i = 0; i < SEGMENTS_PER_SLAB; i++) {
+        slab.limit((i + 1) * SEGMENT_SIZE).position(i * SEGMENT_SIZE);
+        freeSegments.push(slab.slice().order(ByteOrder.nativeOrder()).asIntBuffer());
+      }
+      allocated += (long) SEGMENTS_PER_SLAB * SEGMENT_SIZE;
+    }
+
+    final IntBuffer[] segments = new IntBuffer[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = freeSegments.pop();
+    }
+    used += (long) count * SEGMENT_SIZE;
+    return segments;
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Bytes in use by stored samples.
+   *
+   * @return bytes used
+   */
+  public synchronized long getUsed() {
+    return used;
+  }
+
+  /**
+   * Bytes allocated from the system, used or free.
+   *
+   * @return bytes allocated
+   */
+  public synchronized long getAllocated() {
+    return allocated;
+  }
+
+  /**
+   * Samples held off heap.
+   */
+  public static class Samples {
+    private final IntBuffer[] segments;
+    private final int length;
+
+    private Samples(final IntBuffer[] segments, final int length) {
+      this.segments = segments;
+      this.length = length;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    /**
+     * Bytes of off heap memory held, including the unused end of the last segment.
+     *
+     * @return memory size in bytes
+     */
+    public long getMemorySize() {
+      return (long) segments.length * SEGMENT_SIZE;
+    }
+
+    /**
+     * Copy samples back onto the heap.
+     *
+     * @param offset index of first sample
+     * @param dest destination array
+     * @param destOffset index in dest of first sample
+     * @param count number of samples
+     */
+    public void get(int offset, final int[] dest, int destOffset, int count) {
+      if (offset < 0 || count < 0 || offset + count > length) {
+        throw new IndexOutOfBoundsException();
+      }
+      while (count > 0) {
+        final IntBuffer dup = segments[offset / SEGMENT_SAMPLES].duplicate();
+        dup.clear();
+        dup.position(offset % SEGMENT_SAMPLES);
+        final int n = Math.min(count, dup.remaining());
+        dup.get(dest, destOffset, n);
+        offset += n;
+        destOffset += n;
+        count -= n;
+      }
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares upstream fetches between concurrent requests for the same data. A request for a span
+ * some in-flight fetch already covers waits for that fetch and takes its slice of the result. A
+ * request which only overlaps an in-flight fetch waits for it too, takes the overlap, and fetches
+ * just the parts on either side. Otherwise the request fetches for itself, and others may join it.
+ *
+ * <p>Requests are keyed by source and channel; callers build keys with {@link #getKey}.
+ *
+ * @param <T> data type
+ */
+public abstract class RequestCoalescer<T> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RequestCoalescer.class);
+
+  /** coalescer for raw waves. */
+  public static final RequestCoalescer<Wave> WAVES = new RequestCoalescer<Wave>() {
+    @Override
+    protected Wave slice(final Wave wave, final double t1, final double t2) {
+      if (t1 <= wave.getStartTime() && t2 >= wave.getEndTime()) {
+        return wave;
+      }
+      return wave.subset(t1, t2);
+    }
+
+    @Override
+    protected Wave combine(final Wave first, final Wave second) {
+      return Wave.join(Arrays.asList(first, second));
+    }
+  };
+
+  /** coalescer for helicorders fetched whole rather than gulped. */
+  public static final RequestCoalescer<HelicorderData> HELICORDERS =
+      new RequestCoalescer<HelicorderData>() {
+        @Override
+        protected HelicorderData slice(final HelicorderData hd, final double t1,
+            final double t2) {
+          return hd.subset(t1, t2);
+        }
+
+        @Override
+        protected HelicorderData combine(final HelicorderData first,
+            final HelicorderData second) {
+          return first.combine(second);
+        }
+      };
+
+  private final Map<String, List<Flight<T>>> inFlight;
+  private final AtomicLong fetches;
+  private final AtomicLong shared;
+
+  protected RequestCoalescer() {
+    inFlight = new HashMap<String, List<Flight<T>>>();
+    fetches = new AtomicLong();
+    shared = new AtomicLong();
+  }
+
+  /**
+   * Part of a result covering a shorter span.
+   *
+   * @param data fetched data
+   * @param t1 start time
+   * @param t2 end time
+   * @return slice, or null if there's no data in the span
+   */
+  protected abstract T slice(T data, double t1, double t2);
+
+  /**
+   * Join two results, the first earlier than the second.
+   *
+   * @param first earlier data
+   * @param second later data
+   * @return combined data
+   */
+  protected abstract T combine(T first, T second);
+
+  /**
+   * Key for a channel on a source. Copies of a source made for gulpers share their key.
+   *
+   * @param source data source
+   * @param station channel
+   * @return request key
+   */
+  public static String getKey(final SeismicDataSource source, final String station) {
+    return source.getClass().getName() + ":" + source.toConfigString() + ":"
+        + station.replace('$', ' ');
+  }
+
+  /**
+   * Get data, sharing any in-flight fetch.
+   *
+   * @param key request key
+   * @param t1 start time
+   * @param t2 end time
+   * @param fetcher fetches from upstream
+   * @return data or null if there is none
+   */
+  public T get(final String key, final double t1, final double t2, final Fetcher<T> fetcher) {
+    Flight<T> covering = null;
+    Flight<T> overlapping = null;
+    Flight<T> own = null;
+    synchronized (this) {
+      List<Flight<T>> flights = inFlight.get(key);
+      if (flights == null) {
+        flights = new ArrayList<Flight<T>>();
+        inFlight.put(key, flights);
+      }
+      for (final Flight<T> f : flights) {
+        if (f.t1 <= t1 && f.t2 >= t2) {
+          covering = f;
+          break;
+        } else if (overlapping == null && f.t1 < t2 && f.t2 > t1) {
+          overlapping = f;
+        }
+      }
+      if (covering == null && overlapping == null) {
+        own = new Flight<T>(t1, t2);
+        flights.add(own);
+      }
+    }
+
+    if (covering != null) {
+      shared.incrementAndGet();
+      final T data = covering.await();
+      return data == null ? null : slice(data, t1, t2);
+    } else if (overlapping != null) {
+      shared.incrementAndGet();
+      return getAround(key, t1, t2, overlapping, fetcher);
+    }
+
+    fetches.incrementAndGet();
+    T data = null;
+    try {
+      data = fetcher.fetch(t1, t2);
+      return data;
+    } finally {
+      own.complete(data);
+      synchronized (this) {
+        final List<Flight<T>> flights = inFlight.get(key);
+        flights.remove(own);
+        if (flights.isEmpty()) {
+          inFlight.remove(key);
+        }
+      }
+      LOGGER.debug("{} upstream fetches, {} requests shared", fetches.get(), shared.get());
+    }
+  }
+
+  /**
+   * Take the overlap from an in-flight fetch and get the rest either side of it.
+   */
+  private T getAround(final String key, final double t1, final double t2,
+      final Flight<T> overlapping, final Fetcher<T> fetcher) {
+    final T data = overlapping.await();
+    T result = null;
+    if (data != null) {
+      result = slice(data, Math.max(t1, overlapping.t1), Math.min(t2, overlapping.t2));
+    }
+    if (t1 < overlapping.t1) {
+      result = join(get(key, t1, overlapping.t1, fetcher), result);
+    }
+    if (t2 > overlapping.t2) {
+      result = join(result, get(key, overlapping.t2, t2, fetcher));
+    }
+    return result;
+  }
+
+  private T join(final T first, final T second) {
+    if (first == null) {
+      return second;
+    } else if (second == null) {
+      return first;
+    } else {
+      return combine(first, second);
+    }
+  }
+
+  /**
+   * Upstream fetches made.
+   *
+   * @return fetch count
+   */
+  public long getFetchCount() {
+    return fetches.get();
+  }
+
+  /**
+   * Requests answered in whole or part by another request's fetch.
+   *
+   * @return shared request count
+   */
+  public long getSharedCount() {
+    return shared.get();
+  }
+
+  /**
+   * Fetches data from upstream.
+   *
+   * @param <T> data type
+   */
+  public interface Fetcher<T> {
+    /**
+     * Fetch data.
+     *
+     * @param t1 start time
+     * @param t2 end time
+     * @return data or null if there is none
+     */
+    T fetch(double t1, double t2);
+  }
+
+  /**
+   * A fetch in progress.
+   */
+  private static class Flight<T> {
+    private final double t1;
+    private final double t2;
+    private final CountDownLatch done;
+    private volatile T data;
+
+    public Flight(final double t1, final double t2) {
+      this.t1 = t1;
+      this.t2 = t2;
+      done = new CountDownLatch(1);
+    }
+
+    public void complete(final T data) {
+      this.data = data;
+      done.countDown();
+    }
+
+    /**
+     * Wait for the fetch to finish.
+     *
+     * @return fetched data, or null if there was none or the wait was interrupted
+     */
+    public T await() {
+      try {
+        done.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      return data;
+    }
+  }
+}
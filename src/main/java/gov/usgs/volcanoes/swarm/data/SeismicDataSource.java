@@ -3,16 +3,44 @@ package gov.usgs.volcanoes.swarm.data;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.Wave;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.event.EventListenerList;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Base class for seismic data sources.
  * 
  * @author Dan Cervelli
  */
 public abstract class SeismicDataSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeismicDataSource.class);
+
+  /** most single channel requests a batch fans out to at once, over all sources. */
+  private static final int FAN_OUT_THREADS = 8;
+
+  private static final ExecutorService FAN_OUT =
+      Executors.newFixedThreadPool(FAN_OUT_THREADS, new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Batch fetch " + ++count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   protected String name = "Unnamed Data Source";
   protected boolean storeInUserConfig = true;
   protected boolean useCache = true;
@@ -32,6 +60,9 @@ public abstract class SeismicDataSource {
   /**
    * Either returns the wave successfully or null if the data source could not get the wave.
    * 
+   * <p>The wave may be shared with the cache. Treat it as read-only and copy it, with
+   * <code>new Wave(wave)</code>, before filtering or otherwise changing it.
+   * 
    * @param station channel name
    * @param t1 start time in j2k
    * @param t2 end time in j2k
@@ -42,6 +73,112 @@ public abstract class SeismicDataSource {
   public abstract HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl);
 
+  /**
+   * Get a reduced helicorder for drawing long spans, no coarser than the given resolution. The
+   * default implementation reads the summaries of the shared cache, which holds this source's
+   * helicorders when it uses the cache.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param resolution seconds per pixel column
+   * @return helicorder data or null if the full resolution data should be used
+   */
+  public HelicorderData getHelicorderSummary(String station, double t1, double t2,
+      double resolution) {
+    if (!useCache) {
+      return null;
+    }
+    return CachedDataSource.getInstance().getHelicorderSummary(station, t1, t2, resolution);
+  }
+
+  /**
+   * Get waves for several channels over one time span. The default implementation fans out to
+   * {@link #getWave} in parallel; sources which can ask for many channels at once override it.
+   * 
+   * <p>The same sharing rules as for <code>getWave</code> apply to the returned waves.
+   * 
+   * @param stations channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return waves in channel order, without the channels which had no data
+   */
+  public Map<String, Wave> getWaves(final List<String> stations, final double t1,
+      final double t2) {
+    return fanOut(stations, new Request<Wave>() {
+      public Wave get(final String station) {
+        return getWave(station, t1, t2);
+      }
+    });
+  }
+
+  /**
+   * Get helicorders for several channels over one time span. The default implementation fans out
+   * to {@link #getHelicorder} in parallel.
+   * 
+   * @param stations channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param gl gulper listener, shared by every channel
+   * @return helicorders in channel order, without the channels which had no data
+   */
+  public Map<String, HelicorderData> getHelicorders(final List<String> stations,
+      final double t1, final double t2, final GulperListener gl) {
+    return fanOut(stations, new Request<HelicorderData>() {
+      public HelicorderData get(final String station) {
+        return getHelicorder(station, t1, t2, gl);
+      }
+    });
+  }
+
+  /**
+   * Make a single channel request for each channel, in parallel, and collect the results.
+   */
+  private <T> Map<String, T> fanOut(final List<String> stations, final Request<T> request) {
+    final Map<String, T> results = new LinkedHashMap<String, T>();
+    if (stations.size() == 1) {
+      final String station = stations.get(0);
+      final T data = request.get(station);
+      if (data != null) {
+        results.put(station, data);
+      }
+      return results;
+    }
+
+    final List<Future<T>> futures = new ArrayList<Future<T>>(stations.size());
+    for (final String station : stations) {
+      futures.add(FAN_OUT.submit(new Callable<T>() {
+        public T call() {
+          return request.get(station);
+        }
+      }));
+    }
+    for (int i = 0; i < stations.size(); i++) {
+      try {
+        final T data = futures.get(i).get();
+        if (data != null) {
+          results.put(stations.get(i), data);
+        }
+      } catch (final ExecutionException e) {
+        LOGGER.warn("Cannot get data for {}: {}", stations.get(i), e.getCause().toString());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (final Future<T> future : futures) {
+          future.cancel(true);
+        }
+        break;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * A single channel request.
+   */
+  private interface Request<T> {
+    T get(String station);
+  }
+
   public abstract String toConfigString();
 
   protected SeismicDataSource() {
@@ -10,23 +10,30 @@ import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that connects to an Earthworm Wave Server.
  * 
+ * <p>Requests are spread over a pool of connections, four unless the source parameters say
+ * otherwise, so channels are fetched in parallel rather than one at a time.
  *
  * @author Dan Cervelli
  */
 public class WaveServerSource extends SeismicDataSource {
   //private final static Logger LOGGER = LoggerFactory.getLogger(WaveServerSource.class);
 
+  /** connections opened when the parameters don't say. */
+  public static final int DEFAULT_POOL_SIZE = 4;
+
   private String params;
-  private WaveServer waveServer;
+  /** replaced by parse; each request reads it once so it returns what it borrows. */
+  private volatile ConnectionPool<WaveServer> pool;
+  private int poolSize = DEFAULT_POOL_SIZE;
   private int timeout = 2000;
 
   private String server;
@@ -38,7 +45,7 @@ public class WaveServerSource extends SeismicDataSource {
   private TimeZone timeZone;
 
 
-  private static Map<String, Boolean> scnlSources = new HashMap<String, Boolean>();
+  private static Map<String, Boolean> scnlSources = new ConcurrentHashMap<String, Boolean>();
 
   // explicit default constructor required for reflection
   public WaveServerSource() {}
@@ -66,9 +73,33 @@ public class WaveServerSource extends SeismicDataSource {
     if (timeZone == null) {
       timeZone = TimeZone.getTimeZone("UTC");
     }
+    if (ss.length >= 7) {
+      poolSize = Integer.parseInt(ss[6]);
+    }
+
+    final ConnectionPool<WaveServer> old = pool;
+    pool = new ConnectionPool<WaveServer>(poolSize) {
+      @Override
+      protected WaveServer create() {
+        final WaveServer waveServer = new WaveServer(server, port);
+        waveServer.setTimeout(timeout);
+        return waveServer;
+      }
 
-    waveServer = new WaveServer(server, port);
-    setTimeout(timeout);
+      @Override
+      protected boolean check(final WaveServer waveServer, final long idleTime) {
+        return waveServer.isConnected() || waveServer.connect();
+      }
+
+      @Override
+      protected void destroy(final WaveServer waveServer) {
+        waveServer.close();
+      }
+    };
+    // connections to the old server close now, or when their borrowers are done with them
+    if (old != null) {
+      old.retire();
+    }
   }
 
   /**
@@ -77,8 +108,8 @@ public class WaveServerSource extends SeismicDataSource {
    */
   public String toConfigString() {
     String typeString = DataSourceType.getShortName(this.getClass());
-    return String.format("%s;" + typeString + ":%s:%d:%d:%d:%d:%s", name, server, port, timeout,
-        gulpSize, gulpDelay, timeZone.getID());
+    return String.format("%s;" + typeString + ":%s:%d:%d:%d:%d:%s:%d", name, server, port,
+        timeout, gulpSize, gulpDelay, timeZone.getID(), poolSize);
   }
 
   private boolean isScnl(String p) {
@@ -98,17 +129,30 @@ public class WaveServerSource extends SeismicDataSource {
     scnlSources.put(p, b);
   }
 
-  public synchronized void setTimeout(int to) {
-    waveServer.setTimeout(to);
+  /**
+   * Set the connection timeout. Open connections are closed, idle ones now and busy ones once
+   * their request is done, and reopened with the new timeout as needed.
+   * @param to timeout in milliseconds
+   */
+  public void setTimeout(int to) {
+    if (to == timeout) {
+      return;
+    }
+    timeout = to;
+    final ConnectionPool<WaveServer> pool = this.pool;
+    if (pool != null) {
+      pool.reset();
+    }
   }
 
   /**
    * Close data source.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
    */
-  public synchronized void close() {
-    if (waveServer != null) {
-      waveServer.close();
+  public void close() {
+    final ConnectionPool<WaveServer> pool = this.pool;
+    if (pool != null) {
+      pool.close();
     }
   }
 
@@ -116,8 +160,15 @@ public class WaveServerSource extends SeismicDataSource {
    * Get menu.
    * @return menu
    */
-  public synchronized Menu getMenu() {
-    Menu menu = waveServer.getMenuSCNL();
+  public Menu getMenu() {
+    final ConnectionPool<WaveServer> pool = this.pool;
+    WaveServer waveServer = pool.borrow();
+    Menu menu = null;
+    try {
+      menu = waveServer.getMenuSCNL();
+    } finally {
+      pool.release(waveServer, menu == null && !waveServer.isConnected());
+    }
     setIsScnl(params, menu.isSCNL());
     return menu;
   }
@@ -145,39 +196,60 @@ public class WaveServerSource extends SeismicDataSource {
   }
 
   /**
-   * Get wave.
+   * Get wave. Concurrent requests for the same channel share their upstream fetches.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(final String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
     Wave sw = null;
     if (useCache) {
       sw = cache.getWave(station, t1, t2);
     }
     if (sw == null) {
-      String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
-      String[] ss = station.split(seperator);
-      String loc = null;
-      if (isScnl(params)) {
-        loc = "--";
-        if (ss.length == 4) {
-          loc = ss[3];
-        }
+      sw = RequestCoalescer.WAVES.get(RequestCoalescer.getKey(this, station), t1, t2,
+          new RequestCoalescer.Fetcher<Wave>() {
+            public Wave fetch(final double from, final double to) {
+              return fetchWave(station, from, to);
+            }
+          });
+    }
+    return sw;
+  }
+
+  /**
+   * Fetch a wave from the server, on a pooled connection, and cache it.
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
+    String[] ss = station.split(seperator);
+    String loc = null;
+    if (isScnl(params)) {
+      loc = "--";
+      if (ss.length == 4) {
+        loc = ss[3];
       }
-      double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
-      double at1 = Time.j2kToEw(t1) + offset / 1000.0;
-      double at2 = Time.j2kToEw(t2) + offset / 1000.0;
+    }
+    double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
+    double at1 = Time.j2kToEw(t1) + offset / 1000.0;
+    double at2 = Time.j2kToEw(t2) + offset / 1000.0;
+    final ConnectionPool<WaveServer> pool = this.pool;
+    WaveServer waveServer = pool.borrow();
+    Wave sw = null;
+    try {
       sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
-      if (sw == null) {
-        return null;
-      }
-      sw.convertToJ2K();
-      sw.setStartTime(sw.getStartTime() - offset / 1000.0);
-      sw.register();
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
-      }
+    } finally {
+      pool.release(waveServer, sw == null && !waveServer.isConnected());
+    }
+    if (sw == null) {
+      return null;
+    }
+    sw.convertToJ2K();
+    sw.setStartTime(sw.getStartTime() - offset / 1000.0);
+    sw.register();
+    if (useCache) {
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.cacheWaveAsHelicorder(station, sw);
+      cache.putWave(station, sw);
     }
     return sw;
   }
@@ -198,7 +270,7 @@ public class WaveServerSource extends SeismicDataSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder
    * (java.lang.String, double, double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl) {
     double now = J2kSec.now();
     // if a time later than now has been asked for make sure to get the latest
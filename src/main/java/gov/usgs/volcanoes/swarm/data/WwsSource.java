@@ -16,6 +16,7 @@ import gov.usgs.volcanoes.wwsclient.WWSClient;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that communicates with a
@@ -23,11 +24,22 @@ import java.util.List;
  * different helicorder functions. It should probably be made a descendant of
  * WaveServerSource.
  * 
+ * <p>Requests are spread over a pool of clients, four unless the source parameters say otherwise.
+ * Helicorder and RSAM pulls are kept off one of them so a long pull never holds up wave
+ * requests. The pool is published over JMX under the source name.
  * 
  * @author Dan Cervelli
  */
 public class WwsSource extends SeismicDataSource implements RsamSource {
-  private WWSClient winstonClient;
+  /** clients opened when the parameters don't say. */
+  public static final int DEFAULT_POOL_SIZE = 4;
+
+  /** longest a client may sit idle before it is replaced rather than lent, in ms. */
+  public static final long MAX_IDLE = 60 * 1000;
+
+  /** replaced by parse; each request reads it once so it returns what it borrows. */
+  private volatile Clients clients;
+  private int poolSize = DEFAULT_POOL_SIZE;
   private int timeout = 2000;
   private boolean compress = false;
 
@@ -49,8 +61,36 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
     port = Integer.parseInt(ss[1]);
     timeout = Integer.parseInt(ss[2]);
     compress = ss[3].equals("1");
+    if (ss.length >= 5) {
+      poolSize = Integer.parseInt(ss[4]);
+    }
+
+    final ConnectionPool<WWSClient> pool = new ConnectionPool<WWSClient>(poolSize) {
+      @Override
+      protected WWSClient create() {
+        return new WWSClient(server, port, timeout);
+      }
+
+      @Override
+      protected boolean check(final WWSClient client, final long idleTime) {
+        // the client has no connection state to ask; the server drops clients left idle
+        return idleTime < MAX_IDLE;
+      }
 
-    winstonClient = new WWSClient(server, port, timeout);
+      @Override
+      protected void destroy(final WWSClient client) {
+        client.close();
+      }
+    };
+    if (name != null) {
+      pool.register(name);
+    }
+    final Clients old = clients;
+    clients = new Clients(pool);
+    // clients of the old pool close now, or when their borrowers are done with them
+    if (old != null) {
+      old.pool.retire();
+    }
   }
 
   /**
@@ -59,17 +99,52 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
    */
   public String toConfigString() {
     String typeString = DataSourceType.getShortName(this.getClass());
-    return String.format("%s;" + typeString + ":%s:%d:%d:%s", name, server, port, timeout,
-        compress ? "1" : "0");
+    return String.format("%s;" + typeString + ":%s:%d:%d:%s:%d", name, server, port, timeout,
+        compress ? "1" : "0", poolSize);
   }
 
   /**
-   * Close Winston client connection.
+   * Close idle Winston client connections.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
    */
-  public synchronized void close() {
-    if (winstonClient != null) {
-      winstonClient.close();
+  public void close() {
+    final Clients clients = this.clients;
+    if (clients != null) {
+      clients.pool.close();
+    }
+  }
+
+  /**
+   * A client pool and the permits keeping helicorder and RSAM pulls off one of its clients.
+   * Replaced together, so a request returns its client to the pool it came from.
+   */
+  private static class Clients {
+    private final ConnectionPool<WWSClient> pool;
+    private final Semaphore bulkPermits;
+
+    private Clients(final ConnectionPool<WWSClient> pool) {
+      this.pool = pool;
+      // leave one client for waves when there's more than one
+      bulkPermits = new Semaphore(Math.max(1, pool.getSize() - 1), true);
+    }
+
+    /**
+     * Borrow a client for a helicorder or RSAM pull, waiting while the others are all in such
+     * pulls.
+     */
+    private WWSClient borrowForBulk() {
+      bulkPermits.acquireUninterruptibly();
+      try {
+        return pool.borrow();
+      } catch (RuntimeException e) {
+        bulkPermits.release();
+        throw e;
+      }
+    }
+
+    private void releaseFromBulk(WWSClient client, boolean broken) {
+      pool.release(client, broken);
+      bulkPermits.release();
     }
   }
 
@@ -101,37 +176,59 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
   }
 
   /**
-   * Get wave data.
+   * Get wave data. Concurrent requests for the same channel share their upstream fetches.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String,
    *      double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(final String station, double t1, double t2) {
     Wave wave = null;
     if (useCache) {
       CachedDataSource cache = CachedDataSource.getInstance();
       wave = cache.getWave(station, t1, t2);
     }
     if (wave == null) {
-      String delimiter = station.indexOf("$") == -1 ? " " : "$";
-      Scnl scnl;
+      wave = RequestCoalescer.WAVES.get(RequestCoalescer.getKey(this, station), t1, t2,
+          new RequestCoalescer.Fetcher<Wave>() {
+            public Wave fetch(final double from, final double to) {
+              return fetchWave(station, from, to);
+            }
+          });
+    }
+    return wave;
+  }
+
+  /**
+   * Fetch a wave from the server, on a pooled client, and cache it.
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    Wave wave = null;
+    String delimiter = station.indexOf("$") == -1 ? " " : "$";
+    Scnl scnl;
+    try {
+      scnl = Scnl.parse(station, delimiter);
+      TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
+      final Clients clients = this.clients;
+      WWSClient client = clients.pool.borrow();
+      boolean broken = true;
       try {
-        scnl = Scnl.parse(station, delimiter);
-        TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        wave = winstonClient.getWave(scnl, timeSpan, compress);
-      } catch (UtilException e) {
-        System.err.println("WWSSource.getWave: Cannot parse station " + station);
+        wave = client.getWave(scnl, timeSpan, compress);
+        broken = false;
+      } finally {
+        clients.pool.release(client, broken);
       }
+    } catch (UtilException e) {
+      System.err.println("WWSSource.getWave: Cannot parse station " + station);
+    }
 
-      if (wave == null) {
-        return null;
-      }
+    if (wave == null) {
+      return null;
+    }
 
-      wave.register();
-      if (useCache) {
-        CachedDataSource cache = CachedDataSource.getInstance();
-        cache.putWave(station, wave);
-      }
-    } 
+    wave.register();
+    if (useCache) {
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.putWave(station, wave);
+    }
     return wave;
   }
 
@@ -140,14 +237,11 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.RsamSource#getRsam(java.lang.String,
    *      double, double, int)
    */
-  public synchronized RSAMData getRsam(String station, double t1, double t2, int period) {
+  public RSAMData getRsam(String station, double t1, double t2, int period) {
     RSAMData rsamData = null;
     if (useCache) {
       CachedDataSource cache = CachedDataSource.getInstance();
       rsamData = cache.getRsam(station, t1, t2, period);
-      if (rsamData != null) {
-        System.out.println("found in cache");
-      }
     }
 
     if (rsamData == null) {
@@ -155,8 +249,15 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
       try {
         Scnl scnl = Scnl.parse(station, delimiter);
         TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        rsamData =
-            winstonClient.getRSAMData(scnl, timeSpan, period, compress);
+        final Clients clients = this.clients;
+        WWSClient client = clients.borrowForBulk();
+        boolean broken = true;
+        try {
+          rsamData = client.getRSAMData(scnl, timeSpan, period, compress);
+          broken = false;
+        } finally {
+          clients.releaseFromBulk(client, broken);
+        }
       } catch (UtilException e) {
         System.err.println("WWSSource.getRsam: Cannot parse station " + station);
       }
@@ -175,44 +276,67 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
   }
 
   /**
-   * Get helicorder data.
+   * Get helicorder data. Concurrent requests for the same channel share their upstream fetches.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String,
    *      double, double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(final String station, double t1, double t2,
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
       GulperListener gl) {
        
     CachedDataSource cache = CachedDataSource.getInstance();
 
     HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
     if (hd == null) {
-      String delimiter = station.indexOf("$") == -1 ? " " : "$";
-     
-      Scnl scnl;
+      hd = RequestCoalescer.HELICORDERS.get(RequestCoalescer.getKey(this, station), t1, t2,
+          new RequestCoalescer.Fetcher<HelicorderData>() {
+            public HelicorderData fetch(final double from, final double to) {
+              return fetchHelicorder(station, from, to);
+            }
+          });
+    }
+    return hd;
+  }
+
+  /**
+   * Fetch a helicorder from the server, on a pooled client, and cache all but the latest rows.
+   */
+  private HelicorderData fetchHelicorder(final String station, double t1,
+      double t2) {
+    HelicorderData hd = null;
+    String delimiter = station.indexOf("$") == -1 ? " " : "$";
+
+    Scnl scnl;
+    try {
+      scnl = Scnl.parse(station, delimiter);
+      fireHelicorderProgress(station, -1);
+      // winstonClient.setReadListener(new ReadListener() {
+      // public void readProgress(double p) {
+      // fireHelicorderProgress(station, p);
+      // }
+      // });
+      TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
+      final Clients clients = this.clients;
+      WWSClient client = clients.borrowForBulk();
+      boolean broken = true;
       try {
-        scnl = Scnl.parse(station, delimiter);
-        fireHelicorderProgress(station, -1);
-        // winstonClient.setReadListener(new ReadListener() {
-        // public void readProgress(double p) {
-        // fireHelicorderProgress(station, p);
-        // }
-        // });
-        TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        hd = winstonClient.getHelicorder(scnl, timeSpan, compress);
-        // winstonClient.setReadListener(null);
-        fireHelicorderProgress(station, 1.0);
-      } catch (UtilException e) {
-        System.err.println("WWSSource.getHelicorder: Cannot parse SCNL '" + station + "'.");
+        hd = client.getHelicorder(scnl, timeSpan, compress);
+        broken = false;
+      } finally {
+        clients.releaseFromBulk(client, broken);
       }
+      // winstonClient.setReadListener(null);
+      fireHelicorderProgress(station, 1.0);
+    } catch (UtilException e) {
+      System.err.println("WWSSource.getHelicorder: Cannot parse SCNL '" + station + "'.");
+    }
 
-      if (hd != null && hd.rows() != 0) {
-        HelicorderData noLatest = hd.subset(hd.getStartTime(), J2kSec.now() - 30);
-        if (noLatest != null && noLatest.rows() > 0) {
-          cache.putHelicorder(station, noLatest);
-        }
-      } else {
-        hd = null;
+    if (hd != null && hd.rows() != 0) {
+      HelicorderData noLatest = hd.subset(hd.getStartTime(), J2kSec.now() - 30);
+      if (noLatest != null && noLatest.rows() > 0) {
+        CachedDataSource.getInstance().putHelicorder(station, noLatest);
       }
+    } else {
+      hd = null;
     }
     return hd;
   }
@@ -221,8 +345,17 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
    * Get list of channels.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
    */
-  public synchronized List<String> getChannels() {
-    List<Channel> channels = winstonClient.getChannels(true);
+  public List<String> getChannels() {
+    List<Channel> channels;
+    final Clients clients = this.clients;
+    WWSClient client = clients.pool.borrow();
+    boolean broken = true;
+    try {
+      channels = client.getChannels(true);
+      broken = false;
+    } finally {
+      clients.pool.release(client, broken);
+    }
     List<String> channelNames = new ArrayList<String>(channels.size());
     SwarmConfig swarmConfig = SwarmConfig.getInstance();
 
@@ -47,7 +47,9 @@ public abstract class AbstractDataRecordClient {
    * @return the list of waves.
    * @throws UnsupportedCompressionType
    * @throws CodecException
+   * @deprecated makes a wave per record; use {@link MiniSeedAssembler}
    */
+  @Deprecated
   public static List<Wave> addWaves(final List<Wave> waves, final DataRecord dr)
       throws UnsupportedCompressionType, CodecException {
     for (Blockette blockette : dr.getBlockettes(1000)) {
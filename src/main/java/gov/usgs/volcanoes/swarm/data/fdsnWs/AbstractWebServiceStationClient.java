@@ -16,6 +16,7 @@ import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public abstract class AbstractWebServiceStationClient {
   /** The station service output level. */
@@ -131,6 +132,18 @@ public abstract class AbstractWebServiceStationClient {
   /** The network list. */
   private List<String> networkList;
 
+  /** Only return metadata changed after this date, or null for all. */
+  private Date updatedAfter;
+
+  /** If-Modified-Since value to send, or null if none. */
+  private String ifModifiedSince;
+
+  /** Last-Modified value of the last response, or null if none. */
+  private String lastModified;
+
+  /** True if the last fetch found nothing changed. */
+  private boolean notModified;
+
   /**
    * Create the web service station client.
    * 
@@ -298,9 +311,22 @@ public abstract class AbstractWebServiceStationClient {
   protected void fetch() throws Exception {
     final URL url = getUrl();
     final URLConnection urlConn = url.openConnection();
+    notModified = false;
+    lastModified = null;
     if (urlConn instanceof HttpURLConnection) {
       conn = (HttpURLConnection) urlConn;
-      if (conn.getResponseCode() != 200) { // if response not OK
+      conn.setRequestProperty("Accept-Encoding", "gzip");
+      if (ifModifiedSince != null) {
+        conn.setRequestProperty("If-Modified-Since", ifModifiedSince);
+      }
+      final int code = conn.getResponseCode();
+      lastModified = conn.getHeaderField("Last-Modified");
+      if (code == HttpURLConnection.HTTP_NOT_MODIFIED
+          || (code == HttpURLConnection.HTTP_NO_CONTENT && updatedAfter != null)) {
+        // nothing changed since the last fetch
+        notModified = true;
+        return;
+      } else if (code != 200) { // if response not OK
         /*
          * final BufferedReader errorReader =
          * new BufferedReader(new InputStreamReader(conn.getErrorStream()));
@@ -443,12 +469,45 @@ public abstract class AbstractWebServiceStationClient {
   public BufferedReader getReader() throws IOException {
     BufferedReader reader = this.reader;
     if (reader == null) {
-      reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+      reader = new BufferedReader(new InputStreamReader(getInputStream()));
       this.reader = reader;
     }
     return reader;
   }
 
+  /**
+   * Get the response body, uncompressed.
+   * 
+   * @return the input stream.
+   * @throws IOException if an I/O Exception occurs.
+   */
+  protected InputStream getInputStream() throws IOException {
+    final InputStream in = conn.getInputStream();
+    if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+      return new GZIPInputStream(in);
+    }
+    return in;
+  }
+
+  /**
+   * Get the Last-Modified value of the last response.
+   * 
+   * @return the last modified text or null if none.
+   */
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Determines if the last fetch found nothing changed, either because the server answered
+   * not modified or because nothing was updated after the updated after date.
+   * 
+   * @return true if nothing changed.
+   */
+  public boolean isNotModified() {
+    return notModified;
+  }
+
   /**
    * Get the station list.
    * 
@@ -493,6 +552,7 @@ public abstract class AbstractWebServiceStationClient {
     urlText = append(urlText, "location", loc);
     urlText = append(urlText, "channel", chan);
     urlText = append(urlText, startTimeText, date);
+    urlText = append(urlText, "updatedafter", updatedAfter);
     return urlText;
   }
 
@@ -586,6 +646,24 @@ public abstract class AbstractWebServiceStationClient {
     currentStation = station;
   }
 
+  /**
+   * Set the If-Modified-Since value to send with requests.
+   * 
+   * @param ifModifiedSince the HTTP date text or null if none.
+   */
+  public void setIfModifiedSince(String ifModifiedSince) {
+    this.ifModifiedSince = ifModifiedSince;
+  }
+
+  /**
+   * Only fetch metadata updated after the specified date.
+   * 
+   * @param updatedAfter the date or null for all metadata.
+   */
+  public void setUpdatedAfter(Date updatedAfter) {
+    this.updatedAfter = updatedAfter;
+  }
+
   /**
    * Set the output level.
    * 
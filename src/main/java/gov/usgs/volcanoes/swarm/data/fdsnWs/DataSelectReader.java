@@ -12,6 +12,8 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -19,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +31,28 @@ import org.slf4j.LoggerFactory;
  * on the edu.sc.seis.seisFile.dataSelectWS.DataSelectReader class with minor
  * changes for Swarm.
  * 
+ * <p>Responses are requested gzipped and read to the end, so the JVM keeps the HTTP connection
+ * alive for the next request to the same server. Multi-channel requests are sent as bulk POSTs.
+ * 
  * @author Kevin Frechette (ISTI)
  */
 public class DataSelectReader extends StringMSeedQueryReader {
   private static final Logger LOGGER = LoggerFactory.getLogger(DataSelectReader.class);
 
+  /** The query date format, one per thread as SimpleDateFormat isn't thread safe. */
+  private static final ThreadLocal<SimpleDateFormat> QUERY_DATE_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+          format.setTimeZone(TimeZone.getTimeZone("GMT"));
+          return format;
+        }
+      };
+
+  /** Size of the buffer records are read through. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   /** The timeout in milliseconds. */
   protected int timeoutMillis;
   /** The URL base. */
@@ -114,13 +134,36 @@ public class DataSelectReader extends StringMSeedQueryReader {
       Date begin, Date end) {
     String query;
     query = createQuery(network, station, location, channel);
-    SimpleDateFormat longFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-    longFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-    query += "&start=" + longFormat.format(begin);
-    query += "&end=" + longFormat.format(end);
+    query += "&start=" + formatDate(begin);
+    query += "&end=" + formatDate(end);
     return query;
   }
 
+  /**
+   * Create one line of a bulk POST request. All arguments must be provided.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location or empty for the empty location code.
+   * @param channel the channel.
+   * @param begin the begin date.
+   * @param end the end date.
+   * @return the request line, without a line terminator.
+   * @see #readBulk(String, List)
+   */
+  public static String createBulkLine(String network, String station, String location,
+      String channel, Date begin, Date end) {
+    if (location == null || location.trim().length() == 0) {
+      location = WebServiceUtils.EMPTY_LOC_CODE;
+    }
+    return network + " " + station + " " + location + " " + channel + " " + formatDate(begin)
+        + " " + formatDate(end);
+  }
+
+  private static String formatDate(Date date) {
+    return QUERY_DATE_FORMAT.get().format(date);
+  }
+
   /**
    * Get the timeout in milliseconds.
    * 
@@ -185,43 +228,106 @@ public class DataSelectReader extends StringMSeedQueryReader {
   public List<DataRecord> read(String query, List<DataRecord> records)
       throws IOException, SeisFileException {
     URL requestURL = new URL(urlBase + "?" + query);
-    HttpURLConnection conn = (HttpURLConnection) requestURL.openConnection();
+    HttpURLConnection conn = openConnection(requestURL);
+    conn.connect();
+    return read(conn, records);
+  }
+
+  /**
+   * Read the data records for a bulk request, one line per channel and time span.
+   * 
+   * @param request the request lines.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK response code.
+   * @see #createBulkLine(String, String, String, String, Date, Date)
+   */
+  public List<DataRecord> readBulk(String request, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    HttpURLConnection conn = openConnection(new URL(urlBase));
+    conn.setRequestMethod("POST");
+    conn.setDoOutput(true);
+    conn.setRequestProperty("Content-Type", "text/plain");
+    final byte[] body = request.getBytes("UTF-8");
+    conn.setFixedLengthStreamingMode(body.length);
+    OutputStream out = conn.getOutputStream();
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+    return read(conn, records);
+  }
+
+  private HttpURLConnection openConnection(URL url) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
     if (timeoutMillis != 0) {
+      conn.setConnectTimeout(timeoutMillis);
       conn.setReadTimeout(timeoutMillis);
     }
     conn.setRequestProperty("User-Agent", userAgent);
-    conn.connect();
-    if (conn.getResponseCode() != 200) {
-      if (conn.getResponseCode() == 404) {
-        LOGGER.info("reponse code 404, no data");
+    conn.setRequestProperty("Accept-Encoding", "gzip");
+    return conn;
+  }
+
+  private List<DataRecord> read(HttpURLConnection conn, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    final int code = conn.getResponseCode();
+    if (code != 200) {
+      // read the body anyway so the connection can be reused
+      drain(conn.getErrorStream());
+      if (code == 204 || code == 404) {
+        LOGGER.info("reponse code {}, no data", code);
         return records;
       } else {
-        throw new SeisFileException("Did not get an OK repsonse code (code="
-            + conn.getResponseCode() + ", url=" + requestURL + "\"");
+        throw new SeisFileException("Did not get an OK repsonse code (code=" + code + ", url="
+            + conn.getURL() + "\"");
       }
     }
-    BufferedInputStream bif = new BufferedInputStream(conn.getInputStream());
-    DataInputStream in = new DataInputStream(bif);
-    while (true) {
-      try {
-        SeedRecord sr = SeedRecord.read(in);
-        if (sr instanceof DataRecord) {
-          if (processRecord((DataRecord) sr) && records != null) {
-            records.add((DataRecord) sr);
+    InputStream is = conn.getInputStream();
+    if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+      is = new GZIPInputStream(is, BUFFER_SIZE);
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+    try {
+      while (true) {
+        try {
+          SeedRecord sr = SeedRecord.read(in);
+          if (sr instanceof DataRecord) {
+            if (processRecord((DataRecord) sr) && records != null) {
+              records.add((DataRecord) sr);
+            }
+          } else {
+            LOGGER.warn("Not a data record, skipping... {} {}",
+                sr.getControlHeader().getSequenceNum(), sr.getControlHeader().getTypeCode());
           }
-        } else {
-          LOGGER.warn("Not a data record, skipping... {} {}",
-              sr.getControlHeader().getSequenceNum(), sr.getControlHeader().getTypeCode());
+        } catch (EOFException e) {
+          // end of data?
+          break;
         }
-      } catch (EOFException e) {
-        // end of data?
-        break;
       }
+    } finally {
+      in.close();
     }
-    in.close();
     return records;
   }
 
+  private static void drain(InputStream is) {
+    if (is == null) {
+      return;
+    }
+    try {
+      final byte[] buffer = new byte[4096];
+      while (is.read(buffer) != -1) {
+        // discard
+      }
+      is.close();
+    } catch (IOException e) {
+      // the connection won't be reused
+    }
+  }
+
   /**
    * Set the timeout in milliseconds.
    * 
@@ -0,0 +1,315 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.fdsnWs;
+
+import edu.iris.dmc.seedcodec.Codec;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.iris.dmc.seedcodec.UnsupportedCompressionType;
+import edu.sc.seis.seisFile.mseed.Blockette;
+import edu.sc.seis.seisFile.mseed.Blockette1000;
+import edu.sc.seis.seisFile.mseed.Btime;
+import edu.sc.seis.seisFile.mseed.DataHeader;
+import edu.sc.seis.seisFile.mseed.DataRecord;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds waves from a stream of miniSEED data records. Each record is decoded straight onto the
+ * end of a growing sample buffer for its channel, so an hour of data makes one wave rather than
+ * hundreds of record sized waves joined at the end.
+ *
+ * <p>A record which starts within half a sample of where its channel's data ends continues the
+ * current segment. A record which repeats data already assembled is dropped, or trimmed to where
+ * the data ends. Anything else, a gap, a record from before the segment or a change of sampling
+ * rate, closes the segment and starts a new one.
+ *
+ * <p>A channel with a record which couldn't be decoded is marked failed; its waves have a hole
+ * and shouldn't be taken as the data for the span.
+ *
+ * <p>Not thread safe; feed records from one thread, then take the waves once the stream ends.
+ */
+public class MiniSeedAssembler {
+  /** j2k of the Unix epoch. */
+  private static final double EPOCH_J2K = J2kSec.fromEpoch(0L);
+
+  private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+  /** smallest buffer allocated for a new segment. */
+  private static final int MIN_CAPACITY = 4096;
+
+  /**
+   * largest buffer allocated up front for a new segment, about three hours at 100 Hz. A long
+   * request with a gap, or a short answer, mustn't cost the whole span; append grows it.
+   */
+  private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+
+  private final Codec codec;
+  private final double expectedEnd;
+  private final Map<String, ChannelAssembler> channels;
+  private final Set<String> failed;
+
+  /**
+   * Constructor.
+   */
+  public MiniSeedAssembler() {
+    this(Double.NaN);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param expectedEnd end of the requested span in j2k, used to size buffers; NaN if unknown
+   */
+  public MiniSeedAssembler(final double expectedEnd) {
+    this.expectedEnd = expectedEnd;
+    codec = new Codec();
+    channels = new LinkedHashMap<String, ChannelAssembler>();
+    failed = new HashSet<String>();
+  }
+
+  /**
+   * Decode a record and add its samples.
+   *
+   * @param dr data record
+   * @throws UnsupportedCompressionType if the encoding isn't supported
+   * @throws CodecException if the data can't be decoded
+   */
+  public void add(final DataRecord dr) throws UnsupportedCompressionType, CodecException {
+    final DataHeader dh = dr.getHeader();
+    final int numSamples = dh.getNumSamples();
+    final double samplingRate = dh.getSampleRate();
+    if (numSamples <= 0 || samplingRate <= 0) {
+      return;
+    }
+    for (final Blockette blockette : dr.getBlockettes(1000)) {
+      if (blockette instanceof Blockette1000) {
+        final Blockette1000 b1000 = (Blockette1000) blockette;
+        final String channel = getChannel(dh);
+        final int[] samples;
+        try {
+          samples = codec.decompress(b1000.getEncodingFormat(), dr.getData(), numSamples,
+              b1000.getWordOrder() == 0).getAsInt();
+        } catch (UnsupportedCompressionType e) {
+          failed.add(channel);
+          throw e;
+        } catch (CodecException e) {
+          failed.add(channel);
+          throw e;
+        }
+        ChannelAssembler assembler = channels.get(channel);
+        if (assembler == null) {
+          assembler = new ChannelAssembler();
+          channels.put(channel, assembler);
+        }
+        assembler.add(toJ2k(dh.getStartBtime()), samplingRate, samples);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Whether a record for a channel couldn't be decoded.
+   *
+   * @param channel channel name, $ delimited
+   * @return true if the channel's data has a hole
+   */
+  public boolean isFailed(final String channel) {
+    return failed.contains(channel);
+  }
+
+  /**
+   * Whether any record couldn't be decoded.
+   *
+   * @return true if some channel's data has a hole
+   */
+  public boolean isFailed() {
+    return !failed.isEmpty();
+  }
+
+  /**
+   * Channels seen so far, in the order their first records arrived.
+   *
+   * @return channel names, $ delimited
+   */
+  public List<String> getChannels() {
+    return new ArrayList<String>(channels.keySet());
+  }
+
+  /**
+   * Continuous segments assembled for a channel.
+   *
+   * @param channel channel name, $ delimited
+   * @return waves in time order, empty if there was no data
+   */
+  public List<Wave> getSegments(final String channel) {
+    final ChannelAssembler assembler = channels.get(channel);
+    if (assembler == null) {
+      return Collections.emptyList();
+    }
+    return assembler.getSegments();
+  }
+
+  /**
+   * All data for a channel as one wave, gaps filled with no data.
+   *
+   * @param channel channel name, $ delimited
+   * @return wave or null if there was no data
+   */
+  public Wave getWave(final String channel) {
+    return join(getSegments(channel));
+  }
+
+  /**
+   * All data received as one wave, for requests made for a single channel.
+   *
+   * @return wave or null if there was no data
+   */
+  public Wave getWave() {
+    final List<Wave> segments = new ArrayList<Wave>();
+    for (final ChannelAssembler assembler : channels.values()) {
+      segments.addAll(assembler.getSegments());
+    }
+    sort(segments);
+    return join(segments);
+  }
+
+  private static Wave join(final List<Wave> segments) {
+    if (segments.isEmpty()) {
+      return null;
+    } else if (segments.size() == 1) {
+      return segments.get(0);
+    } else {
+      return Wave.join(segments);
+    }
+  }
+
+  private static void sort(final List<Wave> waves) {
+    Collections.sort(waves, new Comparator<Wave>() {
+      public int compare(final Wave a, final Wave b) {
+        return Double.compare(a.getStartTime(), b.getStartTime());
+      }
+    });
+  }
+
+  /**
+   * Swarm channel name for a record, station$channel$network[$location].
+   */
+  private static String getChannel(final DataHeader dh) {
+    return getChannel(dh.getStationIdentifier(), dh.getChannelIdentifier(), dh.getNetworkCode(),
+        dh.getLocationIdentifier());
+  }
+
+  /**
+   * Channel name as the assembler keys it, station$channel$network[$location].
+   *
+   * @param station station code
+   * @param channel channel code
+   * @param network network code
+   * @param location location code, blank or -- if none
+   * @return channel name
+   */
+  static String getChannel(final String station, final String channel, final String network,
+      final String location) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(station.trim()).append('$');
+    sb.append(channel.trim()).append('$');
+    sb.append(network.trim());
+    final String loc = location == null ? "" : location.trim();
+    if (loc.length() > 0 && !loc.equals(WebServiceUtils.EMPTY_LOC_CODE)) {
+      sb.append('$').append(loc);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Convert a record start time to j2k without going through a Calendar.
+   */
+  static double toJ2k(final Btime btime) {
+    final int year = btime.getYear();
+    // days from 1970 to the start of the year, counting leap days
+    final long days = 365L * (year - 1970) + (year - 1969) / 4 - (year - 1901) / 100
+        + (year - 1601) / 400 + btime.getDayOfYear() - 1;
+    final long seconds =
+        days * SECONDS_PER_DAY + btime.getHour() * 3600 + btime.getMin() * 60 + btime.getSec();
+    return EPOCH_J2K + seconds + btime.getTenthMilli() / 10000.0;
+  }
+
+  /**
+   * Segments for one channel; the last one is still growing.
+   */
+  private class ChannelAssembler {
+    private final List<Wave> closed = new ArrayList<Wave>();
+    private int[] buffer;
+    private int count;
+    private double startTime;
+    private double samplingRate;
+
+    public void add(final double time, final double rate, final int[] samples) {
+      if (count > 0 && rate == samplingRate) {
+        final double period = 1 / samplingRate;
+        final double end = startTime + count * period;
+        final double offset = (time - end) * samplingRate;
+        if (offset <= 0.5 && time >= startTime - period / 2) {
+          // continues the segment, possibly repeating its last samples
+          final long repeated = Math.max(0, Math.round(-offset));
+          if (repeated < samples.length) {
+            append(samples, (int) repeated);
+          }
+          return;
+        }
+      }
+      close();
+      startTime = time;
+      samplingRate = rate;
+      int capacity = Math.max(MIN_CAPACITY, samples.length);
+      if (!Double.isNaN(expectedEnd) && expectedEnd > time) {
+        capacity = (int) Math.max(capacity,
+            Math.min(MAX_INITIAL_CAPACITY, Math.ceil((expectedEnd - time) * rate) + 1));
+      }
+      buffer = new int[capacity];
+      append(samples, 0);
+    }
+
+    private void append(final int[] samples, final int from) {
+      final int length = samples.length - from;
+      if (count + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(count + length, buffer.length * 2));
+      }
+      System.arraycopy(samples, from, buffer, count, length);
+      count += length;
+    }
+
+    private void close() {
+      if (count > 0) {
+        final int[] samples = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+        final Wave wave = new Wave(samples, startTime, samplingRate);
+        wave.register();
+        closed.add(wave);
+      }
+      buffer = null;
+      count = 0;
+    }
+
+    public List<Wave> getSegments() {
+      close();
+      final List<Wave> segments = new ArrayList<Wave>(closed);
+      sort(segments);
+      return segments;
+    }
+  }
+}
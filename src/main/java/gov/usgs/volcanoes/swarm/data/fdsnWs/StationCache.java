@@ -0,0 +1,263 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.fdsnWs;
+
+import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.GroupsType;
+import gov.usgs.volcanoes.swarm.StationInfo;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On disk cache of the channels a station service returned for a set of filters, so a web
+ * services source opens without waiting for the station service.
+ *
+ * <p>Each entry is a UTF-8 text file named for a hash of its key. The file starts with
+ * "key", "updated" and "lastModified" lines, followed by one tab separated line per channel:
+ * network, station, location, channel, latitude, longitude, elevation and site name. Files are
+ * replaced whole, so a reader never sees a partly written entry.
+ */
+public class StationCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(StationCache.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String SUFFIX = ".txt";
+  private static final String KEY = "key";
+  private static final String UPDATED = "updated";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final int COLUMNS = 8;
+
+  private static StationCache instance;
+
+  private final File dir;
+
+  /**
+   * Constructor.
+   *
+   * @param dir cache directory
+   */
+  public StationCache(final File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Get the cache kept under the disk cache path.
+   *
+   * @return station cache
+   */
+  public static synchronized StationCache getInstance() {
+    if (instance == null) {
+      instance = new StationCache(new File(SwarmConfig.getInstance().diskCachePath, "stations"));
+    }
+    return instance;
+  }
+
+  /**
+   * Get the key for a station service and filters.
+   *
+   * @param url station service URL
+   * @param net the network filter or null if none
+   * @param sta the station filter or null if none
+   * @param loc the location filter or null if none
+   * @param chan the channel filter or null if none
+   * @return key
+   */
+  public static String getKey(final String url, final String net, final String sta,
+      final String loc, final String chan) {
+    final StringBuilder sb = new StringBuilder(url);
+    for (final String filter : new String[] {net, sta, loc, chan}) {
+      sb.append('|');
+      if (filter != null) {
+        sb.append(filter);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Read an entry.
+   *
+   * @param key entry key
+   * @param groupsType groups type of the channels
+   * @return entry or null if there's none or it can't be read
+   */
+  public Entry read(final String key, final GroupsType groupsType) {
+    final File file = getFile(key);
+    if (!file.canRead()) {
+      return null;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      if (!key.equals(readHeader(reader, KEY))) {
+        return null;
+      }
+      final long updated = Long.parseLong(readHeader(reader, UPDATED));
+      String lastModified = readHeader(reader, LAST_MODIFIED);
+      if (lastModified.length() == 0) {
+        lastModified = null;
+      }
+      final List<ChannelInfo> channels = new ArrayList<ChannelInfo>();
+      for (String line; (line = reader.readLine()) != null;) {
+        final String[] ss = line.split("\t", -1);
+        if (ss.length != COLUMNS) {
+          LOGGER.warn("Skipping bad line in station cache {}: {}", file, line);
+          continue;
+        }
+        channels.add(new ChannelGroupInfo(ss[1], ss[3], ss[0], ss[2],
+            StationInfo.parseDouble(ss[4]), StationInfo.parseDouble(ss[5]),
+            StationInfo.parseDouble(ss[6]), ss[7].length() == 0 ? null : ss[7], groupsType));
+      }
+      return new Entry(updated, lastModified, channels);
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read station cache {}: {}", file, e.getMessage());
+    } catch (final RuntimeException e) {
+      LOGGER.warn("Cannot parse station cache {}: {}", file, e.getMessage());
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (final IOException ignore) {
+          // ignore
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String readHeader(final BufferedReader reader, final String name)
+      throws IOException {
+    final String line = reader.readLine();
+    if (line == null || !line.startsWith(name + "\t")) {
+      throw new IOException("missing " + name);
+    }
+    return line.substring(name.length() + 1);
+  }
+
+  /**
+   * Write an entry, replacing any with the same key.
+   *
+   * @param key entry key
+   * @param entry entry
+   */
+  public void write(final String key, final Entry entry) {
+    dir.mkdirs();
+    final File file = getFile(key);
+    BufferedWriter writer = null;
+    File temp = null;
+    try {
+      temp = File.createTempFile("stations", SUFFIX, dir);
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+      writer.write(KEY + "\t" + key + "\n");
+      writer.write(UPDATED + "\t" + entry.getUpdated() + "\n");
+      writer.write(LAST_MODIFIED + "\t"
+          + (entry.getLastModified() == null ? "" : entry.getLastModified()) + "\n");
+      for (final ChannelInfo ch : entry.getChannels()) {
+        writer.write(clean(ch.getNetwork()) + "\t" + clean(ch.getStation()) + "\t"
+            + clean(ch.getLocation()) + "\t" + clean(ch.getChannel()) + "\t" + ch.getLatitude()
+            + "\t" + ch.getLongitude() + "\t" + ch.getHeight() + "\t" + clean(ch.getSiteName())
+            + "\n");
+      }
+      writer.close();
+      writer = null;
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      temp = null;
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot write station cache {}: {}", file, e.getMessage());
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (final IOException ignore) {
+          // ignore
+        }
+      }
+      if (temp != null && !temp.delete()) {
+        temp.deleteOnExit();
+      }
+    }
+  }
+
+  private static String clean(final String s) {
+    return s == null ? "" : s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private File getFile(final String key) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+      final StringBuilder sb = new StringBuilder();
+      for (final byte b : digest) {
+        sb.append(String.format("%02x", b));
+      }
+      return new File(dir, sb.append(SUFFIX).toString());
+    } catch (final NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (final UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Channels cached for a key.
+   */
+  public static class Entry {
+    private final long updated;
+    private final String lastModified;
+    private final List<ChannelInfo> channels;
+
+    /**
+     * Constructor.
+     *
+     * @param updated time of the request the channels are current as of, in ms
+     * @param lastModified Last-Modified value the station service sent, or null if none
+     * @param channels channels
+     */
+    public Entry(final long updated, final String lastModified,
+        final List<ChannelInfo> channels) {
+      this.updated = updated;
+      this.lastModified = lastModified;
+      this.channels = channels;
+    }
+
+    /**
+     * Time of the request the channels are current as of.
+     *
+     * @return time in ms
+     */
+    public long getUpdated() {
+      return updated;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    public List<ChannelInfo> getChannels() {
+      return channels;
+    }
+  }
+}
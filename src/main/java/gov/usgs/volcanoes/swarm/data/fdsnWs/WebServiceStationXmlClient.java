@@ -1,12 +1,8 @@
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
-import edu.sc.seis.seisFile.fdsnws.stationxml.Channel;
 import edu.sc.seis.seisFile.fdsnws.stationxml.FDSNStationXML;
 import edu.sc.seis.seisFile.fdsnws.stationxml.Network;
 import edu.sc.seis.seisFile.fdsnws.stationxml.NetworkIterator;
-import edu.sc.seis.seisFile.fdsnws.stationxml.Station;
-import edu.sc.seis.seisFile.fdsnws.stationxml.StationIterator;
-import edu.sc.seis.seisFile.fdsnws.stationxml.StationXMLException;
 import edu.sc.seis.seisFile.fdsnws.stationxml.StationXMLTagNames;
 
 import gov.usgs.volcanoes.swarm.StationInfo;
@@ -18,6 +14,9 @@ import java.util.List;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
 
 import org.slf4j.Logger;
@@ -27,6 +26,19 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
 
   private final static Logger LOGGER = LoggerFactory.getLogger(WebServiceStationXmlClient.class);
 
+  private static final String ROOT_TAG = "FDSNStationXML";
+  private static final String SCHEMA_VERSION_ATTR = "schemaVersion";
+  private static final String NETWORK_TAG = "Network";
+  private static final String STATION_TAG = "Station";
+  private static final String CHANNEL_TAG = "Channel";
+  private static final String CODE_ATTR = "code";
+  private static final String LOCATION_CODE_ATTR = "locationCode";
+  private static final String LATITUDE_TAG = "Latitude";
+  private static final String LONGITUDE_TAG = "Longitude";
+  private static final String ELEVATION_TAG = "Elevation";
+  private static final String SITE_TAG = "Site";
+  private static final String NAME_TAG = "Name";
+
   /**
    * Create the web service station client.
    * 
@@ -115,7 +127,9 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
   }
 
   /**
-   * Fetch the stations.
+   * Fetch the stations. The response is read with a streaming parser which keeps only the
+   * current network, station and channel, so channels are processed as they arrive rather than
+   * after the whole document is read.
    * 
    * @param url
    *          the URL.
@@ -126,85 +140,102 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
   protected void fetch(URL url) throws Exception {
     // likely not an error in the http layer, so assume XML is returned
     XMLInputFactory factory = XMLInputFactory.newInstance();
-    XMLEventReader r = factory.createXMLEventReader(url.toString(), conn.getInputStream());
-    XMLEvent e = r.peek();
-    while (!e.isStartElement()) {
-      e = r.nextEvent(); // eat this one
-      e = r.peek(); // peek at the next
-    }
-    FDSNStationXML staMessage = new FDSNStationXML(r);
-    checkSchemaVersion(staMessage);
-    final NetworkIterator it = staMessage.getNetworks();
-    if (it != null) {
-      while (it.hasNext()) {
-        final Network n = it.next();
-        final StationIterator sit = n.getStations();
-        if (sit != null) {
-          while (sit.hasNext()) {
-            final Station s = sit.next();
-            // if (!n.toString().equals(s.getNetworkCode())) {
-            if (!n.getCode().equals(s.getCode())) {
-              throw new StationXMLException("Station in wrong network: " + n.getCode() + " != "
-                  + s.getCode() + "  " + r.peek().getLocation());
-
-            }
-            // List<StationEpoch> staEpochs = s.getStationEpochs();
-            // for (StationEpoch stationEpoch : staEpochs) {
-            // String network = n.toString();
-            // String station = s.getCode();
-            // FloatType latitude = s.getLatitude();
-            // FloatType longitude = s.getLongitude();
-            // String siteName = null;
-            // if (s.getSite() != null) {
-            // siteName = s.getSite().getName();
-            // }
-            // switch (getLevel()) {
-            // case STATION:
-            // processStation(createStationInfo(station, network, latitude.getValue(),
-            String network = n.getCode();
-            String station = s.getCode();
-            double latitude = s.getLatitude().getValue();
-            double longitude = s.getLongitude().getValue();
-            double elevation = s.getElevation().getValue();
-          
-            String siteName = null;
-            if (s.getSite() != null) {
-              siteName = s.getSite().getName();
+    XMLStreamReader r = factory.createXMLStreamReader(url.toString(), getInputStream());
+    try {
+      String network = null;
+      String station = null;
+      String siteName = null;
+      double latitude = Double.NaN;
+      double longitude = Double.NaN;
+      double elevation = Double.NaN;
+      boolean inSite = false;
+      while (r.hasNext()) {
+        int event = r.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          String tag = r.getLocalName();
+          if (tag.equals(ROOT_TAG)) {
+            checkSchemaVersion(r.getAttributeValue(null, SCHEMA_VERSION_ATTR));
+          } else if (tag.equals(NETWORK_TAG)) {
+            network = r.getAttributeValue(null, CODE_ATTR);
+          } else if (tag.equals(STATION_TAG)) {
+            station = r.getAttributeValue(null, CODE_ATTR);
+            siteName = null;
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+            elevation = Double.NaN;
+          } else if (tag.equals(CHANNEL_TAG)) {
+            if (getLevel() != OutputLevel.CHANNEL) {
+              skipElement(r);
+            } else {
+              String channel = r.getAttributeValue(null, CODE_ATTR);
+              String location = r.getAttributeValue(null, LOCATION_CODE_ATTR);
+              // channel positions are not used, only the station's
+              skipElement(r);
+              processChannel(createChannelInfo(station, channel, network, location, latitude,
+                  longitude, elevation, siteName, groupsType));
             }
-            switch (getLevel()) {
-              case STATION:
-                processStation(createStationInfo(station,
-                    network, latitude, longitude, elevation, siteName));
-                // break;
-                // case CHANNEL:
-                // List<Channel> chanList = s.getChannelList();
-                // for (Channel chan : chanList) {
-                // String location = chan.getLocCode();
-                // String channel = chan.getCode();
-                // processChannel(createChannelInfo(station,
-                break;
-              case CHANNEL:
-                List<Channel> chanList = s.getChannelList();
-                for (Channel chan : chanList) {
-                  String location = chan.getLocCode();
-                  String channel = chan.getCode();
-                  processChannel(createChannelInfo(station,
-                      channel, network, location, latitude, longitude, elevation, siteName, groupsType));
-                }
-                // break;
-                // default:
-                // break;
-                break;
-              default:
-                break;
-
+          } else if (station != null && tag.equals(LATITUDE_TAG)) {
+            latitude = StationInfo.parseDouble(r.getElementText());
+          } else if (station != null && tag.equals(LONGITUDE_TAG)) {
+            longitude = StationInfo.parseDouble(r.getElementText());
+          } else if (station != null && tag.equals(ELEVATION_TAG)) {
+            elevation = StationInfo.parseDouble(r.getElementText());
+          } else if (station != null && tag.equals(SITE_TAG)) {
+            inSite = true;
+          } else if (inSite && tag.equals(NAME_TAG)) {
+            siteName = r.getElementText();
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          String tag = r.getLocalName();
+          if (tag.equals(SITE_TAG)) {
+            inSite = false;
+          } else if (tag.equals(STATION_TAG)) {
+            if (getLevel() == OutputLevel.STATION) {
+              processStation(
+                  createStationInfo(station, network, latitude, longitude, elevation, siteName));
             }
-            // }
+            station = null;
+          } else if (tag.equals(NETWORK_TAG)) {
+            network = null;
           }
         }
       }
+    } finally {
+      r.close();
+    }
+  }
+
+  /**
+   * Check the schema version.
+   * 
+   * @param version
+   *          the document's schema version or null if none.
+   */
+  private void checkSchemaVersion(String version) {
+    if (version == null || !version.equals(StationXMLTagNames.CURRENT_SCHEMA_VERSION)) {
+      LOGGER.warn("XM schema of this document ({}) does not match this code ({}) , "
+          + "results may be incorrect.", version, StationXMLTagNames.CURRENT_SCHEMA_VERSION);
+    }
+  }
+
+  /**
+   * Skip to the end of the current element.
+   * 
+   * @param r
+   *          the reader positioned on a start element.
+   * @throws XMLStreamException
+   *           if an error occurs.
+   */
+  private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = r.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
     }
-    staMessage.closeReader();
   }
 
   /**
@@ -219,7 +250,7 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
   protected void fetchNetworks(URL url) throws Exception {
     // likely not an error in the http layer, so assume XML is returned
     XMLInputFactory factory = XMLInputFactory.newInstance();
-    XMLEventReader r = factory.createXMLEventReader(url.toString(), conn.getInputStream());
+    XMLEventReader r = factory.createXMLEventReader(url.toString(), getInputStream());
     XMLEvent e = r.peek();
     while (!e.isStartElement()) {
       e = r.nextEvent(); // eat this one
@@ -8,8 +8,17 @@ import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +26,49 @@ import org.slf4j.LoggerFactory;
 public class WebServicesClient extends AbstractDataRecordClient {
   private static final Logger LOGGER = LoggerFactory.getLogger(WebServicesClient.class);
 
+  /**
+   * Most dataselect requests made at once, over all clients. This stays under the five idle
+   * connections per server the JVM keeps alive by default.
+   */
+  private static final int MAX_PARALLEL_REQUESTS = 4;
+
+  /** Shortest time span, in seconds, a request is split into. */
+  private static final double MIN_CHUNK_LENGTH = 30 * 60;
+
+  private static final ExecutorService DATASELECT =
+      Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS, new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Dataselect " + ++count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /** Age at which a cached channel list is refreshed in the background, in ms. */
+  private static final long REFRESH_AGE = 60 * 60 * 1000L;
+
+  /**
+   * Age at which a cached channel list is fetched again whole rather than updated, in ms. Updates
+   * only return changed channels so this is how channels which have gone away are dropped.
+   */
+  private static final long FULL_REFRESH_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+  /** Allowance for the station service's clock being behind ours, in ms. */
+  private static final long CLOCK_SKEW = 10 * 60 * 1000L;
+
+  private static final ExecutorService STATION_REFRESH =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Station refresh " + ++count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   /**
    * Test flag to use XML instead of text for station details. XML is more
    * robust at the cost of a lot of speed. This will crawl if there are many
@@ -46,6 +98,22 @@ public class WebServicesClient extends AbstractDataRecordClient {
   /** The station client. */
   private final AbstractWebServiceStationClient stationClient;
 
+  /** The channels the station client has fetched. */
+  private final List<ChannelInfo> fetched;
+
+  /** The channel list published by the latest background refresh, or null if none. */
+  private volatile List<String> refreshedChannels;
+
+  /** The station cache key. */
+  private final String cacheKey;
+
+  /** The filters and station URL, for refreshing. */
+  private final String net;
+  private final String sta;
+  private final String loc;
+  private final String chan;
+  private final String wsStationUrl;
+
   /** The web services data select URL text. */
   private final String wsDataSelectUrl;
 
@@ -82,42 +150,63 @@ public class WebServicesClient extends AbstractDataRecordClient {
   public WebServicesClient(final SeismicDataSource source, String net, String sta, String loc,
       String chan, String wsDataSelectUrl, String wsStationUrl) {
     super(source);
+    this.net = net;
+    this.sta = sta;
+    this.loc = loc;
+    this.chan = chan;
+    this.wsStationUrl = wsStationUrl;
+    cacheKey = StationCache.getKey(wsStationUrl, net, sta, loc, chan);
+    fetched = new ArrayList<ChannelInfo>();
+    stationClient = createStationClient(WebServiceStationXmlClient.createChannelList(), fetched,
+        true);
+    stationClient.setStationList(AbstractWebServiceStationClient.createStationList());
+    this.wsDataSelectUrl = wsDataSelectUrl;
+  }
+
+  /**
+   * Create a station client.
+   * 
+   * @param channelList the list the client adds channel names to.
+   * @param channels the list the client adds new channels to.
+   * @param progress true to report progress to the source's listeners.
+   * @return the station client.
+   */
+  private AbstractWebServiceStationClient createStationClient(final List<String> channelList,
+      final List<ChannelInfo> channels, final boolean progress) {
     Date date = null; // use current date
-    final List<String> channelList = WebServiceStationXmlClient.createChannelList();
+    final AbstractWebServiceStationClient client;
     if (useXmlClientFlag) {
-      stationClient = new WebServiceStationXmlClient(wsStationUrl, net, sta, loc, chan, date) {
+      client = new WebServiceStationXmlClient(wsStationUrl, net, sta, loc, chan, date) {
         public void processChannel(ChannelInfo ch) {
-          WebServiceUtils.addChannel(channelList, ch, source);
-          if (lastStation.compareTo(ch.getStation()) != 0) {
-            lastStation = ch.getStation();
-            if (numStations > 0) {
-              getSource().fireChannelsProgress(progressId,
-                  (double) stationCount / (double) numStations);
-            }
-            stationCount++;
-          }
-
+          addChannel(channelList, channels, ch, progress);
         }
       };
     } else {
-      stationClient = new WebServiceStationTextClient(wsStationUrl, net, sta, loc, chan, date) {
+      client = new WebServiceStationTextClient(wsStationUrl, net, sta, loc, chan, date) {
         public void processChannel(ChannelInfo ch) {
-          WebServiceUtils.addChannel(channelList, ch, source);
-          if (lastStation.compareTo(ch.getStation()) != 0) {
-            lastStation = ch.getStation();
-            if (numStations > 0) {
-              getSource().fireChannelsProgress(progressId,
-                  (double) stationCount / (double) numStations);
-            }
-            stationCount++;
-          }
-
+          addChannel(channelList, channels, ch, progress);
         }
       };
     }
-    stationClient.setStationList(AbstractWebServiceStationClient.createStationList());
-    stationClient.setChannelList(channelList);
-    this.wsDataSelectUrl = wsDataSelectUrl;
+    client.setChannelList(channelList);
+    return client;
+  }
+
+  private void addChannel(List<String> channelList, List<ChannelInfo> channels, ChannelInfo ch,
+      boolean progress) {
+    int size = channelList.size();
+    WebServiceUtils.addChannel(channelList, ch, getSource());
+    if (channelList.size() != size) {
+      channels.add(ch);
+    }
+    if (progress && lastStation.compareTo(ch.getStation()) != 0) {
+      lastStation = ch.getStation();
+      if (numStations > 0) {
+        getSource().fireChannelsProgress(progressId,
+            (double) stationCount / (double) numStations);
+      }
+      stationCount++;
+    }
   }
 
   /**
@@ -126,10 +215,30 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the list of channel information.
    */
   public List<String> getChannels() {
+    final List<String> refreshed = refreshedChannels;
+    if (refreshed != null) {
+      return refreshed;
+    }
     final List<String> channelList = stationClient.getChannelList();
     if (channelList.size() != 0) {
       //LOGGER.info("channel list is not empty");
     } else {
+      final StationCache.Entry entry =
+          StationCache.getInstance().read(cacheKey, stationClient.groupsType);
+      if (entry != null) {
+        for (ChannelInfo ch : entry.getChannels()) {
+          WebServiceUtils.addChannel(channelList, ch, getSource());
+        }
+        assignChannels(channelList);
+        if (System.currentTimeMillis() - entry.getUpdated() > REFRESH_AGE) {
+          STATION_REFRESH.execute(new Runnable() {
+            public void run() {
+              refreshChannels(entry);
+            }
+          });
+        }
+        return channelList;
+      }
       String error = null;
       long start = System.currentTimeMillis();
       if (stationClient.isAllNetworks()) {
@@ -176,12 +285,69 @@ public class WebServicesClient extends AbstractDataRecordClient {
       }
       if (error != null) {
         LOGGER.warn("could not get channels: {}", error);
+      } else {
+        StationCache.getInstance().write(cacheKey,
+            new StationCache.Entry(start, stationClient.getLastModified(), fetched));
       }
       assignChannels(channelList);
     }
     return channelList;
   }
 
+  /**
+   * Bring cached channels up to date. Only channels updated since the cache entry was written
+   * are fetched, unless the entry is old enough to fetch whole. If anything changed the cache is
+   * replaced, a new unmodifiable channel list is published for {@link #getChannels()}, and the
+   * source's listeners are told straight away, on the refresh thread.
+   * 
+   * @param entry the cache entry.
+   */
+  private void refreshChannels(StationCache.Entry entry) {
+    final long start = System.currentTimeMillis();
+    final boolean full = start - entry.getUpdated() > FULL_REFRESH_AGE;
+    final List<ChannelInfo> updates = new ArrayList<ChannelInfo>();
+    final AbstractWebServiceStationClient client =
+        createStationClient(AbstractWebServiceStationClient.createChannelList(), updates, false);
+    if (!full) {
+      client.setUpdatedAfter(new Date(entry.getUpdated() - CLOCK_SKEW));
+      client.setIfModifiedSince(entry.getLastModified());
+    }
+    final String error = client.fetchChannels();
+    if (error != null) {
+      LOGGER.warn("could not refresh channels: {}", error);
+      return;
+    }
+    List<ChannelInfo> channels = updates;
+    if (client.isNotModified()) {
+      channels = entry.getChannels();
+    } else if (!full) {
+      final Map<String, ChannelInfo> merged = new LinkedHashMap<String, ChannelInfo>();
+      for (ChannelInfo ch : entry.getChannels()) {
+        merged.put(ch.getFormattedSCNL(), ch);
+      }
+      for (ChannelInfo ch : updates) {
+        merged.put(ch.getFormattedSCNL(), ch);
+      }
+      channels = new ArrayList<ChannelInfo>(merged.values());
+    }
+    final String lastModified =
+        client.getLastModified() == null ? entry.getLastModified() : client.getLastModified();
+    StationCache.getInstance().write(cacheKey,
+        new StationCache.Entry(start, lastModified, channels));
+    LOGGER.debug("refreshed {} channels, {} updated", channels.size(),
+        client.isNotModified() ? 0 : updates.size());
+
+    if (full || !updates.isEmpty()) {
+      final List<String> channelList = AbstractWebServiceStationClient.createChannelList();
+      for (ChannelInfo ch : channels) {
+        WebServiceUtils.addChannel(channelList, ch, getSource());
+      }
+      assignChannels(channelList);
+      refreshedChannels = Collections.unmodifiableList(channelList);
+      getSource().fireChannelsUpdated();
+    }
+  }
+
   /**
    * Get the raw data.
    * 
@@ -191,39 +357,32 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the raw data.
    */
   public Wave getRawData(final ChannelInfo channelInfo, final double t1, final double t2) {
-    final Date begin = getDate(t1);
-    final Date end = getDate(t2);
-    final List<Wave> waves = createWaves();
-    final DataSelectReader reader = new DataSelectReader(wsDataSelectUrl) {
-      /**
-       * Process a data record.
-       * 
-       * @param dr the data record.
-       * @return true if data record should be added to the list, false
-       *         otherwise.
-       */
-      public boolean processRecord(DataRecord dr) {
-        try {
-          addWaves(waves, dr);
-        } catch (Exception ex) {
-          LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
-        }
-        return true;
-      }
-    };
-    try {
-      final String query = reader.createQuery(channelInfo.getNetwork(), channelInfo.getStation(),
-          channelInfo.getLocation(), channelInfo.getChannel(), begin, end);
-      reader.read(query, (List<DataRecord>) null);
-    } catch (Exception ex) {
-      LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
+    return fetch(wsDataSelectUrl, Collections.singletonList(channelInfo), t1, t2)[0];
+  }
+
+  /**
+   * Get the raw data for several channels, with bulk requests.
+   * 
+   * @param stations the channel names.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the raw data in channel order, without the channels which had no data or which
+   *         couldn't all be fetched.
+   */
+  public Map<String, Wave> getRawData(final List<String> stations, final double t1,
+      final double t2) {
+    final List<ChannelInfo> channels = new ArrayList<ChannelInfo>(stations.size());
+    for (final String station : stations) {
+      channels.add(new ChannelInfo(station));
     }
-    Wave wave = join(waves);
-    if (wave != null && WebServiceUtils.isDebug()) {
-      LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
-          getDateText(wave.getEndTime()) + ")");
+    final Wave[] waves = fetch(wsDataSelectUrl, channels, t1, t2);
+    final Map<String, Wave> result = new LinkedHashMap<String, Wave>();
+    for (int i = 0; i < waves.length; i++) {
+      if (waves[i] != null) {
+        result.put(stations.get(i), waves[i]);
+      }
     }
-    return wave;
+    return result;
   }
 
   /**
@@ -237,41 +396,157 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the raw data.
    */
   public static Wave getWave(final String code, final double t1, final double t2) {
+    return fetch(SwarmConfig.getInstance().fdsnDataselectURL,
+        Collections.singletonList(new ChannelInfo(code)), t1, t2)[0];
+  }
+
+  /**
+   * Fetch waves from a dataselect service. Spans of an hour or more are split into up to four
+   * chunks, of at least half an hour each, which are fetched in parallel.
+   * 
+   * @param url dataselect URL
+   * @param channels channels
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return waves in channel order, null where there was no data or it couldn't all be fetched
+   */
+  private static Wave[] fetch(final String url, final List<ChannelInfo> channels,
+      final double t1, final double t2) {
+    final long start = System.currentTimeMillis();
+    final int chunks = (int) Math.max(1,
+        Math.min(MAX_PARALLEL_REQUESTS, Math.floor((t2 - t1) / MIN_CHUNK_LENGTH)));
+    final double chunkLength = (t2 - t1) / chunks;
+    final List<MiniSeedAssembler> assemblers = new ArrayList<MiniSeedAssembler>(chunks);
+    if (chunks == 1) {
+      assemblers.add(fetchChunk(url, channels, t1, t2));
+    } else {
+      final List<Future<MiniSeedAssembler>> futures =
+          new ArrayList<Future<MiniSeedAssembler>>(chunks);
+      for (int i = 0; i < chunks; i++) {
+        final double c1 = t1 + i * chunkLength;
+        final double c2 = i == chunks - 1 ? t2 : c1 + chunkLength;
+        futures.add(DATASELECT.submit(new Callable<MiniSeedAssembler>() {
+          public MiniSeedAssembler call() {
+            return fetchChunk(url, channels, c1, c2);
+          }
+        }));
+      }
+      for (final Future<MiniSeedAssembler> future : futures) {
+        try {
+          assemblers.add(future.get());
+        } catch (final ExecutionException e) {
+          LOGGER.warn("could not get web service raw data: {}", e.getCause().toString());
+          assemblers.add(null);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          assemblers.add(null);
+          break;
+        }
+      }
+    }
+
+    final Wave[] waves = new Wave[channels.size()];
+    // a chunk which failed leaves a hole in every channel; return nothing rather than waves
+    // which would be cached as if they were all the data there is
+    if (assemblers.contains(null)) {
+      return waves;
+    }
+    for (int i = 0; i < waves.length; i++) {
+      final ChannelInfo channelInfo = channels.get(i);
+      final String channel = MiniSeedAssembler.getChannel(channelInfo.getStation(),
+          channelInfo.getChannel(), channelInfo.getNetwork(), channelInfo.getLocation());
+      if (isFailed(assemblers, channels.size() == 1 ? null : channel)) {
+        continue;
+      }
+      final List<Wave> segments = new ArrayList<Wave>();
+      for (final MiniSeedAssembler assembler : assemblers) {
+        if (channels.size() == 1) {
+          // whatever came back is for the one channel asked for
+          final Wave wave = assembler.getWave();
+          if (wave != null) {
+            segments.add(wave);
+          }
+        } else {
+          segments.addAll(assembler.getSegments(channel));
+        }
+      }
+      if (segments.size() == 1) {
+        waves[i] = segments.get(0);
+      } else if (segments.size() > 1) {
+        waves[i] = join(segments);
+      }
+    }
+    if (WebServiceUtils.isDebug()) {
+      LOGGER.debug("web service raw data for {} channels in {} chunks, {} ms", channels.size(),
+          chunks, System.currentTimeMillis() - start);
+    }
+    return waves;
+  }
+
+  /**
+   * Whether a record for a channel, or any record when channel is null, couldn't be decoded.
+   */
+  private static boolean isFailed(final List<MiniSeedAssembler> assemblers,
+      final String channel) {
+    for (final MiniSeedAssembler assembler : assemblers) {
+      if (channel == null ? assembler.isFailed() : assembler.isFailed(channel)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Fetch one time span for some channels, with a GET for one channel and a bulk POST for more.
+   *
+   * @return the records assembled, or null if the request failed
+   */
+  private static MiniSeedAssembler fetchChunk(final String url, final List<ChannelInfo> channels,
+      final double t1, final double t2) {
     final Date begin = getDate(t1);
     final Date end = getDate(t2);
-    final List<Wave> waves = new ArrayList<Wave>();
-    final DataSelectReader reader =
-        new DataSelectReader(SwarmConfig.getInstance().fdsnDataselectURL) {
-          /**
-           * Process a data record.
-           * 
-           * @param dr the data record.
-           * @return true if data record should be added to the list, false
-           *         otherwise.
-           */
-          public boolean processRecord(DataRecord dr) {
-            try {
-              addWaves(waves, dr);
-            } catch (Exception ex) {
-              LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
-            }
-            return true;
-          }
-        };
+    final MiniSeedAssembler assembler = new MiniSeedAssembler(t2);
+    final DataSelectReader reader = new DataSelectReader(url) {
+      /**
+       * Process a data record.
+       * 
+       * @param dr the data record.
+       * @return true if data record should be added to the list, false
+       *         otherwise.
+       */
+      public boolean processRecord(DataRecord dr) {
+        try {
+          assembler.add(dr);
+        } catch (Exception ex) {
+          LOGGER.warn("could not get web service raw data ({}): {}", channels, ex.getMessage());
+        }
+        return false;
+      }
+    };
     try {
-      String[] comps = code.split("\\$"); 
-      final String query = reader.createQuery(comps[2], comps[0],
-          (comps.length > 3 ? comps[3] : "--"), comps[1], begin, end);
-      reader.read(query, (List<DataRecord>) null);
+      if (channels.size() == 1) {
+        final ChannelInfo channelInfo = channels.get(0);
+        final String query = reader.createQuery(channelInfo.getNetwork(),
+            channelInfo.getStation(), channelInfo.getLocation(), channelInfo.getChannel(), begin,
+            end);
+        reader.read(query, (List<DataRecord>) null);
+      } else {
+        final StringBuilder request = new StringBuilder();
+        for (final ChannelInfo channelInfo : channels) {
+          request.append(DataSelectReader.createBulkLine(channelInfo.getNetwork(),
+              channelInfo.getStation(), channelInfo.getLocation(), channelInfo.getChannel(),
+              begin, end)).append('\n');
+        }
+        reader.readBulk(request.toString(), (List<DataRecord>) null);
+      }
     } catch (Exception ex) {
-      LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
+      LOGGER.warn("could not get web service raw data ({}): {}", channels, ex.getMessage());
+      return null;
     }
-    Wave wave = join(waves);
-    if (wave != null && WebServiceUtils.isDebug()) {
-      LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
-          getDateText(wave.getEndTime()) + ")");
+    if (WebServiceUtils.isDebug()) {
+      LOGGER.debug("web service raw data chunk ({}, {})", getDateText(t1), getDateText(t2));
     }
-    return wave;
+    return assembler;
   }
 
   public AbstractWebServiceStationClient getStationClient() {
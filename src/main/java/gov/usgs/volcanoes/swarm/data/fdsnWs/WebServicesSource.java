@@ -8,10 +8,15 @@ import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.GulperList;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.RequestCoalescer;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -200,14 +205,15 @@ public class WebServicesSource extends SeismicDataSource {
 
   /**
    * Either returns the wave successfully or null if the data source could not
-   * get the wave.
+   * get the wave. Concurrent requests for the same channel share their upstream
+   * fetches.
    * 
    * @param station the station.
    * @param t1 the start time.
    * @param t2 the end time.
    * @return the wave or null if none.
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(final String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
 
     Wave sw = null;
@@ -215,17 +221,89 @@ public class WebServicesSource extends SeismicDataSource {
       sw = cache.getWave(station, t1, t2);
     }
     if (sw == null) {
-      ChannelInfo channelInfo = new ChannelGroupInfo(station);
-      sw = client.getRawData(channelInfo, t1, t2);
+      sw = RequestCoalescer.WAVES.get(RequestCoalescer.getKey(this, station), t1, t2,
+          new RequestCoalescer.Fetcher<Wave>() {
+            public Wave fetch(final double from, final double to) {
+              return fetchWave(station, from, to);
+            }
+          });
+    }
+    return sw;
+  }
+
+  /**
+   * Fetch a wave from the server and cache it.
+   * 
+   * @param station the station.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the wave or null if none.
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    ChannelInfo channelInfo = new ChannelGroupInfo(station);
+    Wave sw = client.getRawData(channelInfo, t1, t2);
+    if (sw == null) {
+      return null;
+    }
+    cacheWave(station, sw);
+    return sw;
+  }
+
+  private void cacheWave(String station, Wave sw) {
+    if (useCache) {
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.cacheWaveAsHelicorder(station, sw);
+      cache.putWave(station, sw);
+    }
+  }
+
+  /**
+   * Get waves for several channels. Channels the cache can't answer are fetched with bulk
+   * dataselect requests.
+   * 
+   * @param stations the channels.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the waves in channel order, without the channels which had no data.
+   */
+  @Override
+  public Map<String, Wave> getWaves(final List<String> stations, final double t1,
+      final double t2) {
+    final Map<String, Wave> found = new HashMap<String, Wave>();
+    final List<String> missing = new ArrayList<String>();
+    for (final String station : stations) {
+      Wave sw = null;
+      if (useCache) {
+        sw = CachedDataSource.getInstance().getWave(station, t1, t2);
+      }
       if (sw == null) {
-        return null;
+        missing.add(station);
+      } else {
+        found.put(station, sw);
       }
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
+    }
+
+    if (missing.size() == 1) {
+      // may share a fetch already under way
+      final Wave sw = getWave(missing.get(0), t1, t2);
+      if (sw != null) {
+        found.put(missing.get(0), sw);
+      }
+    } else if (missing.size() > 1) {
+      for (final Map.Entry<String, Wave> entry : client.getRawData(missing, t1, t2).entrySet()) {
+        cacheWave(entry.getKey(), entry.getValue());
+        found.put(entry.getKey(), entry.getValue());
       }
     }
-    return sw;
+
+    final Map<String, Wave> waves = new LinkedHashMap<String, Wave>();
+    for (final String station : stations) {
+      final Wave sw = found.get(station);
+      if (sw != null) {
+        waves.put(station, sw);
+      }
+    }
+    return waves;
   }
 
   /**
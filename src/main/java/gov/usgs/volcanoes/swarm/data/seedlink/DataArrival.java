@@ -0,0 +1,229 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedlink;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets callers wait for SeedLink data to arrive rather than polling the cache. A caller registers
+ * the channel and window it's about to ask for with {@link #expect}, makes the request, then
+ * waits on the returned {@link Waiter}. Clients report each chunk as they cache it, and the
+ * waiter finishes once the chunks received cover the window.
+ *
+ * <p>Servers rarely have samples right at the edges of a window, and live data lags the clock,
+ * so a window counts as covered when data spans all but {@link #SLACK} seconds at each end. A
+ * window shorter than twice that is covered by any data in it.
+ *
+ * <p>A request which ends without covering its window reports so through {@link #ended}, which
+ * lets the waiters within that window go rather than leaving them to time out.
+ */
+public class DataArrival {
+  public static final DataArrival INSTANCE = new DataArrival();
+
+  /** uncovered time allowed at each end of a window, in seconds. */
+  public static final double SLACK = 15;
+
+  /** largest gap between chunks which still counts as continuous, in seconds. */
+  private static final double GAP = 1;
+
+  private final Map<String, List<Waiter>> waiters;
+
+  private DataArrival() {
+    waiters = new HashMap<String, List<Waiter>>();
+  }
+
+  /**
+   * Register interest in a window of a channel. Call before requesting the data, so nothing
+   * arrives unseen.
+   *
+   * @param scnl channel, $ delimited
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return waiter
+   */
+  public synchronized Waiter expect(final String scnl, final double t1, final double t2) {
+    final Waiter waiter = new Waiter(scnl, t1, t2);
+    List<Waiter> list = waiters.get(scnl);
+    if (list == null) {
+      list = new ArrayList<Waiter>();
+      waiters.put(scnl, list);
+    }
+    list.add(waiter);
+    return waiter;
+  }
+
+  /**
+   * Note a chunk of data which has been cached.
+   *
+   * @param scnl channel, $ delimited
+   * @param wave data
+   */
+  public synchronized void arrived(final String scnl, final Wave wave) {
+    final List<Waiter> list = waiters.get(scnl);
+    if (list == null) {
+      return;
+    }
+    final Iterator<Waiter> it = list.iterator();
+    while (it.hasNext()) {
+      final Waiter waiter = it.next();
+      if (waiter.add(wave.getStartTime(), wave.getEndTime())) {
+        it.remove();
+      }
+    }
+    if (list.isEmpty()) {
+      waiters.remove(scnl);
+    }
+  }
+
+  /**
+   * Note that a request for a window of a channel has ended and nothing more will arrive for it.
+   * Waiters whose windows lie within it stop waiting.
+   *
+   * @param scnl channel, $ delimited
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public synchronized void ended(final String scnl, final double t1, final double t2) {
+    final List<Waiter> list = waiters.get(scnl);
+    if (list == null) {
+      return;
+    }
+    final Iterator<Waiter> it = list.iterator();
+    while (it.hasNext()) {
+      final Waiter waiter = it.next();
+      if (t1 <= waiter.t1 + SLACK && waiter.t2 <= t2 + SLACK) {
+        waiter.done.countDown();
+        it.remove();
+      }
+    }
+    if (list.isEmpty()) {
+      waiters.remove(scnl);
+    }
+  }
+
+  private synchronized void remove(final Waiter waiter) {
+    final List<Waiter> list = waiters.get(waiter.scnl);
+    if (list != null && list.remove(waiter) && list.isEmpty()) {
+      waiters.remove(waiter.scnl);
+    }
+  }
+
+  /**
+   * Wait for several windows.
+   *
+   * @param list waiters
+   * @param deadline time to give up, in ms since the epoch
+   * @return true if all windows were covered or ended
+   */
+  public static boolean awaitAll(final List<Waiter> list, final long deadline) {
+    boolean covered = true;
+    for (final Waiter waiter : list) {
+      covered &= waiter.await(deadline);
+    }
+    return covered;
+  }
+
+  /**
+   * Data awaited for one window of a channel.
+   */
+  public class Waiter {
+    private final String scnl;
+    private final double t1;
+    private final double t2;
+    private final CountDownLatch done;
+
+    /** received spans as start, end pairs, in time order and merged. Guarded by the registry. */
+    private final List<double[]> spans;
+
+    private Waiter(final String scnl, final double t1, final double t2) {
+      this.scnl = scnl;
+      this.t1 = t1;
+      this.t2 = t2;
+      done = new CountDownLatch(1);
+      spans = new ArrayList<double[]>();
+    }
+
+    /**
+     * Add a received span. Called holding the registry lock.
+     *
+     * @return true if the window is now covered
+     */
+    private boolean add(final double start, final double end) {
+      if (end < t1 || start > t2) {
+        return false;
+      }
+      double[] merged = new double[] {start, end};
+      final Iterator<double[]> it = spans.iterator();
+      int index = 0;
+      while (it.hasNext()) {
+        final double[] span = it.next();
+        if (span[1] + GAP < merged[0]) {
+          index++;
+        } else if (merged[1] + GAP < span[0]) {
+          break;
+        } else {
+          merged = new double[] {Math.min(span[0], merged[0]), Math.max(span[1], merged[1])};
+          it.remove();
+        }
+      }
+      spans.add(index, merged);
+
+      final boolean covered;
+      if (t2 - t1 <= 2 * SLACK) {
+        covered = true;
+      } else {
+        covered = merged[0] <= t1 + SLACK && merged[1] >= t2 - SLACK;
+      }
+      if (covered) {
+        done.countDown();
+      }
+      return covered;
+    }
+
+    /**
+     * Whether the window has been covered or its request has ended.
+     *
+     * @return true if done
+     */
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    /**
+     * Wait for the window to be covered or its request to end, then stop listening for it.
+     *
+     * @param deadline time to give up, in ms since the epoch
+     * @return true if done, false if the deadline passed or the wait was interrupted
+     */
+    public boolean await(final long deadline) {
+      try {
+        return done.await(Math.max(0, deadline - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } finally {
+        remove(this);
+      }
+    }
+
+    /**
+     * Stop listening for the window without waiting.
+     */
+    public void cancel() {
+      remove(this);
+    }
+  }
+}
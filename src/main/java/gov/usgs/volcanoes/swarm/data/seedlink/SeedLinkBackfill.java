@@ -0,0 +1,318 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedlink;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches past data from a SeedLink server over at most {@link #MAX_CONNECTIONS} time window
+ * connections at once. Requests wait in a queue, most recent first, so scrolling back through a
+ * layout fetches what is on screen now before what was on screen a moment ago.
+ *
+ * <p>A request for a station is merged into a waiting request for the same station whose window
+ * overlaps or is within {@link #MERGE_GAP} seconds of it, so one connection fetches all the
+ * station's channels over the combined window. A request already covered by a running one is
+ * dropped.
+ *
+ * <p>Servers keep only so much in their ring buffers, so a window older than that comes back
+ * empty. The empty part of each channel's window is remembered for {@link #EMPTY_TIME}, and a
+ * request within it is skipped rather than opening a connection for nothing. When a request
+ * ends, {@link DataArrival} is told so, and callers stop waiting for data which isn't coming.
+ *
+ * <p>Progress is reported through the source's helicorder progress, for every channel of a
+ * request: -1 when it starts, the fraction of the window received as data arrives, and 1 once
+ * the connection has closed and the decoder has cached everything it received.
+ */
+public class SeedLinkBackfill {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedLinkBackfill.class);
+
+  /** time window connections open to one server at once. */
+  public static final int MAX_CONNECTIONS = 2;
+
+  /** largest gap between requests for a station which are still merged, in seconds. */
+  public static final double MERGE_GAP = 60;
+
+  /** longest a request may hold a connection, in ms. */
+  public static final long MAX_RUN_TIME = 10 * 60 * 1000;
+
+  /** how long a window found empty is remembered, in ms. */
+  public static final long EMPTY_TIME = 10 * 60 * 1000;
+
+  private static final ExecutorService WORKERS =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "SeedLink backfill " + ++count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private static final ScheduledExecutorService TIMER =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "SeedLink backfill timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final SeedLinkSource source;
+  private final String host;
+  private final int port;
+  private final LinkedList<Request> queued;
+  private final List<Request> running;
+  private final Map<String, Empty> empty;
+
+  /**
+   * Constructor.
+   *
+   * @param source source to report progress through
+   * @param host server host
+   * @param port server port
+   */
+  public SeedLinkBackfill(final SeedLinkSource source, final String host, final int port) {
+    this.source = source;
+    this.host = host;
+    this.port = port;
+    queued = new LinkedList<Request>();
+    running = new ArrayList<Request>();
+    empty = new HashMap<String, Empty>();
+  }
+
+  /**
+   * Ask for past data of a channel.
+   *
+   * @param scnl channel, $ delimited
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return true if data may arrive, false if the window is known to be empty
+   */
+  public synchronized boolean request(final String scnl, final double t1, final double t2) {
+    final Empty e = empty.get(scnl);
+    if (e != null && e.covers(t1, t2)) {
+      LOGGER.debug("Backfill skipped, no data: {} {} {}", scnl, J2kSec.toDateString(t1),
+          J2kSec.toDateString(t2));
+      return false;
+    }
+    final Request request = new Request(getStation(scnl), scnl, t1, t2);
+    for (final Request r : running) {
+      if (r.covers(request)) {
+        return true;
+      }
+    }
+    final Iterator<Request> it = queued.iterator();
+    while (it.hasNext()) {
+      final Request r = it.next();
+      if (r.station.equals(request.station) && r.t1 <= request.t2 + MERGE_GAP
+          && request.t1 <= r.t2 + MERGE_GAP) {
+        request.merge(r);
+        it.remove();
+      }
+    }
+    LOGGER.debug("Backfill queued: {} {} {} {}", request.station, request.scnls,
+        J2kSec.toDateString(request.t1), J2kSec.toDateString(request.t2));
+    queued.addFirst(request);
+    dispatch();
+    return true;
+  }
+
+  /**
+   * Get the number of requests waiting for a connection.
+   *
+   * @return queued request count
+   */
+  public synchronized int getQueueSize() {
+    return queued.size();
+  }
+
+  /**
+   * Start requests while there are connections free. Called holding the lock.
+   */
+  private void dispatch() {
+    while (running.size() < MAX_CONNECTIONS && !queued.isEmpty()) {
+      final Request request = queued.removeFirst();
+      running.add(request);
+      WORKERS.execute(new Runnable() {
+        public void run() {
+          try {
+            fetch(request);
+          } finally {
+            synchronized (SeedLinkBackfill.this) {
+              running.remove(request);
+              dispatch();
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Fetch a request's window on a connection of its own, reporting progress as data is cached.
+   */
+  private void fetch(final Request request) {
+    fireProgress(request, -1);
+    // earliest data received for each channel, guarded by itself
+    final Map<String, Double> firstData = new HashMap<String, Double>();
+    final SeedLinkClient client =
+        new SeedLinkClient(host, port, request.t1, request.t2, request.scnls) {
+          private double received = request.t1;
+          private int percent = 0;
+
+          @Override
+          void cacheWave(final String scnl, final Wave wave) {
+            super.cacheWave(scnl, wave);
+            if (wave == null) {
+              return;
+            }
+            synchronized (firstData) {
+              final Double first = firstData.get(scnl);
+              if (wave.getEndTime() >= request.t1
+                  && (first == null || wave.getStartTime() < first)) {
+                firstData.put(scnl, wave.getStartTime());
+              }
+            }
+            synchronized (this) {
+              received = Math.max(received, wave.getEndTime());
+              final int p = (int) (100 * (received - request.t1) / (request.t2 - request.t1));
+              if (p > percent && p < 100) {
+                percent = p;
+                fireProgress(request, p / 100.0);
+              }
+            }
+          }
+        };
+    final ScheduledFuture<?> timeout = TIMER.schedule(new Runnable() {
+      public void run() {
+        LOGGER.warn("Backfill of {} took too long, closing", request.station);
+        client.closeConnection();
+      }
+    }, MAX_RUN_TIME, TimeUnit.MILLISECONDS);
+    try {
+      client.run();
+    } finally {
+      timeout.cancel(false);
+      try {
+        SeedLinkDecoder.INSTANCE.drain(client);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (firstData) {
+        noteEmpty(request, firstData);
+      }
+      for (final String scnl : request.scnls) {
+        DataArrival.INSTANCE.ended(scnl, request.t1, request.t2);
+      }
+      fireProgress(request, 1.0);
+    }
+  }
+
+  /**
+   * Remember the part of each channel's window before its first data.
+   */
+  private synchronized void noteEmpty(final Request request,
+      final Map<String, Double> firstData) {
+    final long now = System.currentTimeMillis();
+    final long expires = now + EMPTY_TIME;
+    for (final String scnl : request.scnls) {
+      final Double first = firstData.get(scnl);
+      final double end = first == null ? request.t2 : Math.min(first, request.t2);
+      if (end - request.t1 <= DataArrival.SLACK) {
+        continue;
+      }
+      final Empty e = empty.get(scnl);
+      if (e != null && e.expires > now && e.t1 <= end + DataArrival.SLACK
+          && request.t1 <= e.t2 + DataArrival.SLACK) {
+        empty.put(scnl, new Empty(Math.min(e.t1, request.t1), Math.max(e.t2, end), expires));
+      } else {
+        empty.put(scnl, new Empty(request.t1, end, expires));
+      }
+    }
+  }
+
+  private void fireProgress(final Request request, final double progress) {
+    for (final String scnl : request.scnls) {
+      source.fireHelicorderProgress(scnl, progress);
+    }
+  }
+
+  private static String getStation(final String scnl) {
+    final ChannelInfo channelInfo = new ChannelInfo(scnl);
+    return channelInfo.getNetwork() + "_" + channelInfo.getStation();
+  }
+
+  /**
+   * A window of a channel a server had no data for.
+   */
+  private static class Empty {
+    private final double t1;
+    private final double t2;
+    private final long expires;
+
+    private Empty(final double t1, final double t2, final long expires) {
+      this.t1 = t1;
+      this.t2 = t2;
+      this.expires = expires;
+    }
+
+    private boolean covers(final double rt1, final double rt2) {
+      return expires > System.currentTimeMillis() && t1 <= rt1 + DataArrival.SLACK
+          && rt2 <= t2 + DataArrival.SLACK;
+    }
+  }
+
+  /**
+   * Past data wanted for some channels of one station.
+   */
+  private static class Request {
+    private final String station;
+    private final SortedSet<String> scnls;
+    private double t1;
+    private double t2;
+
+    private Request(final String station, final String scnl, final double t1, final double t2) {
+      this.station = station;
+      this.t1 = t1;
+      this.t2 = t2;
+      scnls = new TreeSet<String>();
+      scnls.add(scnl);
+    }
+
+    private void merge(final Request r) {
+      scnls.addAll(r.scnls);
+      t1 = Math.min(t1, r.t1);
+      t2 = Math.max(t2, r.t2);
+    }
+
+    private boolean covers(final Request r) {
+      return station.equals(r.station) && scnls.containsAll(r.scnls) && t1 <= r.t1
+          && r.t2 <= t2;
+    }
+  }
+}
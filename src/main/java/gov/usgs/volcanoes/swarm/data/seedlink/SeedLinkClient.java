@@ -21,9 +21,17 @@ import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
 import java.util.TimeZone;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import nl.knmi.orfeus.seedlink.SLLog;
 import nl.knmi.orfeus.seedlink.SLPacket;
@@ -36,12 +44,29 @@ import org.slf4j.LoggerFactory;
 /**
  * SeedLink client.
  * 
+ * <p>Changes to the channels of a running client are batched: the stream selectors are rebuilt,
+ * and the connection reopened, once the channel set has been still for
+ * {@link #RECONFIGURE_DELAY} ms. The new connection starts where the data already received ends,
+ * or earlier if a newly added channel asked for older data.
+ * 
  * @author Kevin Frechette (ISTI)
  */
 public class SeedLinkClient implements Runnable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(SeedLinkClient.class);
 
+  /** time the channel set must be unchanged before the connection is rebuilt, in ms. */
+  public static final long RECONFIGURE_DELAY = 500;
+
+  private static final ScheduledExecutorService RECONFIGURE =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "SeedLink reconfigure");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   /** SeedLink server address. */
   private String sladdr;
 
@@ -55,7 +80,25 @@ public class SeedLinkClient implements Runnable {
   private String multiselect = null;
   
   /** SCNL's and last request time. */
-  private TreeMap<String, Double> scnlMap = new TreeMap<String, Double>(); 
+  private Map<String, Double> scnlMap = new ConcurrentSkipListMap<String, Double>();
+
+  /** SCNL's and end time of the latest data received. */
+  private Map<String, Double> dataEndMap = new ConcurrentHashMap<String, Double>();
+
+  /** Furthest back a rebuilt connection resumes data for channels it already had, in seconds. */
+  private double realtimeLimit = Double.MAX_VALUE;
+
+  /** Earliest start time asked for by channels added since the last reconfiguration. */
+  private double pendingStartTime = Double.MAX_VALUE;
+
+  /** Changes to the channel set, for telling when it has been still. */
+  private long changeCount = 0;
+
+  /** Whether a reconfiguration is scheduled. */
+  private boolean reconfigurePending = false;
+
+  /** Whether to start once the pending reconfiguration is done. */
+  private boolean startPending = false;
   
   /** Client thread. */
   private Thread thread;
@@ -74,9 +117,26 @@ public class SeedLinkClient implements Runnable {
    * @param scnl channel to get
    */
   public SeedLinkClient(String host, int port, double startTime, double endTime, String scnl) {
+    this(host, port, startTime, endTime, Collections.singleton(scnl));
+  }
+
+  /**
+   * Create SeedLink client for past data of several channels. Data for the channels is cached
+   * however long the request takes.
+   * 
+   * @param host seedlink server host
+   * @param port seedlink server port
+   * @param startTime data request start time
+   * @param endTime data request end time
+   * @param scnls channels to get
+   */
+  public SeedLinkClient(String host, int port, double startTime, double endTime,
+      Collection<String> scnls) {
     super();
     sladdr = host + ":" + port;
-    scnlMap.put(scnl, J2kSec.now());
+    for (String scnl : scnls) {
+      scnlMap.put(scnl, Double.NaN);
+    }
     createConnection();
     setStartEndTimes(startTime, endTime);
     // slconn.setLastpkttime(true);
@@ -96,6 +156,19 @@ public class SeedLinkClient implements Runnable {
     createConnection();
   }
 
+  /**
+   * Create SeedLink client for real-time data.
+   * 
+   * @param host the server host.
+   * @param port the server port.
+   * @param realtimeLimit furthest back, in seconds, a rebuilt connection resumes data for the
+   *        channels it already had
+   */
+  public SeedLinkClient(String host, int port, double realtimeLimit) {
+    this(host, port);
+    this.realtimeLimit = realtimeLimit;
+  }
+
   protected void setStartEndTimes(double st, double et) {
     this.startTime = st;
     this.endTime = et;
@@ -165,13 +238,12 @@ public class SeedLinkClient implements Runnable {
   }
 
   /**
-   * Add channel for client to get.
-   * @param key gulper listener
+   * Add channel for client to get. The connection picks up the channel shortly, along with any
+   * other channels added or removed meanwhile.
    * @param scnl channel string
    * @param t1 start time
    */
   protected synchronized void add(String scnl, double t1) {
-    this.startTime = t1;
     boolean reconnect = false;
     if (!scnlMap.keySet().contains(scnl)) {
       reconnect = true;
@@ -179,9 +251,9 @@ public class SeedLinkClient implements Runnable {
     scnlMap.put(scnl, J2kSec.now());
     if (reconnect) {
       LOGGER.debug("Added {}", scnl);
-      infolevel = null;
-      closeConnection();
-      createConnection();
+      changeCount++;
+      pendingStartTime = Math.min(pendingStartTime, t1);
+      scheduleReconfigure();
     }
   }
 
@@ -190,13 +262,90 @@ public class SeedLinkClient implements Runnable {
    */
   protected synchronized void remove(String scnl) {
     Double lrt = scnlMap.remove(scnl);
+    dataEndMap.remove(scnl);
     if (lrt != null && !Double.isNaN(lrt)) {
-      closeConnection();
-      createConnection();
+      changeCount++;
+      scheduleReconfigure();
     }
     LOGGER.debug("Removed {}", scnl);
   }
 
+  /**
+   * Schedule a reconfiguration, putting off one already scheduled.
+   */
+  private void scheduleReconfigure() {
+    if (reconfigurePending) {
+      return;
+    }
+    reconfigurePending = true;
+    RECONFIGURE.schedule(new Runnable() {
+      private long seen = changeCount;
+
+      public void run() {
+        synchronized (SeedLinkClient.this) {
+          // wait until the channel set stops changing
+          if (changeCount != seen) {
+            seen = changeCount;
+            RECONFIGURE.schedule(this, RECONFIGURE_DELAY, TimeUnit.MILLISECONDS);
+            return;
+          }
+          reconfigure();
+        }
+      }
+    }, RECONFIGURE_DELAY, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Rebuild the stream selectors and reopen the connection if they changed. Called holding the
+   * lock.
+   */
+  private void reconfigure() {
+    reconfigurePending = false;
+    final String oldMultiselect = multiselect;
+    updateMultiSelect();
+    final boolean running = isRunning() || startPending;
+    startPending = false;
+    if (multiselect == null ? oldMultiselect == null
+        : (multiselect.equals(oldMultiselect) && pendingStartTime == Double.MAX_VALUE)) {
+      if (running && multiselect != null) {
+        start();
+      }
+      return;
+    }
+    startTime = getResumeTime();
+    pendingStartTime = Double.MAX_VALUE;
+    infolevel = null;
+    closeConnection();
+    createConnection();
+    LOGGER.debug("SeedLinkClient reconfigured: {} {} {}", sladdr, multiselect,
+        j2kToSeedLinkDateString(startTime));
+    if (running && multiselect != null) {
+      thread = null;
+      start();
+    }
+  }
+
+  /**
+   * Time a rebuilt connection should start from: the earliest of where the data received for
+   * each channel ends and the start times asked for by newly added channels. A quiet channel
+   * doesn't take the connection back more than the real-time limit; only a newly added channel
+   * asking for older data does.
+   */
+  private double getResumeTime() {
+    double resume = Double.MAX_VALUE;
+    for (String scnl : scnlMap.keySet()) {
+      Double end = dataEndMap.get(scnl);
+      if (end != null) {
+        resume = Math.min(resume, end);
+      }
+    }
+    if (resume != Double.MAX_VALUE && realtimeLimit != Double.MAX_VALUE) {
+      resume = Math.max(resume, J2kSec.now() - realtimeLimit);
+    }
+    resume = Math.min(resume, pendingStartTime);
+    return resume == Double.MAX_VALUE ? startTime : resume;
+  }
+
   /**
    * Update multiselect statement.
    */
@@ -227,12 +376,12 @@ public class SeedLinkClient implements Runnable {
   }
 
   /**
-   * Cache the wave.
+   * Cache the wave. Called by the decoder with the samples of consecutive packets.
    * 
    * @param scnl the SCNL.
    * @param wave the wave.
    */
-  private void cacheWave(String scnl, Wave wave) {
+  void cacheWave(String scnl, Wave wave) {
     if (scnl == null || wave == null) {
       return;
     }
@@ -241,6 +390,8 @@ public class SeedLinkClient implements Runnable {
       if (Double.isNaN(lastRequestTime) || J2kSec.now() - lastRequestTime < 300) {
         CachedDataSource.getInstance().putWave(scnl, wave);
         CachedDataSource.getInstance().cacheWaveAsHelicorder(scnl, wave);
+        dataEndMap.put(scnl, wave.getEndTime());
+        DataArrival.INSTANCE.arrived(scnl, wave);
       } else {
         // Don't save if last request time is more than 5 min ago.
         // Remove SCNL from list.
@@ -325,9 +476,8 @@ public class SeedLinkClient implements Runnable {
   /**
    * Method that processes each packet received from the SeedLink server. This
    * is based on code lifted from SeedLinkManager in SeisGram2K with clock
-   * logic removed.
+   * logic removed. Data packets are handed to the decoder, waiting while it is behind.
    * 
-   * @param count the packet to process.
    * @param slpack the packet to process.
    * 
    * @return true if connection to SeedLink server should be closed and
@@ -336,12 +486,7 @@ public class SeedLinkClient implements Runnable {
    * @exception implementation dependent
    * 
    */
-  private boolean packetHandler(int count, SLPacket slpack) throws Exception {
-
-    if (count % 10000 == 0) {
-      Runtime.getRuntime().gc();
-      LOGGER.debug("Packet count reached limit of 10000, garbage collection performed.");
-    }
+  private boolean packetHandler(SLPacket slpack) throws Exception {
 
     // may not be on AWT-Event Thread, so do not call any GUI methods
 
@@ -378,8 +523,7 @@ public class SeedLinkClient implements Runnable {
     // if waveform and FSDH
     if (waveform != null && blockette.getType() == 999
         && Swarm.getApplicationFrame() != null) {
-      // convert waveform to wave (also done in
-      // gov.usgs.swarm.data.FileDataSource)
+      // read the header here; the decoder converts waveform to wave
       try {
         final Btime bTime = getBtime(blockette, 8);
         final double factor = getDouble(blockette, 10);
@@ -387,18 +531,16 @@ public class SeedLinkClient implements Runnable {
         final double startTime = J2kSec.fromDate(btimeToDate(bTime));
         final double samplingRate = getSampleRate(factor,
             multiplier);
-        final Wave wave = new Wave();
-        wave.setSamplingRate(samplingRate);
-        wave.setStartTime(startTime);
-        wave.buffer = waveform.getDecodedIntegers();
-        wave.register();
         String network = (String) blockette.getFieldVal(7);
         String station = (String) blockette.getFieldVal(4);
         String location = (String) blockette.getFieldVal(5);
         String channel = (String) blockette.getFieldVal(6);
         String scnl = station + " " + channel + " " + network + " " + location;
         scnl = scnl.trim().replace(" ", "$");
-        cacheWave(scnl, wave);
+        SeedLinkDecoder.INSTANCE.submit(this, scnl, startTime, samplingRate, waveform);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return true; // close the connection
       } catch (Exception ex) {
         LOGGER.warn("packetHandler: could create wave", ex);
         return true; // close the connection
@@ -411,7 +553,8 @@ public class SeedLinkClient implements Runnable {
    * Start this SeedLinkClient.
    */
   public void run() {
-
+    // a reconfiguration replaces slconn; keep collecting from the connection this run opened
+    final SeedLinkConnection slconn = this.slconn;
     try {
 
       if (infolevel != null) {
@@ -421,7 +564,6 @@ public class SeedLinkClient implements Runnable {
 
       // Loop with the connection manager
       SLPacket slpack = null;
-      int count = 1;
       while ((slpack = slconn.collect()) != null) {
 
         if (slpack == SLPacket.SLTERMINATE) {
@@ -434,7 +576,7 @@ public class SeedLinkClient implements Runnable {
 
         try {
           // do something with packet
-          boolean terminate = packetHandler(count, slpack);
+          boolean terminate = packetHandler(slpack);
           if (terminate) {
             break;
           }
@@ -442,14 +584,6 @@ public class SeedLinkClient implements Runnable {
         } catch (SeedLinkException sle) {
           LOGGER.debug("packetHandler error: ", sle);
         }
-        // 20081127 AJL - test modification to prevent "Error: out of java heap space" problems
-        // identified by pwiejacz@igf.edu.pl
-        if (count >= Integer.MAX_VALUE) {
-          count = 1;
-          LOGGER.debug("Packet count reset to 1");
-        } else {
-          count++;
-        }
       }
     } catch (Exception e) {
       e.printStackTrace();
@@ -463,7 +597,11 @@ public class SeedLinkClient implements Runnable {
     }
     // Close the BaseSLConnection
     slconn.close();
-    thread = null;
+    synchronized (this) {
+      if (thread == Thread.currentThread()) {
+        thread = null;
+      }
+    }
   }
 
   protected boolean isRunning() {
@@ -473,7 +611,14 @@ public class SeedLinkClient implements Runnable {
     return thread.isAlive();
   }
 
+  /**
+   * Start collecting, once any pending reconfiguration is done.
+   */
   protected synchronized void start() {
+    if (reconfigurePending) {
+      startPending = true;
+      return;
+    }
     if (thread == null) {
       thread = new Thread(this);
       thread.start();
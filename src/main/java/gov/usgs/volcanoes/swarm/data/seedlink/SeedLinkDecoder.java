@@ -0,0 +1,259 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedlink;
+
+import edu.iris.Fissures.seed.container.Waveform;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes SeedLink data packets and caches their samples, off the threads reading from the
+ * servers. Packets are handed to a small pool of workers, each channel always to the same
+ * worker so its packets stay in order. A worker joins consecutive packets of a channel into one
+ * wave and caches it once it spans {@link #MAX_CHUNK} seconds, once its first packet has waited
+ * {@link #FLUSH_DELAY} ms, or when a packet doesn't continue it.
+ *
+ * <p>Each worker takes at most {@link #QUEUE_SIZE} packets ahead. When it falls behind, the
+ * readers block, the servers' sends back up, and the servers slow down rather than Swarm running
+ * out of memory.
+ */
+public class SeedLinkDecoder {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedLinkDecoder.class);
+
+  public static final SeedLinkDecoder INSTANCE = new SeedLinkDecoder();
+
+  /** packets waiting for each worker. */
+  public static final int QUEUE_SIZE = 1024;
+
+  /** longest a packet waits to be cached, in ms. */
+  public static final long FLUSH_DELAY = 1000;
+
+  /** longest wave built from consecutive packets, in seconds. */
+  public static final double MAX_CHUNK = 600;
+
+  private final Worker[] workers;
+
+  private SeedLinkDecoder() {
+    final int count = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    workers = new Worker[count];
+    for (int i = 0; i < count; i++) {
+      workers[i] = new Worker("SeedLink decoder " + (i + 1));
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Queue a data packet, waiting while its worker is behind.
+   *
+   * @param client client which received the packet
+   * @param scnl channel, $ delimited
+   * @param startTime time of the first sample in j2k
+   * @param samplingRate sampling rate
+   * @param waveform undecoded samples
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void submit(final SeedLinkClient client, final String scnl, final double startTime,
+      final double samplingRate, final Waveform waveform) throws InterruptedException {
+    final Worker worker = workers[(scnl.hashCode() & Integer.MAX_VALUE) % workers.length];
+    worker.queue.put(new Packet(client, scnl, startTime, samplingRate, waveform, null));
+  }
+
+  /**
+   * Wait until every packet a client has submitted is decoded and cached, caching its partly
+   * built chunks rather than waiting for them to fall due.
+   *
+   * @param client client which submitted the packets
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void drain(final SeedLinkClient client) throws InterruptedException {
+    final CountDownLatch drained = new CountDownLatch(workers.length);
+    for (final Worker worker : workers) {
+      worker.queue.put(new Packet(client, null, Double.NaN, Double.NaN, null, drained));
+    }
+    drained.await();
+  }
+
+  /**
+   * A data packet waiting to be decoded.
+   */
+  private static class Packet {
+    private final SeedLinkClient client;
+    private final String scnl;
+    private final double startTime;
+    private final double samplingRate;
+    private final Waveform waveform;
+
+    /** counted down once the client's earlier packets are cached; null for a data packet. */
+    private final CountDownLatch drained;
+
+    private Packet(final SeedLinkClient client, final String scnl, final double startTime,
+        final double samplingRate, final Waveform waveform, final CountDownLatch drained) {
+      this.client = client;
+      this.scnl = scnl;
+      this.startTime = startTime;
+      this.samplingRate = samplingRate;
+      this.waveform = waveform;
+      this.drained = drained;
+    }
+  }
+
+  /**
+   * Samples of consecutive packets of one channel, not yet cached.
+   */
+  private static class Chunk {
+    private final SeedLinkClient client;
+    private final double startTime;
+    private final double samplingRate;
+    private final long created;
+    private int[] buffer;
+    private int count;
+
+    private Chunk(final Packet packet, final int capacity) {
+      client = packet.client;
+      startTime = packet.startTime;
+      samplingRate = packet.samplingRate;
+      created = System.currentTimeMillis();
+      buffer = new int[capacity];
+    }
+
+    /** whether a packet starts within half a sample of where the chunk ends. */
+    private boolean continues(final Packet packet) {
+      return packet.client == client && packet.samplingRate == samplingRate
+          && Math.abs((packet.startTime - startTime) * samplingRate - count) <= 0.5;
+    }
+
+    private void append(final int[] samples) {
+      if (count + samples.length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(count + samples.length, buffer.length * 2));
+      }
+      System.arraycopy(samples, 0, buffer, count, samples.length);
+      count += samples.length;
+    }
+
+    private double getDuration() {
+      return count / samplingRate;
+    }
+
+    private Wave toWave() {
+      final Wave wave = new Wave(Arrays.copyOf(buffer, count), startTime, samplingRate);
+      wave.register();
+      return wave;
+    }
+  }
+
+  /**
+   * Decodes the packets of its share of the channels. Chunks are kept in the order they were
+   * started, which is the order they fall due.
+   */
+  private static class Worker extends Thread {
+    private final BlockingQueue<Packet> queue = new ArrayBlockingQueue<Packet>(QUEUE_SIZE);
+    private final Map<String, Chunk> chunks = new LinkedHashMap<String, Chunk>();
+
+    private Worker(final String name) {
+      super(name);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          final Packet packet;
+          if (chunks.isEmpty()) {
+            packet = queue.take();
+          } else {
+            final Chunk first = chunks.values().iterator().next();
+            final long wait = first.created + FLUSH_DELAY - System.currentTimeMillis();
+            packet = queue.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+          }
+          if (packet != null) {
+            if (packet.drained != null) {
+              flush(packet.client);
+              packet.drained.countDown();
+            } else {
+              decode(packet);
+            }
+          }
+          flushDue();
+        } catch (final InterruptedException e) {
+          return;
+        } catch (final RuntimeException e) {
+          LOGGER.warn("SeedLink decoder error", e);
+        }
+      }
+    }
+
+    private void decode(final Packet packet) {
+      final int[] samples;
+      try {
+        samples = packet.waveform.getDecodedIntegers();
+      } catch (final Exception e) {
+        LOGGER.warn("Cannot decode packet for {}: {}", packet.scnl, e.getMessage());
+        return;
+      }
+      if (samples == null || samples.length == 0) {
+        return;
+      }
+      Chunk chunk = chunks.get(packet.scnl);
+      if (chunk != null && !chunk.continues(packet)) {
+        flush(packet.scnl, chunk);
+        chunk = null;
+      }
+      if (chunk == null) {
+        chunk = new Chunk(packet, samples.length * 8);
+        chunks.put(packet.scnl, chunk);
+      }
+      chunk.append(samples);
+      if (chunk.getDuration() >= MAX_CHUNK) {
+        flush(packet.scnl, chunk);
+      }
+    }
+
+    private void flushDue() {
+      final long now = System.currentTimeMillis();
+      final Iterator<Map.Entry<String, Chunk>> it = chunks.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<String, Chunk> entry = it.next();
+        final Chunk chunk = entry.getValue();
+        if (chunk.created + FLUSH_DELAY > now) {
+          return;
+        }
+        it.remove();
+        chunk.client.cacheWave(entry.getKey(), chunk.toWave());
+      }
+    }
+
+    private void flush(final SeedLinkClient client) {
+      final Iterator<Map.Entry<String, Chunk>> it = chunks.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<String, Chunk> entry = it.next();
+        final Chunk chunk = entry.getValue();
+        if (chunk.client == client) {
+          it.remove();
+          chunk.client.cacheWave(entry.getKey(), chunk.toWave());
+        }
+      }
+    }
+
+    private void flush(final String scnl, final Chunk chunk) {
+      chunks.remove(scnl);
+      chunk.client.cacheWave(scnl, chunk.toWave());
+    }
+  }
+}
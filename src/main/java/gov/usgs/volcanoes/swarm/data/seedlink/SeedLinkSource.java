@@ -3,6 +3,7 @@ package gov.usgs.volcanoes.swarm.data.seedlink;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.ChannelUtil;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
@@ -16,9 +17,9 @@ import java.io.IOException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,12 +28,23 @@ import org.slf4j.LoggerFactory;
  * An implementation of <code>SeismicDataSource</code> that connects to an
  * SeedLink Server.
  * 
+ * <p>Real-time data comes over a small pool of long-lived connections, with each station's
+ * channels always on the same connection, so adding or removing a channel reconfigures only one
+ * of them. Past data is fetched by a {@link SeedLinkBackfill}, over a bounded number of time
+ * window connections.
+ * 
  * @author Kevin Frechette (ISTI)
  * @author Tom Parker
  */
 public class SeedLinkSource extends SeismicDataSource {
   /** The logger. */
   private static final Logger LOGGER = LoggerFactory.getLogger(SeedLinkSource.class);
+
+  /** Connections for real-time data. */
+  public static final int REALTIME_CONNECTIONS = 4;
+
+  /** Longest a request waits for data to arrive, in ms. */
+  public static final long MAX_WAIT = 30 * 1000;
   
   // /** Info string prefix text or null if none. */
   private static final String INFO_FILE_TEXT =
@@ -47,15 +59,14 @@ public class SeedLinkSource extends SeismicDataSource {
   /** The server port. */
   private int port;
 
-  /** SeedLink client for real time updates. */
-  private SeedLinkClient realtimeClient = null;
+  /** SeedLink clients for real time updates, partitioned by station. */
+  private SeedLinkClient[] realtimeClients = null;
   
   /** Lower time limit for getting real-time data. */
   private double realtimeLimit = 600.0; // 10 min
   
-  /** SeedLink clients for past data. */
-  private ConcurrentHashMap<String, SeedLinkClient> clients =
-      new ConcurrentHashMap<String, SeedLinkClient>();
+  /** Scheduler of past data requests. */
+  private SeedLinkBackfill backfill = null;
     
   /**
    * Default constructor.
@@ -70,7 +81,11 @@ public class SeedLinkSource extends SeismicDataSource {
     String[] ss = params.split(":");
     host = ss[0];
     port = Integer.parseInt(ss[1]);
-    realtimeClient = new SeedLinkClient(host,port);
+    realtimeClients = new SeedLinkClient[REALTIME_CONNECTIONS];
+    for (int i = 0; i < realtimeClients.length; i++) {
+      realtimeClients[i] = new SeedLinkClient(host, port, realtimeLimit);
+    }
+    backfill = new SeedLinkBackfill(this, host, port);
     if (INFO_FILE_TEXT != null) {
       infoStringFile = new File(INFO_FILE_TEXT + host + port + ".xml");
     }
@@ -95,7 +110,7 @@ public class SeedLinkSource extends SeismicDataSource {
     String infoString = readChannelCache();
 
     if (infoString == null) {
-      infoString = realtimeClient.getInfoString("STREAMS");
+      infoString = realtimeClients[0].getInfoString("STREAMS");
       writeChannelCache(infoString);
     }
 
@@ -173,7 +188,9 @@ public class SeedLinkSource extends SeismicDataSource {
   }
   
   /**
-   * Get the helicorder data.
+   * Get the helicorder data. When nothing is cached, or older data is missing and the server may
+   * have it, waits for the data to arrive, up to {@link #MAX_WAIT}. Newer data is left to arrive
+   * by itself.
    * 
    * @param scnl the scnl.
    * @param t1 the start time.
@@ -181,7 +198,7 @@ public class SeedLinkSource extends SeismicDataSource {
    * @param gl the gulper listener.
    * @return the helicorder data or null if none.
    */
-  public synchronized HelicorderData getHelicorder(String scnl, double t1, double t2,
+  public HelicorderData getHelicorder(String scnl, double t1, double t2,
       GulperListener gl) {
     LOGGER.debug(
         "getHelicorder: {} {} {}", scnl, J2kSec.toDateString(t1), J2kSec.toDateString(t2));
@@ -192,8 +209,9 @@ public class SeedLinkSource extends SeismicDataSource {
 
     double now = J2kSec.now();
     t2 = Math.min(now, t2);
+    List<DataArrival.Waiter> arrivals = new ArrayList<DataArrival.Waiter>();
     if (hd == null) {
-      getData(scnl, t1, t2, now); // no wave; go get all
+      expectData(arrivals, scnl, t1, t2, now); // no wave; go get all
     } else {
       double startDiff = hd.getStartTime() - t1;
       double endDiff = t2 - hd.getEndTime();
@@ -201,34 +219,25 @@ public class SeedLinkSource extends SeismicDataSource {
         return hd;
       }
       if (startDiff > 1) {
-        getData(scnl, t1, hd.getStartTime(), now); // get older stuff
+        expectData(arrivals, scnl, t1, hd.getStartTime(), now); // get older stuff
       }
       if (endDiff > 1) {
         getData(scnl, hd.getEndTime(), t2, now); // get newer stuff
       } 
     }
-    
-    hd = cache.getHelicorder(scnl, t1, t2, (GulperListener) null);
 
-    int count = 0;
-    // keep trying for about 30 seconds...
-    while (count < 3 && hd == null) {
-      try {
-        Thread.sleep(10 * 1000); 
-      } catch (InterruptedException e) {
-        // 
-      }
-      hd = cache.getHelicorder(scnl, t1, t2, (GulperListener) null);
-      count++;
+    if (!arrivals.isEmpty()) {
+      DataArrival.awaitAll(arrivals, System.currentTimeMillis() + MAX_WAIT);
     }
-
-    return hd;
+    return cache.getHelicorder(scnl, t1, t2, (GulperListener) null);
   }
 
   
   /**
    * Either returns the wave successfully or null if the data source could not
-   * get the wave.
+   * get the wave. When nothing is cached, or older data is missing and the server may have it,
+   * waits for the data to arrive, up to {@link #MAX_WAIT}. Newer data is left to arrive by
+   * itself.
    * 
    * @param scnl the scnl.
    * @param t1 the start time.
@@ -242,9 +251,10 @@ public class SeedLinkSource extends SeismicDataSource {
     double now = J2kSec.now();
     t2 = Math.min(now, t2);
     Wave wave = CachedDataSource.getInstance().getBestWave(scnl, t1, t2);
+    List<DataArrival.Waiter> arrivals = new ArrayList<DataArrival.Waiter>();
     if (wave == null) {
       if ((t2 - t1) > 1) {
-        getData(scnl, t1, t2, now); // no wave; go get all
+        expectData(arrivals, scnl, t1, t2, now); // no wave; go get all
       }
     } else {
       double startDiff = wave.getStartTime() - t1;
@@ -256,12 +266,32 @@ public class SeedLinkSource extends SeismicDataSource {
         getData(scnl, wave.getEndTime(), t2, now); // get newer stuff
       } 
       if (startDiff > 1) {
-        getData(scnl, t1, wave.getStartTime(), now); // get older stuff
+        expectData(arrivals, scnl, t1, wave.getStartTime(), now); // get older stuff
       }
     }
-    wave = CachedDataSource.getInstance().getBestWave(scnl, t1, t2);
-  
-    return wave;
+    if (arrivals.isEmpty()) {
+      return wave;
+    }
+    DataArrival.awaitAll(arrivals, System.currentTimeMillis() + MAX_WAIT);
+    return CachedDataSource.getInstance().getBestWave(scnl, t1, t2);
+  }
+
+  /**
+   * Get seedlink data, adding a waiter for it to arrive unless the server is known not to have
+   * it.
+   * @param arrivals waiters to add to
+   * @param scnl channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  private void expectData(List<DataArrival.Waiter> arrivals, String scnl, double t1,
+      double t2, double now) {
+    DataArrival.Waiter arrival = DataArrival.INSTANCE.expect(scnl, t1, t2);
+    if (getData(scnl, t1, t2, now)) {
+      arrivals.add(arrival);
+    } else {
+      arrival.cancel();
+    }
   }
 
   /**
@@ -269,44 +299,40 @@ public class SeedLinkSource extends SeismicDataSource {
    * @param scnl channel
    * @param t1 start time
    * @param t2 end time
+   * @return true if data may arrive, false if the server is known not to have it
    */
-  private void getData(String scnl, double t1, double t2, double now) {
+  private boolean getData(String scnl, double t1, double t2, double now) {
     LOGGER.trace(
         "getData: {} {} {}", scnl, J2kSec.toDateString(t1), J2kSec.toDateString(t2));
     if ((now - t2) > realtimeLimit) {  // if it is all past data
-      getPastData(scnl, t1, t2);
+      return getPastData(scnl, t1, t2);
     } else {
       if ((now - t1) > (realtimeLimit + 1)) {
         // if request size is more than gulpSize start a separate client for the older data
+        SeedLinkClient realtimeClient = getRealtimeClient(scnl);
         realtimeClient.add(scnl, now - realtimeLimit);
         realtimeClient.start();
         getPastData(scnl, t1, now - realtimeLimit);
       } else {
+        SeedLinkClient realtimeClient = getRealtimeClient(scnl);
         realtimeClient.add(scnl, now - realtimeLimit);
         realtimeClient.start();
       }
+      return true;
     }
   }
   
   /**
-   * Start new client to get past data if there isn't already one running.
+   * Queue a request for past data.
    * @param scnl channel
    * @param t1 start time
    * @param t2 end time
+   * @return true if data may arrive, false if the server is known not to have it
    */
-  private void getPastData(String scnl, double t1, double t2) {
-    SeedLinkClient client = clients.get(scnl);
-    if (client != null && client.isRunning()) {
-      return; // let it finish what it was doing
-    }
+  private boolean getPastData(String scnl, double t1, double t2) {
     LOGGER.debug(
         "getPastData: {} {} {}", scnl, J2kSec.toDateString(t1), J2kSec.toDateString(t2));
-    if (client != null) {
-      client.closeConnection();
-    } 
-    client = new SeedLinkClient(host, port, t1, t2, scnl);
-    clients.put(scnl, client);
-    client.start();
+    return backfill.request(scnl, t1, t2);
   }
   
   /**
@@ -330,7 +356,20 @@ public class SeedLinkSource extends SeismicDataSource {
     // not sure if other viewers are using the station. 
     // any good way to check?
     // will be added back later if other frames are using it but may lead to gaps in data?
-    realtimeClient.remove(station.replace(" ", "$")); 
+    String scnl = station.replace(" ", "$");
+    getRealtimeClient(scnl).remove(scnl);
+  }
+
+  /**
+   * Get the real-time client for a channel. All channels of a station share a client.
+   * @param scnl channel
+   * @return real-time client
+   */
+  private SeedLinkClient getRealtimeClient(String scnl) {
+    ChannelInfo channelInfo = new ChannelInfo(scnl);
+    String station = channelInfo.getNetwork() + "_" + channelInfo.getStation();
+    int i = (station.hashCode() & Integer.MAX_VALUE) % realtimeClients.length;
+    return realtimeClients[i];
   }
 
   /**
@@ -40,14 +40,17 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -88,6 +91,7 @@ public class PickBox extends JPanel implements Scrollable, PickToolBarListener {
   private final StatusTextArea statusText;
   private WaveViewPanelListener selectListener;
   private final Map<String, SeismicDataSource> seismicSources;
+  private final Map<String, Wave> prefetched;
   private int wavePanelHeight;
   private int lastClickedIndex;
   private final Set<PickBoxListener> listeners;
@@ -102,6 +106,7 @@ public class PickBox extends JPanel implements Scrollable, PickToolBarListener {
     panels = new CopyOnWriteArrayList<PickWavePanel>();
 
     seismicSources = new HashMap<String, SeismicDataSource>();
+    prefetched = new ConcurrentHashMap<String, Wave>();
     histories = new HashMap<WaveViewPanel, Stack<double[]>>();
     listeners = new HashSet<PickBoxListener>();
     selectedSet = new ConcurrentSkipListSet<PickWavePanel>();
@@ -224,6 +229,42 @@ public class PickBox extends JPanel implements Scrollable, PickToolBarListener {
     g.setColor(Color.WHITE);
   }
 
+  /**
+   * Load the waves for the channels of several arrivals, one batch request per source. Channels
+   * without a known source share one FDSN web services source. Call before adding the picks.
+   * @param arrivals arrivals
+   */
+  public void prefetchWaves(Collection<Arrival> arrivals) {
+    final Map<SeismicDataSource, List<String>> bySource =
+        new LinkedHashMap<SeismicDataSource, List<String>>();
+    WebServicesSource webServices = null;
+    for (Arrival arrival : arrivals) {
+      final String channel = arrival.getPick().getChannel();
+      if (findPanel(channel) != null) {
+        continue;
+      }
+      SeismicDataSource source = seismicSources.get(channel);
+      if (source == null) {
+        if (webServices == null) {
+          webServices = new WebServicesSource(channel);
+        }
+        source = webServices;
+        seismicSources.put(channel, source);
+      }
+      List<String> channels = bySource.get(source);
+      if (channels == null) {
+        channels = new ArrayList<String>();
+        bySource.put(source, channels);
+      }
+      if (!channels.contains(channel)) {
+        channels.add(channel);
+      }
+    }
+    for (Map.Entry<SeismicDataSource, List<String>> entry : bySource.entrySet()) {
+      prefetched.putAll(entry.getKey().getWaves(entry.getValue(), startJ2k, endJ2k));
+    }
+  }
+
   /**
    * Add pick to pick wave panel.
    * @param arrival arrival
@@ -243,7 +284,10 @@ public class PickBox extends JPanel implements Scrollable, PickToolBarListener {
         source = new WebServicesSource(channel);
       }
       wavePanel.setDataSource(source);
-      Wave wave = source.getWave(channel, startJ2k, endJ2k);
+      Wave wave = prefetched.remove(channel);
+      if (wave == null) {
+        wave = source.getWave(channel, startJ2k, endJ2k);
+      }
       if (wave != null) {
         panels.add(wavePanel);
         wavePanel.setWave(wave, startJ2k, endJ2k);
@@ -19,6 +19,9 @@ import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.GulpRate;
+import gov.usgs.volcanoes.swarm.data.GulpScheduler;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSourceListener;
@@ -141,6 +144,7 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
 
   protected Throbber throbber;
   protected JProgressBar progressBar;
+  private JLabel gulpRateLabel;
 
   private boolean noData = false;
 
@@ -237,6 +241,10 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
     statusPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 1, 3));
     statusPanel.add(statusText);
     statusPanel.add(Box.createHorizontalGlue());
+    gulpRateLabel = new JLabel();
+    gulpRateLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 5));
+    gulpRateLabel.setVisible(false);
+    statusPanel.add(gulpRateLabel);
     progressBar = new JProgressBar(0, 100);
     progressBar.setVisible(false);
     progressBar.setStringPainted(true);
@@ -500,6 +508,12 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
         if (settings.channel != null) {
           DataChooser.getInstance().setNearest(settings.channel);
         }
+        GulpScheduler.INSTANCE.focus(gulperListener);
+      }
+
+      @Override
+      public void internalFrameIconified(final InternalFrameEvent e) {
+        GulpScheduler.INSTANCE.setVisible(gulperListener, false);
       }
 
       @Override
@@ -509,6 +523,7 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
         refreshThread.kill();
         SwarmInternalFrames.remove(HelicorderViewerFrame.this);
         WaveViewTime.removeTimeListener(timeListener);
+        CachedDataSource.getInstance().unpin(HelicorderViewerFrame.this);
         dataSource.notifyDataNotNeeded(settings.channel, helicorderViewPanel.getStartTime(),
             helicorderViewPanel.getEndTime(), gulperListener);
         dataSource.close();
@@ -516,6 +531,7 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
 
       @Override
       public void internalFrameDeiconified(final InternalFrameEvent e) {
+        GulpScheduler.INSTANCE.setVisible(gulperListener, true);
         helicorderViewPanel.setResized(true);
         repaintHelicorder();
         repaint();
@@ -544,6 +560,7 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
       }
 
       public void gulperStopped(final boolean killed) {
+        showGulpRate(false);
         if (killed) {
           noData = true;
         } else {
@@ -558,6 +575,7 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
       }
 
       public void gulperGulped(final double t1, final double t2, final boolean success) {
+        showGulpRate(true);
         if (success) {
           getHelicorder();
         }
@@ -725,6 +743,28 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
     helicorderViewPanel.requestFocus();
   }
 
+  /**
+   * Show or hide the rate the data source is being gulped at.
+   * @param show true to show the current rate
+   */
+  private void showGulpRate(final boolean show) {
+    final GulpRate rate =
+        show ? GulpScheduler.INSTANCE.getRate(GulpScheduler.getServerKey(dataSource)) : null;
+    final String text;
+    if (rate == null || Double.isNaN(rate.getBytesPerSecond())) {
+      text = null;
+    } else {
+      text = String.format("Gulping %.1f kB/s, %.0f min chunks", rate.getBytesPerSecond() / 1024,
+          rate.getLastSize() / 60);
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        gulpRateLabel.setText(text);
+        gulpRateLabel.setVisible(text != null);
+      }
+    });
+  }
+
   /**
    * Set status bar string.
    * @param status status text
@@ -806,8 +846,21 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
           }
 
           if (!HelicorderViewerFrame.this.isClosed) {
+            CachedDataSource.getInstance().pin(HelicorderViewerFrame.this, settings.channel,
+                before - tc, end + tc);
             hd = dataSource.getHelicorder(settings.channel.replace(' ', '$'), before - tc, end + tc,
                 gulperListener);
+            // when a pixel column spans several seconds draw from the coarser summary rows
+            if (hd != null && helicorderViewPanel != null && helicorderViewPanel.getWidth() > 0) {
+              final double resolution = tc / (double) helicorderViewPanel.getWidth();
+              final HelicorderData summary = dataSource.getHelicorderSummary(settings.channel,
+                  before - tc, end + tc, resolution);
+              // only if it covers what was fetched; its last row starts up to a period early
+              if (summary != null && summary.getStartTime() <= hd.getStartTime()
+                  && summary.getEndTime() + resolution >= hd.getEndTime()) {
+                hd = summary;
+              }
+            }
             success = true;
           } else {
             success = false;
@@ -48,6 +48,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -93,6 +94,9 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
   private static final Color SELECT_COLOR = new Color(204, 204, 255);
 
+  /** refresh spans are rounded to this many seconds so channels can share a request. */
+  private static final double BATCH_ALIGNMENT = 10;
+
   private Throbber throbber;
 
   private final Map<String, Wave> waveMap;
@@ -776,48 +780,76 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
     final Runnable r = new Runnable() {
       public void run() {
         throbber.increment();
-        String channel = null;
 
         final double[] times = getTimeWindow();
         final double now = times[1];
         final double start = times[0];
-        for (int i = 0; i < panels.size(); i++) {
-          final WaveViewPanel wvp = panels.get(i);
+        final List<WaveViewPanel> refreshing = new ArrayList<WaveViewPanel>(panels);
+
+        // work out what each channel is missing, grouping channels which can share a request
+        final Map<String, Wave> waves = new HashMap<String, Wave>();
+        final Map<Double, List<String>> tails = new TreeMap<Double, List<String>>();
+        final Map<Double, List<String>> heads = new TreeMap<Double, List<String>>();
+        final List<String> wholes = new ArrayList<String>();
+        for (final WaveViewPanel wvp : refreshing) {
           wvp.setWorking(true);
-          channel = wvp.getChannel();
-          try {
-            Wave sw = waveMap.get(channel);
-            if (sw != null) {
-              if (sw.overlaps(start, now)) { // runaway monitor bug fix
-                if (sw.getEndTime() < now) {
-                  final Wave w2 = dataSource.getWave(channel, sw.getEndTime() - 10, now);
-                  if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
-                    sw = sw.combine(w2);
-                  }
-                }
-                if (sw.getStartTime() > start) {
-                  final Wave w2 = dataSource.getWave(channel, start, sw.getStartTime() + 10);
-                  if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
-                    sw = sw.combine(w2);
-                  }
-                }
-                sw = sw.subset(start, sw.getEndTime());
-              } else {
-                sw = null;
-              }
+          final String channel = wvp.getChannel();
+          final Wave sw = waveMap.get(channel);
+          if (sw != null && sw.overlaps(start, now)) { // runaway monitor bug fix
+            waves.put(channel, sw);
+            if (sw.getEndTime() < now) {
+              addToSpan(tails, alignDown(sw.getEndTime() - 10), channel);
             }
-
-            // something bad happened above, just get the whole wave
-            if (sw == null) {
-              sw = dataSource.getWave(channel, start, now);
+            if (sw.getStartTime() > start) {
+              addToSpan(heads, alignUp(sw.getStartTime() + 10), channel);
             }
-            if (sw != null) {
-              waveMap.put(channel, sw);
+          } else {
+            wholes.add(channel);
+          }
+        }
+
+        // a failed request only costs its own channels their update
+        for (final Map.Entry<Double, List<String>> tail : tails.entrySet()) {
+          try {
+            combine(waves, dataSource.getWaves(tail.getValue(), tail.getKey(), now));
+          } catch (final Throwable t) {
+            System.out.println(tail.getValue());
+            t.printStackTrace();
+          }
+        }
+        for (final Map.Entry<Double, List<String>> head : heads.entrySet()) {
+          try {
+            combine(waves, dataSource.getWaves(head.getValue(), start, head.getKey()));
+          } catch (final Throwable t) {
+            System.out.println(head.getValue());
+            t.printStackTrace();
+          }
+        }
+        for (final Map.Entry<String, Wave> entry : waves.entrySet()) {
+          try {
+            final Wave sw = entry.getValue();
+            final Wave subset = sw.subset(start, sw.getEndTime());
+            if (subset == null) {
+              // something bad happened above, just get the whole wave
+              wholes.add(entry.getKey());
+            } else {
+              waveMap.put(entry.getKey(), subset);
             }
           } catch (final Throwable t) {
-            System.out.println(channel);
+            System.out.println(entry.getKey());
             t.printStackTrace();
           }
+        }
+        if (!wholes.isEmpty()) {
+          try {
+            waveMap.putAll(dataSource.getWaves(wholes, start, now));
+          } catch (final Throwable t) {
+            System.out.println(wholes);
+            t.printStackTrace();
+          }
+        }
+
+        for (final WaveViewPanel wvp : refreshing) {
           wvp.setWorking(false);
         }
         throbber.decrement();
@@ -828,6 +860,37 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
     worker.start();
   }
 
+  /**
+   * Combine newly fetched parts with the waves they extend, where they meet.
+   */
+  private static void combine(final Map<String, Wave> waves, final Map<String, Wave> parts) {
+    for (final Map.Entry<String, Wave> part : parts.entrySet()) {
+      final Wave sw = waves.get(part.getKey());
+      final Wave w2 = part.getValue();
+      if (sw.overlaps(w2) || sw.adjacent(w2)) {
+        waves.put(part.getKey(), sw.combine(w2));
+      }
+    }
+  }
+
+  private static void addToSpan(final Map<Double, List<String>> spans, final double time,
+      final String channel) {
+    List<String> channels = spans.get(time);
+    if (channels == null) {
+      channels = new ArrayList<String>();
+      spans.put(time, channels);
+    }
+    channels.add(channel);
+  }
+
+  private static double alignDown(final double time) {
+    return Math.floor(time / BATCH_ALIGNMENT) * BATCH_ALIGNMENT;
+  }
+
+  private static double alignUp(final double time) {
+    return Math.ceil(time / BATCH_ALIGNMENT) * BATCH_ALIGNMENT;
+  }
+
   /**
    * Set kiosk mode.
    * @see gov.usgs.volcanoes.swarm.Kioskable#setKioskMode(boolean)
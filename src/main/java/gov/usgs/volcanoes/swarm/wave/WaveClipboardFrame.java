@@ -56,6 +56,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -1011,15 +1012,35 @@ public class WaveClipboardFrame extends SwarmFrame {
         synchronized (WaveClipboardFrame.this) {
           copy = new ArrayList<WaveViewPanel>(waves);
         }
+        // one batch request per source
+        final Map<SeismicDataSource, List<WaveViewPanel>> bySource =
+            new LinkedHashMap<SeismicDataSource, List<WaveViewPanel>>();
         for (final WaveViewPanel wvp : copy) {
           if (wvp != p) {
             if (wvp.getDataSource() != null) {
               addHistory(wvp, new double[] {wvp.getStartTime(), wvp.getEndTime()});
-              final Wave sw = wvp.getDataSource().getWave(wvp.getChannel(), st, et);
-              wvp.setWave(sw, st, et);
+              List<WaveViewPanel> sourcePanels = bySource.get(wvp.getDataSource());
+              if (sourcePanels == null) {
+                sourcePanels = new ArrayList<WaveViewPanel>();
+                bySource.put(wvp.getDataSource(), sourcePanels);
+              }
+              sourcePanels.add(wvp);
             }
           }
         }
+        for (final Map.Entry<SeismicDataSource, List<WaveViewPanel>> entry : bySource
+            .entrySet()) {
+          final List<String> channels = new ArrayList<String>();
+          for (final WaveViewPanel wvp : entry.getValue()) {
+            if (!channels.contains(wvp.getChannel())) {
+              channels.add(wvp.getChannel());
+            }
+          }
+          final Map<String, Wave> sws = entry.getKey().getWaves(channels, st, et);
+          for (final WaveViewPanel wvp : entry.getValue()) {
+            wvp.setWave(sws.get(wvp.getChannel()), st, et);
+          }
+        }
         return null;
       }
 
@@ -1419,6 +1419,7 @@ public class WaveViewPanel extends JComponent {
         Wave w = source.getWave(newStation, startTime, endTime);
         if (w != null && w.buffer != null) {
           if (settings.filterOn) {
+            w = new Wave(w);
             w.filter(settings.filter, settings.zeroPhaseShift);
           }
           try {
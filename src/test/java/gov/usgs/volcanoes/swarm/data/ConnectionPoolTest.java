@@ -0,0 +1,224 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+  private TestPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new TestPool(4);
+  }
+
+  @Test
+  public void singleBorrowerHoldsOneConnection() {
+    for (int i = 0; i < 10; i++) {
+      final Connection c = pool.borrow();
+      pool.release(c, false);
+    }
+    assertEquals(1, pool.created.size());
+  }
+
+  @Test(timeout = 10000)
+  public void borrowersBeyondSizeWait() throws Exception {
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    final int requests = 40;
+    final CountDownLatch done = new CountDownLatch(requests);
+    final ExecutorService executor = Executors.newFixedThreadPool(10);
+    for (int i = 0; i < requests; i++) {
+      executor.execute(new Runnable() {
+        public void run() {
+          final Connection c = pool.borrow();
+          try {
+            final int now = active.incrementAndGet();
+            synchronized (peak) {
+              peak.set(Math.max(peak.get(), now));
+            }
+            Thread.sleep(5);
+            active.decrementAndGet();
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            pool.release(c, false);
+            done.countDown();
+          }
+        }
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertTrue(peak.get() <= pool.getSize());
+    assertTrue(pool.created.size() <= pool.getSize());
+    assertEquals(0, pool.getInUse());
+  }
+
+  @Test
+  public void failedCheckReplacesConnection() {
+    final Connection first = pool.borrow();
+    pool.release(first, false);
+    first.healthy = false;
+
+    final Connection second = pool.borrow();
+    assertNotSame(first, second);
+    assertTrue(first.closed);
+    pool.release(second, false);
+  }
+
+  @Test
+  public void checkIsToldIdleTime() throws InterruptedException {
+    final Connection c = pool.borrow();
+    pool.release(c, false);
+    Thread.sleep(50);
+    assertSame(c, pool.borrow());
+    assertTrue(pool.lastIdleTime >= 40);
+  }
+
+  @Test
+  public void brokenConnectionIsClosed() {
+    final Connection first = pool.borrow();
+    pool.release(first, true);
+    assertTrue(first.closed);
+    assertNotSame(first, pool.borrow());
+  }
+
+  @Test
+  public void resetClosesIdleNowAndLentOnReturn() {
+    final Connection lent = pool.borrow();
+    final Connection idle = pool.borrow();
+    pool.release(idle, false);
+
+    pool.reset();
+    assertTrue(idle.closed);
+    assertFalse(lent.closed);
+    pool.release(lent, false);
+    assertTrue(lent.closed);
+
+    final Connection fresh = pool.borrow();
+    pool.release(fresh, false);
+    assertFalse(fresh.closed);
+    assertSame(fresh, pool.borrow());
+  }
+
+  @Test
+  public void retiredPoolClosesEverythingReturned() {
+    final Connection lent = pool.borrow();
+    pool.retire();
+    pool.release(lent, false);
+    assertTrue(lent.closed);
+
+    // a borrower still finishing with the old pool doesn't leave a connection open
+    final Connection late = pool.borrow();
+    pool.release(late, false);
+    assertTrue(late.closed);
+    assertEquals(0, pool.getInUse());
+  }
+
+  @Test
+  public void statsCountBorrowsAndBusyTime() throws InterruptedException {
+    final Connection first = pool.borrow();
+    final Connection second = pool.borrow();
+    Thread.sleep(20);
+    pool.release(second, false);
+    pool.release(first, false);
+    pool.release(pool.borrow(), false);
+
+    final List<ConnectionPool.ConnectionStats> stats = pool.getConnectionStats();
+    assertEquals(2, stats.size());
+    assertEquals(1, stats.get(0).getId());
+    assertEquals(2, stats.get(0).getBorrows());
+    assertEquals(1, stats.get(1).getBorrows());
+    for (final ConnectionPool.ConnectionStats s : stats) {
+      assertFalse(s.isBusy());
+      assertTrue(s.getBusyTime() >= 15);
+      assertTrue(s.getUtilization() > 0 && s.getUtilization() <= 1);
+    }
+  }
+
+  @Test
+  public void registerPublishesOverJmx() throws Exception {
+    final String name = "ConnectionPoolTest";
+    final ObjectName objectName =
+        new ObjectName(ConnectionPool.MBEAN_TYPE + ",name=" + ObjectName.quote(name));
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    pool.register(name);
+    try {
+      final Connection first = pool.borrow();
+      final Connection second = pool.borrow();
+      pool.release(pool.borrow(), false);
+      assertEquals(4, server.getAttribute(objectName, "Size"));
+      assertEquals(3, server.getAttribute(objectName, "Open"));
+      assertEquals(2, server.getAttribute(objectName, "InUse"));
+      assertEquals(3, ((Object[]) server.getAttribute(objectName, "Connections")).length);
+      pool.release(first, false);
+      pool.release(second, false);
+
+      // registering again replaces the pool published under the name
+      new TestPool(2).register(name);
+      assertEquals(2, server.getAttribute(objectName, "Size"));
+    } finally {
+      server.unregisterMBean(objectName);
+    }
+  }
+
+  /**
+   * A pool of stand-in connections which records what it opens.
+   */
+  static class TestPool extends ConnectionPool<Connection> {
+    final List<Connection> created = Collections.synchronizedList(new ArrayList<Connection>());
+    volatile long lastIdleTime;
+
+    TestPool(final int size) {
+      super(size);
+    }
+
+    @Override
+    protected Connection create() {
+      final Connection c = new Connection();
+      created.add(c);
+      return c;
+    }
+
+    @Override
+    protected boolean check(final Connection connection, final long idleTime) {
+      lastIdleTime = idleTime;
+      return connection.healthy;
+    }
+
+    @Override
+    protected void destroy(final Connection connection) {
+      connection.closed = true;
+    }
+  }
+
+  static class Connection {
+    volatile boolean healthy = true;
+    volatile boolean closed;
+  }
+}
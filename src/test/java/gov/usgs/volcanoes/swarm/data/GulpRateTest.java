@@ -0,0 +1,105 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GulpRateTest {
+  private static final int GULP_SIZE = 1800;
+  private static final int GULP_DELAY = 1000;
+
+  @Test
+  public void startsAtTheConfiguredBounds() {
+    final GulpRate rate = new GulpRate();
+    assertEquals(GULP_SIZE, rate.getSize(GULP_SIZE), 0);
+    assertEquals(GULP_DELAY, rate.getDelay(GULP_DELAY));
+    assertTrue(Double.isNaN(rate.getBytesPerSecond()));
+  }
+
+  @Test
+  public void quickAnswersShortenTheDelay() {
+    final GulpRate rate = new GulpRate();
+    rate.succeeded(100, 1000);
+    assertEquals(900, rate.getDelay(GULP_DELAY));
+    for (int i = 0; i < 20; i++) {
+      rate.succeeded(100, 1000);
+    }
+    assertEquals(0, rate.getDelay(GULP_DELAY));
+    assertEquals(GULP_SIZE, rate.getSize(GULP_SIZE), 0);
+  }
+
+  @Test
+  public void failureHalvesTheSizeAndDoublesTheDelay() {
+    final GulpRate rate = new GulpRate();
+    for (int i = 0; i < 5; i++) {
+      rate.succeeded(100, 1000);
+    }
+    assertEquals(500, rate.getDelay(GULP_DELAY));
+
+    rate.failed();
+    assertEquals(GULP_SIZE / 2, rate.getSize(GULP_SIZE), 1E-9);
+    assertEquals(GULP_DELAY, rate.getDelay(GULP_DELAY));
+    assertEquals(1, rate.getErrors());
+  }
+
+  @Test
+  public void slowAnswerCountsAsCongestion() {
+    final GulpRate rate = new GulpRate();
+    rate.succeeded(GulpRate.TARGET_LATENCY + 1, 1000);
+    assertEquals(GULP_SIZE / 2, rate.getSize(GULP_SIZE), 1E-9);
+    assertEquals(0, rate.getErrors());
+  }
+
+  @Test
+  public void sizeStaysWithinBounds() {
+    final GulpRate rate = new GulpRate();
+    for (int i = 0; i < 20; i++) {
+      rate.failed();
+    }
+    // no less than a tenth of the gulp size, nor than the minimum
+    assertEquals(GULP_SIZE / 10, rate.getSize(GULP_SIZE), 1E-9);
+    assertEquals(GulpRate.MIN_SIZE, rate.getSize(300), 0);
+    // a gulp size under the minimum is used as it is
+    assertEquals(30, rate.getSize(30), 0);
+    assertEquals(30, rate.getLastSize(), 0);
+    assertEquals(GULP_DELAY, rate.getDelay(GULP_DELAY));
+  }
+
+  @Test
+  public void transferRateIsSmoothed() {
+    final GulpRate rate = new GulpRate();
+    rate.succeeded(1000, 1000);
+    assertEquals(1000, rate.getBytesPerSecond(), 1E-9);
+    rate.succeeded(1000, 2000);
+    assertEquals(1300, rate.getBytesPerSecond(), 1E-9);
+  }
+
+  /**
+   * A link that takes 10 ms per second of data answers a full 30 minute chunk in 18 s, over the
+   * target. The size backs off, then saws just around the target: one step over, halved, and
+   * back up a step at a time.
+   */
+  @Test
+  public void slowLinkSettlesAroundTheTarget() {
+    final GulpRate rate = new GulpRate();
+    long total = 0;
+    long worst = 0;
+    for (int i = 0; i < 100; i++) {
+      final long elapsed = Math.round(rate.getSize(GULP_SIZE) * 10);
+      if (i >= 50) {
+        total += elapsed;
+        worst = Math.max(worst, elapsed);
+      }
+      rate.succeeded(elapsed, 1000);
+    }
+    assertTrue("mean " + total / 50, total / 50 < GulpRate.TARGET_LATENCY);
+    assertTrue("worst " + worst, worst < 1.5 * GulpRate.TARGET_LATENCY);
+  }
+}
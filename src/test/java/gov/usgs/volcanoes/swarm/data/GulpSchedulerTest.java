@@ -0,0 +1,231 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs stand-in gulpers, which record when their chunks start, on the shared scheduler. Each test
+ * uses a server of its own.
+ */
+public class GulpSchedulerTest {
+  private static final AtomicInteger SERVERS = new AtomicInteger();
+
+  private TestSource source;
+  private List<String> starts;
+  private AtomicInteger running;
+  private AtomicInteger peak;
+
+  @Before
+  public void setUp() {
+    source = new TestSource("server" + SERVERS.incrementAndGet());
+    starts = Collections.synchronizedList(new ArrayList<String>());
+    running = new AtomicInteger();
+    peak = new AtomicInteger();
+  }
+
+  @Test(timeout = 10000)
+  public void chunksInFlightPerServerAreCapped() throws Exception {
+    final List<TestListener> listeners = new ArrayList<TestListener>();
+    for (int i = 0; i < 30; i++) {
+      final TestGulper gulper = new TestGulper("g" + i, 3, 0, null);
+      listeners.add(gulper.listener);
+      gulper.start();
+    }
+    for (final TestListener listener : listeners) {
+      assertTrue(listener.stopped.await(5, TimeUnit.SECONDS));
+      assertFalse(listener.killed);
+    }
+    assertEquals(90, starts.size());
+    assertEquals(GulpScheduler.WORKERS_PER_SERVER, peak.get());
+  }
+
+  @Test(timeout = 10000)
+  public void startsAreSpacedByTheDelay() throws Exception {
+    final List<TestListener> listeners = new ArrayList<TestListener>();
+    final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+    for (int i = 0; i < 3; i++) {
+      final TestGulper gulper = new TestGulper("g" + i, 1, 200, null);
+      gulper.times = times;
+      listeners.add(gulper.listener);
+      gulper.start();
+    }
+    for (final TestListener listener : listeners) {
+      assertTrue(listener.stopped.await(5, TimeUnit.SECONDS));
+    }
+    // the delay shrinks by a tenth for each quick answer
+    assertTrue(times.get(1) - times.get(0) >= 190);
+    assertTrue(times.get(2) - times.get(1) >= 170);
+  }
+
+  @Test(timeout = 10000)
+  public void visibleThenFocusedGoFirst() throws Exception {
+    // one worker stays busy throughout, so the rest go through the other one at a time
+    final CountDownLatch hold = new CountDownLatch(1);
+    final CountDownLatch holdLonger = new CountDownLatch(1);
+    final List<TestListener> listeners = new ArrayList<TestListener>();
+    for (int i = 0; i < GulpScheduler.WORKERS_PER_SERVER; i++) {
+      final TestGulper busy = new TestGulper("busy" + i, 1, 0, i == 0 ? hold : holdLonger);
+      listeners.add(busy.listener);
+      busy.start();
+    }
+    awaitStarts(GulpScheduler.WORKERS_PER_SERVER);
+
+    final TestGulper hidden = new TestGulper("hidden", 1, 0, null);
+    final TestGulper visible = new TestGulper("visible", 1, 0, null);
+    final TestGulper focused = new TestGulper("focused", 1, 0, null);
+    GulpScheduler.INSTANCE.focus(hidden.listener);
+    GulpScheduler.INSTANCE.setVisible(hidden.listener, false);
+    GulpScheduler.INSTANCE.focus(focused.listener);
+    for (final TestGulper gulper : new TestGulper[] {hidden, visible, focused}) {
+      listeners.add(gulper.listener);
+      gulper.start();
+    }
+    hold.countDown();
+    awaitStarts(GulpScheduler.WORKERS_PER_SERVER + 3);
+    holdLonger.countDown();
+    for (final TestListener listener : listeners) {
+      assertTrue(listener.stopped.await(5, TimeUnit.SECONDS));
+    }
+
+    final List<String> order = starts.subList(GulpScheduler.WORKERS_PER_SERVER, starts.size());
+    assertEquals("focused", order.get(0));
+    assertEquals("visible", order.get(1));
+    assertEquals("hidden", order.get(2));
+  }
+
+  @Test(timeout = 10000)
+  public void killedWaitingGulperStops() throws Exception {
+    final CountDownLatch hold = new CountDownLatch(1);
+    for (int i = 0; i < GulpScheduler.WORKERS_PER_SERVER; i++) {
+      new TestGulper("busy" + i, 1, 0, hold).start();
+    }
+    awaitStarts(GulpScheduler.WORKERS_PER_SERVER);
+
+    final TestGulper waiting = new TestGulper("waiting", 1, 0, null);
+    waiting.start();
+    waiting.kill();
+    assertTrue(waiting.listener.stopped.await(5, TimeUnit.SECONDS));
+    assertTrue(waiting.listener.killed);
+    hold.countDown();
+    assertFalse(starts.contains("waiting"));
+  }
+
+  private void awaitStarts(final int count) throws InterruptedException {
+    while (starts.size() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Gulps a number of chunks of 20 ms each, optionally holding the first until released.
+   */
+  private class TestGulper extends Gulper {
+    private final TestListener listener = new TestListener();
+    private final String name;
+    private final CountDownLatch hold;
+    private int chunks;
+    private List<Long> times;
+
+    TestGulper(final String name, final int chunks, final int delay,
+        final CountDownLatch hold) {
+      super(GulperList.INSTANCE, source.name + name, source, name, 0, 3600, 600, delay);
+      this.name = name;
+      this.chunks = chunks;
+      this.hold = hold;
+      addListener(listener);
+    }
+
+    @Override
+    protected boolean gulp(final GulpRate rate) {
+      final int now = running.incrementAndGet();
+      synchronized (peak) {
+        peak.set(Math.max(peak.get(), now));
+      }
+      starts.add(name);
+      if (times != null) {
+        times.add(System.currentTimeMillis());
+      }
+      try {
+        if (hold != null) {
+          hold.await(5, TimeUnit.SECONDS);
+        }
+        Thread.sleep(20);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      rate.succeeded(20, 0);
+      running.decrementAndGet();
+      return --chunks > 0;
+    }
+  }
+
+  private static class TestListener implements GulperListener {
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean killed;
+
+    public void gulperStarted() {}
+
+    public void gulperStopped(final boolean killed) {
+      this.killed = killed;
+      stopped.countDown();
+    }
+
+    public void gulperGulped(final double t1, final double t2, final boolean success) {}
+  }
+
+  /**
+   * A source which only has a name, so each test gets a server of its own.
+   */
+  private static class TestSource extends SeismicDataSource {
+    TestSource(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public List<String> getChannels() {
+      return null;
+    }
+
+    @Override
+    public void parse(final String params) {}
+
+    @Override
+    public Wave getWave(final String station, final double t1, final double t2) {
+      return null;
+    }
+
+    @Override
+    public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+        final GulperListener gl) {
+      return null;
+    }
+
+    @Override
+    public String toConfigString() {
+      return name;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the reduction of waves to helicorder rows against the per-sample loop it replaced, and
+ * checks its rows against a reduction which takes each sample's second from its own time.
+ *
+ * <p>Waves are ten minutes of random walk with a 2% gap. Run with
+ * <code>java -cp target/classes:target/test-classes:&lt;dependencies&gt;
+ * gov.usgs.volcanoes.swarm.data.HelicorderReductionBenchmark [seconds per run]</code>.
+ */
+public class HelicorderReductionBenchmark {
+  private static final double TO_USEC = 1E6;
+  private static final double[] RATES = {100, 40, 3};
+  private static final int WAVE_SECONDS = 600;
+  private static final int WAVES = 16;
+  private static final int RUNS = 2;
+
+  /** defeats dead code elimination. */
+  private static double sink;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args optional seconds per timed run, 3 by default
+   */
+  public static void main(final String[] args) {
+    final long runMillis = (long) (1000 * (args.length > 0 ? Double.parseDouble(args[0]) : 3));
+    for (final double rate : RATES) {
+      final Wave[] waves = makeWaves(rate);
+      for (final Wave wave : waves) {
+        check(wave);
+      }
+      double before = 0;
+      double after = 0;
+      for (int run = 0; run < RUNS; run++) {
+        before = Math.max(before, time(waves, runMillis, false));
+        after = Math.max(after, time(waves, runMillis, true));
+      }
+      System.out.printf("%5.0f Hz: before %4.0f M samples/s, after %4.0f M samples/s (%.1fx)%n",
+          rate, before / 1E6, after / 1E6, after / before);
+    }
+    if (sink == 42) {
+      System.out.println();
+    }
+  }
+
+  /**
+   * Reduce waves over and over for about the given time.
+   *
+   * @return samples per second
+   */
+  private static double time(final Wave[] waves, final long runMillis, final boolean current) {
+    long samples = 0;
+    final long start = System.nanoTime();
+    final long end = start + runMillis * 1000000;
+    long now;
+    do {
+      for (final Wave wave : waves) {
+        final DoubleMatrix2D data =
+            current ? AbstractCachingDataSource.toHelicorder(wave).getData() : perSample(wave);
+        sink += data.getQuick(0, 1);
+        samples += wave.numSamples();
+      }
+      now = System.nanoTime();
+    } while (now < end);
+    return samples / ((now - start) / 1E9);
+  }
+
+  private static Wave[] makeWaves(final double rate) {
+    final Random random = new Random(1);
+    final int samples = (int) (WAVE_SECONDS * rate);
+    final Wave[] waves = new Wave[WAVES];
+    for (int w = 0; w < WAVES; w++) {
+      final int[] buffer = new int[samples];
+      int value = 0;
+      for (int i = 0; i < samples; i++) {
+        value += random.nextInt(201) - 100;
+        buffer[i] = value;
+      }
+      final int gap = random.nextInt(samples - samples / 50);
+      for (int i = gap; i < gap + samples / 50; i++) {
+        buffer[i] = Wave.NO_DATA;
+      }
+      // start part way into a second so the edge rows are partial
+      waves[w] = new Wave(buffer, 1E8 + w * WAVE_SECONDS + 0.37, rate);
+    }
+    return waves;
+  }
+
+  /**
+   * The loop cacheWaveAsHelicorder used before, with the mean taken once since Wave caches it.
+   */
+  private static DoubleMatrix2D perSample(final Wave wave) {
+    final int seconds = (int) Math.ceil(wave.numSamples() * wave.getSamplingPeriod());
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(seconds, 3);
+    for (int i = 0; i < seconds; i++) {
+      data.setQuick(i, 1, Integer.MAX_VALUE);
+      data.setQuick(i, 2, Integer.MIN_VALUE);
+    }
+
+    final long sPeriod = (long) (wave.getSamplingPeriod() * TO_USEC);
+    final long startTime = (long) (wave.getStartTime() * TO_USEC);
+    for (int sampleIndex = 0; sampleIndex < wave.numSamples(); sampleIndex++) {
+      final long sampleTime = startTime + sampleIndex * sPeriod;
+      final int sample = wave.buffer[sampleIndex];
+
+      if (sample != Wave.NO_DATA) {
+        final int secondIndex = (int) ((sampleTime - startTime) / TO_USEC);
+        data.setQuick(secondIndex, 0, sampleTime / TO_USEC);
+        data.setQuick(secondIndex, 1, Math.min(data.getQuick(secondIndex, 1), sample));
+        data.setQuick(secondIndex, 2, Math.max(data.getQuick(secondIndex, 2), sample));
+      }
+    }
+
+    final double mean = wave.mean();
+    for (int i = 0; i < seconds; i++) {
+      if (data.getQuick(i, 1) == Integer.MAX_VALUE) {
+        data.setQuick(i, 1, mean);
+      }
+      if (data.getQuick(i, 2) == Integer.MIN_VALUE) {
+        data.setQuick(i, 2, mean);
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Compare the rows with ones built by taking floor(time) of every sample.
+   */
+  private static void check(final Wave wave) {
+    final HelicorderData hd = AbstractCachingDataSource.toHelicorder(wave);
+    final DoubleMatrix2D data = hd.getData();
+    final long firstSecond = (long) Math.floor(wave.getStartTime());
+    final double[] mins = new double[data.rows()];
+    final double[] maxs = new double[data.rows()];
+    Arrays.fill(mins, Double.NaN);
+    Arrays.fill(maxs, Double.NaN);
+    for (int i = 0; i < wave.numSamples(); i++) {
+      final int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA) {
+        continue;
+      }
+      final double time = wave.getStartTime() + i / wave.getSamplingRate();
+      final int row = (int) (Math.floor(time) - firstSecond);
+      mins[row] = Double.isNaN(mins[row]) ? sample : Math.min(mins[row], sample);
+      maxs[row] = Double.isNaN(maxs[row]) ? sample : Math.max(maxs[row], sample);
+    }
+    for (int row = 0; row < data.rows(); row++) {
+      if (data.getQuick(row, 0) != firstSecond + row
+          || !Double.isNaN(mins[row]) && data.getQuick(row, 1) != mins[row]
+          || !Double.isNaN(maxs[row]) && data.getQuick(row, 2) != maxs[row]) {
+        throw new IllegalStateException("row " + row + " of a " + wave.getSamplingRate()
+            + " Hz wave doesn't match its samples");
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Spans stand in for data: a fetch of (t1, t2) returns {t1, t2}, slices and joins act on the
+ * bounds, so each caller can check it got exactly its own span back.
+ */
+public class RequestCoalescerTest {
+  private static final String KEY = "source:channel";
+
+  private RequestCoalescer<double[]> coalescer;
+  private SpanFetcher fetcher;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    coalescer = new RequestCoalescer<double[]>() {
+      @Override
+      protected double[] slice(final double[] span, final double t1, final double t2) {
+        return new double[] {Math.max(span[0], t1), Math.min(span[1], t2)};
+      }
+
+      @Override
+      protected double[] combine(final double[] first, final double[] second) {
+        assertEquals("joined spans must meet", first[1], second[0], 0);
+        return new double[] {first[0], second[1]};
+      }
+    };
+    fetcher = new SpanFetcher();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    fetcher.release();
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 5000)
+  public void coveredRequestSharesFetch() throws Exception {
+    final Future<double[]> first = get(0, 100);
+    fetcher.awaitFetches(1);
+    final Future<double[]> second = get(10, 50);
+    awaitShared(1);
+    fetcher.release();
+
+    assertSpan(0, 100, first.get());
+    assertSpan(10, 50, second.get());
+    assertEquals(1, coalescer.getFetchCount());
+    assertEquals(1, fetcher.spans.size());
+  }
+
+  @Test(timeout = 5000)
+  public void overlappingRequestFetchesOnlyTheSides() throws Exception {
+    final Future<double[]> first = get(0, 100);
+    fetcher.awaitFetches(1);
+    final Future<double[]> second = get(-50, 150);
+    awaitShared(1);
+    fetcher.release();
+
+    assertSpan(0, 100, first.get());
+    assertSpan(-50, 150, second.get());
+    assertEquals(3, fetcher.spans.size());
+    assertTrue(fetcher.fetched(-50, 0));
+    assertTrue(fetcher.fetched(100, 150));
+  }
+
+  @Test(timeout = 5000)
+  public void finishedFetchIsNotShared() throws Exception {
+    fetcher.release();
+    assertSpan(0, 100, get(0, 100).get());
+    assertSpan(10, 50, get(10, 50).get());
+    assertEquals(2, coalescer.getFetchCount());
+    assertEquals(0, coalescer.getSharedCount());
+  }
+
+  @Test(timeout = 5000)
+  public void otherChannelsAreNotShared() throws Exception {
+    final Future<double[]> first = get(0, 100);
+    fetcher.awaitFetches(1);
+    final Future<double[]> second = executor.submit(new Callable<double[]>() {
+      public double[] call() {
+        return coalescer.get("source:other", 10, 50, fetcher);
+      }
+    });
+    fetcher.awaitFetches(2);
+    fetcher.release();
+
+    assertSpan(0, 100, first.get());
+    assertSpan(10, 50, second.get());
+    assertEquals(0, coalescer.getSharedCount());
+  }
+
+  @Test(timeout = 5000)
+  public void failedFetchGivesJoinersNothing() throws Exception {
+    fetcher.fail = true;
+    final Future<double[]> first = get(0, 100);
+    fetcher.awaitFetches(1);
+    final Future<double[]> second = get(10, 50);
+    awaitShared(1);
+    fetcher.release();
+
+    try {
+      first.get();
+      fail("the fetcher's exception should reach its caller");
+    } catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertNull(second.get());
+  }
+
+  private Future<double[]> get(final double t1, final double t2) {
+    return executor.submit(new Callable<double[]>() {
+      public double[] call() {
+        return coalescer.get(KEY, t1, t2, fetcher);
+      }
+    });
+  }
+
+  private void awaitShared(final long count) throws InterruptedException {
+    while (coalescer.getSharedCount() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static void assertSpan(final double t1, final double t2, final double[] span) {
+    assertEquals(t1, span[0], 0);
+    assertEquals(t2, span[1], 0);
+  }
+
+  /**
+   * Returns the span asked for once released, and records what was asked.
+   */
+  private static class SpanFetcher implements RequestCoalescer.Fetcher<double[]> {
+    private final List<double[]> spans = Collections.synchronizedList(new ArrayList<double[]>());
+    private final CountDownLatch released = new CountDownLatch(1);
+    private volatile boolean fail;
+
+    public double[] fetch(final double t1, final double t2) {
+      spans.add(new double[] {t1, t2});
+      try {
+        released.await(5, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (fail) {
+        throw new IllegalStateException("upstream failed");
+      }
+      return new double[] {t1, t2};
+    }
+
+    private void release() {
+      released.countDown();
+    }
+
+    private void awaitFetches(final int count) throws InterruptedException {
+      while (spans.size() < count) {
+        Thread.sleep(1);
+      }
+    }
+
+    private boolean fetched(final double t1, final double t2) {
+      synchronized (spans) {
+        for (final double[] span : spans) {
+          if (span[0] == t1 && span[1] == t2) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
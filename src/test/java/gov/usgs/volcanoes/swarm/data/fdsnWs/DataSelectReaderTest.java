@@ -0,0 +1,172 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.fdsnWs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.sc.seis.seisFile.SeisFileException;
+import edu.sc.seis.seisFile.mseed.DataRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Talks to a dataselect stand-in on the loopback interface. It answers with a status code and an
+ * empty body, so these tests cover the HTTP side; record assembly is left to
+ * {@link MiniSeedAssemblerTest}.
+ */
+public class DataSelectReaderTest {
+  private static final Date BEGIN = new Date(1586390400000L);
+  private static final Date END = new Date(1586394000000L);
+
+  private HttpServer server;
+  private DataSelectReader reader;
+  private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+  private volatile int status;
+  private volatile boolean gzip;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/fdsnws/dataselect/1/query", new HttpHandler() {
+      public void handle(final HttpExchange exchange) throws IOException {
+        requests.add(new Request(exchange));
+        if (gzip) {
+          exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+          final ByteArrayOutputStream body = new ByteArrayOutputStream();
+          new GZIPOutputStream(body).close();
+          exchange.sendResponseHeaders(status, body.size());
+          final OutputStream out = exchange.getResponseBody();
+          out.write(body.toByteArray());
+          out.close();
+        } else {
+          exchange.sendResponseHeaders(status, -1);
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+    reader = new DataSelectReader("http://localhost:" + server.getAddress().getPort()
+        + "/fdsnws/dataselect/1/query", 5000);
+    status = 204;
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void bulkRequestIsPosted() throws Exception {
+    final String request = DataSelectReader.createBulkLine("AV", "AKV", "", "EHZ", BEGIN, END)
+        + "\n" + DataSelectReader.createBulkLine("AV", "AKS", "01", "EHZ", BEGIN, END) + "\n";
+    final List<DataRecord> records = new ArrayList<DataRecord>();
+    assertTrue(reader.readBulk(request, records).isEmpty());
+
+    assertEquals(1, requests.size());
+    final Request r = requests.get(0);
+    assertEquals("POST", r.method);
+    assertEquals("text/plain", r.contentType);
+    assertEquals("gzip", r.acceptEncoding);
+    assertEquals(request, r.body);
+    assertTrue(r.body.startsWith("AV AKV -- EHZ "));
+  }
+
+  @Test
+  public void queryIsSentAsGet() throws Exception {
+    reader.read(reader.createQuery("AV", "AKV", "", "EHZ", BEGIN, END), null);
+    final Request r = requests.get(0);
+    assertEquals("GET", r.method);
+    assertTrue(r.query.startsWith("net=AV&sta=AKV&loc=--&cha=EHZ&start="));
+  }
+
+  @Test
+  public void notFoundMeansNoData() throws Exception {
+    status = 404;
+    final List<DataRecord> records = new ArrayList<DataRecord>();
+    assertTrue(reader.readBulk("AV AKV -- EHZ 2020-04-09T00:00:00 2020-04-09T01:00:00\n",
+        records).isEmpty());
+  }
+
+  @Test(expected = SeisFileException.class)
+  public void serverErrorIsThrown() throws Exception {
+    status = 500;
+    reader.readBulk("AV AKV -- EHZ 2020-04-09T00:00:00 2020-04-09T01:00:00\n", null);
+  }
+
+  @Test
+  public void gzipResponseIsInflated() throws Exception {
+    status = 200;
+    gzip = true;
+    assertTrue(reader.read(reader.createQuery("AV", "AKV", "", "EHZ", BEGIN, END)).isEmpty());
+  }
+
+  @Test
+  public void requestsShareOneConnection() throws Exception {
+    final String query = reader.createQuery("AV", "AKV", "", "EHZ", BEGIN, END);
+    reader.read(query, null);
+    status = 404;
+    reader.read(query, null);
+    status = 204;
+    reader.readBulk("AV AKV -- EHZ 2020-04-09T00:00:00 2020-04-09T01:00:00\n", null);
+
+    final Set<Integer> ports = new HashSet<Integer>();
+    for (final Request r : requests) {
+      ports.add(r.remotePort);
+    }
+    assertEquals(3, requests.size());
+    assertEquals(1, ports.size());
+  }
+
+  /**
+   * What the stand-in saw of one request.
+   */
+  private static class Request {
+    private final String method;
+    private final String query;
+    private final String contentType;
+    private final String acceptEncoding;
+    private final String body;
+    private final int remotePort;
+
+    private Request(final HttpExchange exchange) throws IOException {
+      method = exchange.getRequestMethod();
+      query = exchange.getRequestURI().getRawQuery();
+      contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      remotePort = exchange.getRemoteAddress().getPort();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final InputStream in = exchange.getRequestBody();
+      final byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      body = out.toString("UTF-8");
+    }
+  }
+}
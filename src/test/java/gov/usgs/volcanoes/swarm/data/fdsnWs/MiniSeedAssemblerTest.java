@@ -0,0 +1,210 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.fdsnWs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.iris.dmc.seedcodec.UnsupportedCompressionType;
+import edu.sc.seis.seisFile.mseed.Blockette1000;
+import edu.sc.seis.seisFile.mseed.Btime;
+import edu.sc.seis.seisFile.mseed.DataHeader;
+import edu.sc.seis.seisFile.mseed.DataRecord;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Records are one second of 100 Hz data, 32 bit integers, from 2020-100 (April 9).
+ */
+public class MiniSeedAssemblerTest {
+  private static final String STATION = "AKV";
+  private static final String CHANNEL = MiniSeedAssembler.getChannel(STATION, "EHZ", "AV", "");
+  private static final int RATE = 100;
+  private static final int INT32 = 3;
+
+  @Test
+  public void contiguousRecordsMakeOneSegment() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    assembler.add(record(STATION, 1, 0, RATE, ramp(100, 100)));
+    assembler.add(record(STATION, 2, 0, RATE, ramp(200, 100)));
+
+    final List<Wave> segments = assembler.getSegments(CHANNEL);
+    assertEquals(1, segments.size());
+    assertArrayEquals(ramp(0, 300), segments.get(0).buffer);
+    assertEquals(MiniSeedAssembler.toJ2k(time(0, 0)), segments.get(0).getStartTime(), 1E-9);
+  }
+
+  @Test
+  public void jitterUnderHalfASampleContinues() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    // 4 ms late, less than half of a 10 ms sample
+    assembler.add(record(STATION, 1, 40, RATE, ramp(100, 100)));
+    assertEquals(1, assembler.getSegments(CHANNEL).size());
+  }
+
+  @Test
+  public void overlapIsTrimmed() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    // starts half way through the first record, repeating its last 50 samples
+    final DataHeader header = header(STATION, 0, 5000, RATE, 100);
+    assembler.add(record(header, ramp(50, 100)));
+
+    final List<Wave> segments = assembler.getSegments(CHANNEL);
+    assertEquals(1, segments.size());
+    assertArrayEquals(ramp(0, 150), segments.get(0).buffer);
+  }
+
+  @Test
+  public void duplicateRecordIsDropped() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    assembler.add(record(STATION, 1, 0, RATE, ramp(100, 100)));
+    assembler.add(record(STATION, 1, 0, RATE, ramp(100, 100)));
+
+    final List<Wave> segments = assembler.getSegments(CHANNEL);
+    assertEquals(1, segments.size());
+    assertArrayEquals(ramp(0, 200), segments.get(0).buffer);
+  }
+
+  @Test
+  public void gapStartsNewSegment() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    assembler.add(record(STATION, 5, 0, RATE, ramp(500, 100)));
+
+    final List<Wave> segments = assembler.getSegments(CHANNEL);
+    assertEquals(2, segments.size());
+    assertEquals(5, segments.get(1).getStartTime() - segments.get(0).getStartTime(), 1E-9);
+  }
+
+  @Test
+  public void rateChangeStartsNewSegment() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    assembler.add(record(STATION, 1, 0, 50, ramp(0, 50)));
+    assertEquals(2, assembler.getSegments(CHANNEL).size());
+  }
+
+  @Test
+  public void channelsAreKeptApart() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record("BBB", 0, 0, RATE, ramp(0, 100)));
+    assembler.add(record(STATION, 0, 0, RATE, ramp(1000, 100)));
+    assembler.add(record("BBB", 1, 0, RATE, ramp(100, 100)));
+
+    final String other = MiniSeedAssembler.getChannel("BBB", "EHZ", "AV", "--");
+    assertEquals(Arrays.asList(other, CHANNEL), assembler.getChannels());
+    assertArrayEquals(ramp(0, 200), assembler.getSegments(other).get(0).buffer);
+    assertArrayEquals(ramp(1000, 100), assembler.getSegments(CHANNEL).get(0).buffer);
+  }
+
+  @Test
+  public void undecodableRecordMarksItsChannelFailed() throws Exception {
+    final MiniSeedAssembler assembler = new MiniSeedAssembler();
+    assembler.add(record("BBB", 0, 0, RATE, ramp(0, 100)));
+    final DataRecord bad = record(STATION, 0, 0, RATE, ramp(0, 100));
+    ((Blockette1000) bad.getBlockettes(1000)[0]).setEncodingFormat((byte) 99);
+    try {
+      assembler.add(bad);
+      fail("an unknown encoding should be reported");
+    } catch (final UnsupportedCompressionType e) {
+      // expected
+    }
+    assertTrue(assembler.isFailed());
+    assertTrue(assembler.isFailed(CHANNEL));
+    assertFalse(assembler.isFailed(MiniSeedAssembler.getChannel("BBB", "EHZ", "AV", "")));
+  }
+
+  @Test
+  public void distantExpectedEndDoesNotSizeTheBuffer() throws Exception {
+    // a buffer sized for the whole span would be some 400 GB
+    final MiniSeedAssembler assembler =
+        new MiniSeedAssembler(MiniSeedAssembler.toJ2k(time(0, 0)) + 1E9);
+    assembler.add(record(STATION, 0, 0, RATE, ramp(0, 100)));
+    assertEquals(100, assembler.getSegments(CHANNEL).get(0).numSamples());
+  }
+
+  @Test
+  public void recordTimesMatchCalendar() {
+    final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    final int[][] times = {{1999, 365}, {2000, 60}, {2000, 366}, {2016, 1}, {2100, 59}};
+    for (final int[] t : times) {
+      calendar.clear();
+      calendar.set(Calendar.YEAR, t[0]);
+      calendar.set(Calendar.DAY_OF_YEAR, t[1]);
+      calendar.set(Calendar.HOUR_OF_DAY, 13);
+      calendar.set(Calendar.MINUTE, 7);
+      calendar.set(Calendar.SECOND, 42);
+      calendar.set(Calendar.MILLISECOND, 500);
+      final double expected = calendar.getTimeInMillis() / 1000.0;
+      final double j2k = MiniSeedAssembler.toJ2k(new Btime(t[0], t[1], 13, 7, 42, 5000));
+      final double epoch = MiniSeedAssembler.toJ2k(new Btime(1970, 1, 0, 0, 0, 0));
+      assertEquals(t[0] + "-" + t[1], expected, j2k - epoch, 1E-6);
+    }
+  }
+
+  private static int[] ramp(final int from, final int count) {
+    final int[] samples = new int[count];
+    for (int i = 0; i < count; i++) {
+      samples[i] = from + i;
+    }
+    return samples;
+  }
+
+  private static Btime time(final int second, final int tenthMilli) {
+    return new Btime(2020, 100, 0, 0, second, tenthMilli);
+  }
+
+  private static DataHeader header(final String station, final int second,
+      final int tenthMilli, final int rate, final int samples) {
+    final DataHeader header = new DataHeader(1, 'D', false);
+    header.setStationIdentifier(station);
+    header.setChannelIdentifier("EHZ");
+    header.setNetworkCode("AV");
+    header.setLocationIdentifier("  ");
+    header.setStartBtime(time(second, tenthMilli));
+    header.setNumSamples((short) samples);
+    header.setSampleRateFactor((short) rate);
+    header.setSampleRateMultiplier((short) 1);
+    return header;
+  }
+
+  private static DataRecord record(final String station, final int second, final int tenthMilli,
+      final int rate, final int[] samples) throws Exception {
+    return record(header(station, second, tenthMilli, rate, samples.length), samples);
+  }
+
+  private static DataRecord record(final DataHeader header, final int[] samples)
+      throws Exception {
+    final DataRecord dr = new DataRecord(header);
+    final Blockette1000 b1000 = new Blockette1000();
+    b1000.setEncodingFormat((byte) INT32);
+    b1000.setWordOrder((byte) 1);
+    b1000.setDataRecordLength((byte) 12);
+    dr.addBlockette(b1000);
+    final ByteBuffer data = ByteBuffer.allocate(samples.length * 4);
+    for (final int sample : samples) {
+      data.putInt(sample);
+    }
+    dr.setData(data.array());
+    return dr;
+  }
+}